@@ -101,8 +101,9 @@ public class PiBigInt {
     }
 
     private static BigInteger multiply(BigInteger a, BigInteger b, int scale) {
-        BigInteger c = MULTITHREADED ? a.multiplyParallel(b) : a.multiply(b);
-        return c.add(ONE.shiftLeft(scale-1)).shiftRight(scale);
+        int numThreads = MULTITHREADED ? Runtime.getRuntime().availableProcessors()-1 : 1;
+        BigInteger c = a.multiplyHigh(b, scale-1, numThreads);   // keep one extra bit for rounding
+        return c.add(ONE).shiftRight(1);
     }
 
     private static BigInteger divide(BigInteger a, BigInteger b, int scale) {
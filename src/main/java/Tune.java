@@ -26,6 +26,8 @@
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -33,19 +35,36 @@ import java.util.List;
 import java.util.Random;
 
 /**
- * Determines thresholds for the Schoenhage-Strassen and Barrett algorithms.
+ * Determines thresholds for the FFT, NTT, Schoenhage-Strassen and Barrett algorithms.
+ * Only single-threaded code is timed, so CPU time is measured rather than wall-clock time.
  * Will not work for algorithms whose running time increases smoothly.
  */
 public class Tune {
     private static final int START = 12;   // start at 2^12 binary digits
     private static final long MIN_DURATION_NANOSECS = 2000000000;
     private static final int ACCURACY = 1000;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
 
     public static void main(String[] args) throws Exception {
-        Method slowMethod = BigInteger.class.getDeclaredMethod("multiplyToomCook3", BigInteger.class, BigInteger.class);
+        Method slowMethod = BigInteger.class.getDeclaredMethod("multiplyToomCook", BigInteger.class, BigInteger.class);
         Method fastMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", BigInteger.class, BigInteger.class, int.class);
         tune(slowMethod, fastMethod);
 
+        // the FFT is used between a lower cutover against Toom-Cook and an upper cutover against SS
+        slowMethod = BigInteger.class.getDeclaredMethod("multiplyToomCook", BigInteger.class, BigInteger.class);
+        fastMethod = BigInteger.class.getDeclaredMethod("multiplyFft", BigInteger.class, BigInteger.class, int.class);
+        tune(slowMethod, fastMethod);
+        slowMethod = BigInteger.class.getDeclaredMethod("squareToomCook3");
+        fastMethod = BigInteger.class.getDeclaredMethod("squareFft");
+        tune(slowMethod, fastMethod);
+        slowMethod = BigInteger.class.getDeclaredMethod("multiplyFft", BigInteger.class, BigInteger.class, int.class);
+        fastMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", BigInteger.class, BigInteger.class, int.class);
+        tune(slowMethod, fastMethod);
+
+        slowMethod = BigInteger.class.getDeclaredMethod("multiplyNtt", BigInteger.class, BigInteger.class, int.class);
+        fastMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", BigInteger.class, BigInteger.class, int.class);
+        tune(slowMethod, fastMethod);
+
         System.out.println("***** Note: Barrett thresholds are only meaningful if SS thresholds");
         System.out.println("***** have been updated in BigInteger.java");
         slowMethod = BigInteger.class.getDeclaredMethod("divideBurnikelZiegler", BigInteger.class);
@@ -133,14 +152,14 @@ public class Tune {
             while (total < MIN_DURATION_NANOSECS) {
                 BigInteger obj = method1.getName().startsWith("divide") ? nextBigInteger(rng, 2*numBits) : nextBigInteger(rng, numBits);
                 Object[] params1 = generateParams(method1, rng, numBits);
-                long t1 = System.nanoTime();
+                long t1 = cpuTime();
                 method1.invoke(obj, (Object[])params1);
-                long t2 = System.nanoTime();
+                long t2 = cpuTime();
                 total += t2 - t1;
                 Object[] params2 = generateParams(method2, rng, numBits);
-                t1 = System.nanoTime();
+                t1 = cpuTime();
                 method2.invoke(obj, (Object[])params2);
-                t2 = System.nanoTime();
+                t2 = cpuTime();
                 total += t2 - t1;
                 numIterations++;
             }
@@ -153,9 +172,9 @@ public class Tune {
         for (int i=0; i<numIterations; i++) {
             BigInteger obj = method1.getName().startsWith("divide") ? nextBigInteger(rng, 2*numBits) : nextBigInteger(rng, numBits);
             Object[] params = generateParams(method1, rng, numBits);
-            long t1 = System.nanoTime();
+            long t1 = cpuTime();
             method1.invoke(obj, (Object[])params);
-            long t2 = System.nanoTime();
+            long t2 = cpuTime();
             method1Time += t2 - t1;
         }
 
@@ -164,14 +183,22 @@ public class Tune {
         for (int i=0; i<numIterations; i++) {
             BigInteger obj = method1.getName().startsWith("divide") ? nextBigInteger(rng, 2*numBits) : nextBigInteger(rng, numBits);
             Object[] params = generateParams(method2, rng, numBits);
-            long t1 = System.nanoTime();
+            long t1 = cpuTime();
             method2.invoke(obj, (Object[])params);
-            long t2 = System.nanoTime();
+            long t2 = cpuTime();
             method2Time += t2 - t1;
         }
         return method2Time < method1Time;
     }
 
+    /**
+     * Returns the CPU time used by the current thread in nanoseconds. Unlike the wall-clock
+     * time, it is not inflated by other processes competing for the CPU.
+     */
+    private static long cpuTime() {
+        return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+
     private static Object[] generateParams(Method method, Random rng, int numBits) {
         int numParams = method.getParameterTypes().length;
         Object[] params = new Object[numParams];
@@ -179,7 +206,7 @@ public class Tune {
             if (method.getParameterTypes()[j].equals(BigInteger.class))
                 params[j] = nextBigInteger(rng, numBits);
             else
-                params[j] = 1;   // numThreads arg for multiplySchoenhageStrassen
+                params[j] = 1;   // numThreads arg for multiplySchoenhageStrassen, multiplyNtt and multiplyFft
         return params;
     }
 
@@ -33,14 +33,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamField;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Random;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
 
 import sun.misc.DoubleConsts;
@@ -249,6 +246,79 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      */
     private static final int TOOM_COOK_SQUARE_THRESHOLD = 140;
 
+    /**
+     * The threshold value for using floating-point FFT multiplication.  If the
+     * number of ints in both mag arrays is greater than this number and neither
+     * exceeds {@link #FFT_UPPER_THRESHOLD}, the FFT is used instead of Toom-Cook,
+     * provided the result is guaranteed to be exact.<br/>
+     * The FFT length is a power of two, so its cost doubles in steps while that of
+     * Toom-Cook grows smoothly. Toom-Cook wins below ~850 ints and again between
+     * ~1050 and ~1400 ints, just past a step; above this, the FFT is faster than
+     * Toom-Cook with any number of pieces, so Toom-Cook is only used for products
+     * that are too small or too unbalanced for the FFT. The same thresholds
+     * apply to {@link #multiply(BigInteger, int)}: the FFT's transforms and
+     * pointwise products are split among the threads, and with four threads it
+     * still does less work than parallel Toom-Cook and Schoenhage-Strassen between
+     * this value and {@link #FFT_UPPER_THRESHOLD}. This value is found
+     * experimentally to work well.
+     */
+    private static final int FFT_THRESHOLD = 1400;
+
+    /**
+     * The threshold value for using floating-point FFT squaring.  Squaring saves
+     * one of the three transforms but Toom-Cook squaring saves relatively more,
+     * so the crossover is higher than for multiplication.  This value is found
+     * experimentally to work well.
+     */
+    private static final int FFT_SQUARE_THRESHOLD = 2600;
+
+    /**
+     * The largest number of ints for which floating-point FFT multiplication is
+     * used.  The FFT length doubles just above this, and the digits have to be
+     * made smaller to keep the result exact, so Schoenhage-Strassen and the
+     * three-prime NTT are faster from here on.
+     */
+    private static final int FFT_UPPER_THRESHOLD = 28000;
+
+    /**
+     * The threshold value for using the three-prime number-theoretic transform.  If
+     * the number of ints in both mag arrays is greater than this number and neither
+     * exceeds {@link #NTT_UPPER_THRESHOLD}, the NTT is used instead of
+     * Schoenhage-Strassen when its transform length is well filled.  Below this,
+     * the NTT is slower than SS even then, and the FFT is faster than both anyway
+     * for balanced products.  This value is found experimentally to work well.
+     */
+    private static final int NTT_THRESHOLD = 16000;
+
+    /**
+     * The largest number of ints for which the three-prime NTT is used.  The NTT
+     * beats SS at 250,000 ints (2<sup>18</sup> coefficients, 95% filled) but is
+     * slower from 400,000 ints on, however well its transform length is filled.
+     */
+    private static final int NTT_UPPER_THRESHOLD = 262144;
+
+    /**
+     * The largest number of ints for which the three-prime NTT is used when
+     * multiplying by a {@link PreparedMultiplier}.
+     */
+    private static final int PREPARED_NTT_UPPER_THRESHOLD = 4000000;
+
+    /**
+     * The number of extra bits {@link #multiplyHigh(BigInteger, int)} computes
+     * to decide whether dropping low bits of the factors has changed the result.
+     */
+    private static final int MULTIPLY_HIGH_GUARD_BITS = 64;
+
+    /**
+     * The threshold value for computing short products by the schoolbook method.
+     * If the number of ints in the factors of {@link #multiplyLow(BigInteger, int)}
+     * or {@link #multiplyHigh(BigInteger, int)} is less than this value, only the
+     * partial products that can affect the result are computed, one by one; larger
+     * short products are split into a full product and two smaller short products.
+     * This value is found experimentally to work well.
+     */
+    private static final int SHORT_PRODUCT_SCHOOLBOOK_THRESHOLD = 100;
+
     /**
      * The threshold value for using Burnikel-Ziegler division.  If the number
      * of ints in the divisor are larger than this value, Burnikel-Ziegler
@@ -289,10 +359,27 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      */
     private static final int MULTIPLY_SQUARE_THRESHOLD = 20;
 
+    /**
+     * The threshold value for evaluating the sub-products of a Toom-Cook
+     * multiplication or squaring concurrently.  If {@code numThreads > 1} and
+     * the number of ints in the larger factor is at least this value, the
+     * sub-products are run as separate fork-join tasks.  Below it, the
+     * overhead of forking outweighs the gain.
+     */
+    private static final int PARALLEL_MULTIPLY_THRESHOLD = 400;
+
+    /**
+     * The amount of memory in bytes that the column transforms of a Schoenhage-Strassen DFT work on at
+     * a time. Transforms of vectors larger than this copy blocks of columns into a contiguous array of
+     * this size (the six-step algorithm) rather than transforming the columns in place. It should be
+     * about the size of the L2 cache.
+     */
+    private static final int DFT_BLOCK_BYTES = 1024 * 1024;
+
     /**
      * Whether we're running on a 64-bit JVM.
      */
-    private static final boolean IS64BIT = "64".equals(System.getProperty("sun.arch.data.model"));
+    static final boolean IS64BIT = "64".equals(System.getProperty("sun.arch.data.model"));
 
     // Constructors
 
@@ -1517,8 +1604,12 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         } else {
             if ((xlen < TOOM_COOK_THRESHOLD) && (ylen < TOOM_COOK_THRESHOLD)) {
                 return multiplyKaratsuba(this, val);
+            } else if (shouldUseFft(xlen, ylen, false)) {
+                return multiplyFft(this, val, 1);
+            } else if (shouldUseNtt(xlen, ylen)) {
+                return multiplyNtt(this, val, 1);
             } else if (!shouldUseSchoenhageStrassen(xlen) || !shouldUseSchoenhageStrassen(ylen)) {
-                return multiplyToomCook3(this, val);
+                return multiplyToomCook(this, val, 1);
             } else {
                 return multiplySchoenhageStrassen(this, val, 1);
             }
@@ -1547,12 +1638,432 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * @see #multiplyParallel(BigInteger)
      */
     public BigInteger multiply(BigInteger val, int numThreads) {
+        if (val == this)
+            return square(numThreads);
+
         int xlen = mag.length;
         int ylen = val.mag.length;
-        if (!shouldUseSchoenhageStrassen(xlen) || !shouldUseSchoenhageStrassen(ylen))
+        if (shouldUseFft(xlen, ylen, false))
+            return multiplyFft(this, val, numThreads);
+        else if (shouldUseNtt(xlen, ylen))
+            return multiplyNtt(this, val, numThreads);
+        else if (shouldUseSchoenhageStrassen(xlen) && shouldUseSchoenhageStrassen(ylen))
+            return multiplySchoenhageStrassen(this, val, numThreads);
+        else if (numThreads>1 && xlen>=KARATSUBA_THRESHOLD && ylen>=KARATSUBA_THRESHOLD &&
+                Math.max(xlen, ylen)>=PARALLEL_MULTIPLY_THRESHOLD)
+            return multiplyToomCook(this, val, numThreads);
+        else
             return multiply(val);
+    }
+
+    /**
+     * Prepares a number for being multiplied by many other numbers. Large multiplications
+     * transform both factors, so if one factor is used repeatedly, its transform can be
+     * computed once and reused, saving roughly a third of the time of each multiplication.
+     *
+     * @param  val the number to prepare.
+     * @return an object that can be passed to {@link #multiply(PreparedMultiplier)}
+     * @see #multiply(PreparedMultiplier, int)
+     */
+    public static PreparedMultiplier prepareMultiplier(BigInteger val) {
+        return new PreparedMultiplier(val);
+    }
+
+    /**
+     * Multiplies {@code this} number by a prepared number.
+     *
+     * @param  val value to be multiplied by this BigInteger.
+     * @return {@code this * val.value()}
+     * @see #prepareMultiplier(BigInteger)
+     */
+    public BigInteger multiply(PreparedMultiplier val) {
+        return multiply(val, 1);
+    }
+
+    /**
+     * Multiplies {@code this} number by a prepared number using a specified number of
+     * threads if the inputs are sufficiently large.<br/>
+     * The transform of the prepared number is reused if both numbers are in the
+     * Schoenhage-Strassen range and the transform parameters are the same as in the
+     * previous call, which is the case when {@code this} has about the same length.
+     *
+     * @param  val value to be multiplied by this BigInteger.
+     * @param  numThreads number of threads to use; 1 means run on the current thread
+     * @return {@code this * val.value()}
+     * @see #prepareMultiplier(BigInteger)
+     */
+    public BigInteger multiply(PreparedMultiplier val, int numThreads) {
+        BigInteger factor = val.value;
+        int xlen = mag.length;
+        int ylen = factor.mag.length;
+        if (factor==this || shouldUseFft(xlen, ylen, false))
+            return multiply(factor, numThreads);
+
+        int[] cArr;
+        if (shouldUseNtt(xlen, ylen) || shouldUsePreparedNtt(xlen, ylen)) {
+            long[][] transform = val.getNttTransform(NttMultiplier.getLogLength(xlen, ylen), numThreads);
+            cArr = NttMultiplier.multiply(mag, transform, ylen, numThreads);
+        }
+        else if (shouldUseSchoenhageStrassen(xlen) && shouldUseSchoenhageStrassen(ylen)) {
+            int[] params = getSchoenhageStrassenParams(xlen, ylen);
+            int k = params[0];
+            int numParts = params[1];
+            int pieceSize = getSchoenhageStrassenPieceSize(xlen, ylen, getSchoenhageStrassenNumCoeffs(k, numParts));
+            SchoenhageStrassenTransform transform = val.getSchoenhageStrassenTransform(k, numParts, pieceSize, numThreads);
+            cArr = multiplySchoenhageStrassen(mag, factor.mag, k, numParts, transform.pieceSize, transform.parts, numThreads);
+        }
         else
-            return multiplySchoenhageStrassen(this, val, numThreads);
+            return multiply(factor, numThreads);
+
+        BigInteger c = new BigInteger(trustedStripLeadingZeroInts(cArr), 1);
+        if (signum != factor.signum)
+            c = c.negate();
+        return c;
+    }
+
+    /**
+     * Returns the lowest {@code bits} bits of the product of {@code this} and
+     * {@code val}, i.e. a BigInteger whose magnitude is
+     * {@code |this * val| mod 2<sup>bits</sup>} and whose sign is that of the
+     * product.  Only the lowest {@code bits} bits of each factor are used.
+     *
+     * @param  val value to be multiplied by this BigInteger.
+     * @param  bits the number of low bits to compute.
+     * @return the low part of {@code this * val}
+     * @throws ArithmeticException if {@code bits} is negative.
+     * @see #multiplyHigh(BigInteger, int)
+     */
+    public BigInteger multiplyLow(BigInteger val, int bits) {
+        return multiplyLow(val, bits, 1);
+    }
+
+    /**
+     * Returns the lowest {@code bits} bits of the product of {@code this} and
+     * {@code val} using a specified number of threads if the inputs are
+     * sufficiently large.
+     *
+     * @param  val value to be multiplied by this BigInteger.
+     * @param  bits the number of low bits to compute.
+     * @param  numThreads number of threads to use; 1 means run on the current thread
+     * @return the low part of {@code this * val}
+     * @throws ArithmeticException if {@code bits} is negative.
+     * @see #multiplyLow(BigInteger, int)
+     */
+    public BigInteger multiplyLow(BigInteger val, int bits, int numThreads) {
+        if (bits < 0)
+            throw new ArithmeticException("Negative bit count");
+        BigInteger a = abs().truncate(bits);
+        BigInteger b = val.abs().truncate(bits);
+        int n = (bits+31) / 32;
+        BigInteger c;
+        if (shouldUseShortProduct(a, b, n))
+            c = multiplyLowShort(a, b, n, numThreads).truncate(bits);
+        else
+            c = a.multiply(b, numThreads).truncate(bits);
+        return signum*val.signum<0 ? c.negate() : c;
+    }
+
+    /**
+     * Returns the product of {@code this} and {@code val} without its lowest
+     * {@code bits} bits, i.e. a BigInteger whose magnitude is
+     * {@code floor(|this * val| / 2<sup>bits</sup>)} and whose sign is that of
+     * the product.<br/>
+     * Bits of the factors that cannot affect the result are not multiplied,
+     * which makes this faster than {@code multiply(val).shiftRight(bits)} when
+     * {@code bits} exceeds the length of one of the factors.
+     *
+     * @param  val value to be multiplied by this BigInteger.
+     * @param  bits the number of low bits to discard.
+     * @return the high part of {@code this * val}
+     * @throws ArithmeticException if {@code bits} is negative.
+     * @see #multiplyLow(BigInteger, int)
+     */
+    public BigInteger multiplyHigh(BigInteger val, int bits) {
+        return multiplyHigh(val, bits, 1);
+    }
+
+    /**
+     * Returns the product of {@code this} and {@code val} without its lowest
+     * {@code bits} bits using a specified number of threads if the inputs are
+     * sufficiently large.
+     *
+     * @param  val value to be multiplied by this BigInteger.
+     * @param  bits the number of low bits to discard.
+     * @param  numThreads number of threads to use; 1 means run on the current thread
+     * @return the high part of {@code this * val}
+     * @throws ArithmeticException if {@code bits} is negative.
+     * @see #multiplyHigh(BigInteger, int)
+     */
+    public BigInteger multiplyHigh(BigInteger val, int bits, int numThreads) {
+        if (bits < 0)
+            throw new ArithmeticException("Negative bit count");
+        BigInteger a = abs();
+        BigInteger b = val.abs();
+        if (bits >= a.bitLength()+b.bitLength())
+            return ZERO;
+        int guard = MULTIPLY_HIGH_GUARD_BITS;
+
+        // Dropping the low aShift bits of a and the low bShift bits of b makes the product smaller
+        // by less than a*2^bShift + b*2^aShift <= 2^(bits-guard+1).
+        int aShift = Math.max(0, bits - guard - b.bitLength());
+        int bShift = Math.max(0, bits - guard - a.bitLength());
+        a = a.shiftRight(aShift);
+        b = b.shiftRight(bShift);
+        int shift = bits - aShift - bShift;   // at least guard if aShift+bShift > 0
+
+        // Leaving out the partial products of weight less than 2^(32*cut) makes the product smaller
+        // by less than 2^(32*cut+64) <= 2^(shift-guard). The short product leaves out those of weight
+        // less than 2^(32*(n-1)), so the factors are aligned to make that the same as 2^(32*cut).
+        int n = Math.max(a.mag.length, b.mag.length);
+        int cut = (shift-guard)/32 - 2;
+        BigInteger p = null;
+        if (shouldUseShortProduct(a, b, n) && cut >= 3*n/4) {
+            int d = cut - n + 1;
+            p = multiplyHighShort(a.shiftRight(32*d), b.shiftRight(32*d), n-d, numThreads).shiftLeft(64*d);
+        }
+        else if (aShift+bShift > 0)
+            p = a.multiply(b, numThreads);
+
+        BigInteger c = null;
+        if (p != null)
+            // The exact product is less than 2^(shift-guard+2) units of p larger, which can only
+            // carry into the result if bits shift-guard+2 to shift-1 of p are all ones.
+            for (int i=shift-guard+2; i<shift; i++)
+                if (!p.testBit(i)) {
+                    c = p.shiftRight(shift);
+                    break;
+                }
+        if (c == null)
+            c = abs().multiply(val.abs(), numThreads).shiftRight(bits);
+        return signum*val.signum<0 ? c.negate() : c;
+    }
+
+    /**
+     * Decides whether a short product of two numbers of at most {@code n} ints should be
+     * computed by {@link #multiplyLowShort(BigInteger, BigInteger, int, int)} or
+     * {@link #multiplyHighShort(BigInteger, BigInteger, int, int)} rather than from a full
+     * product. In the FFT range, the short product algorithm saves nothing because a full
+     * product of half the length costs about half as much; the same goes for factors so
+     * unbalanced that the short product would mostly multiply zeros.
+     * @param a a nonnegative number
+     * @param b a nonnegative number
+     * @param n the length of the short product in ints
+     */
+    private static boolean shouldUseShortProduct(BigInteger a, BigInteger b, int n) {
+        return n <= FFT_THRESHOLD && 2*Math.min(a.mag.length, b.mag.length) >= n;
+    }
+
+    /**
+     * Returns <code>a*b mod 2<sup>32n</sup></code> using Mulders' short product: the lower
+     * 3/4 of each factor are multiplied in full, and the two cross products that reach
+     * into the low {@code n} ints are computed recursively. Small short products are
+     * computed by {@link #multiplyLowSchoolbook(int[], int[], int)}.
+     * @param a a nonnegative number less than 2<sup>32n</sup>
+     * @param b a nonnegative number less than 2<sup>32n</sup>
+     * @param n the number of ints to compute
+     * @param numThreads number of threads to use for the full product
+     * @return the low {@code n} ints of {@code a*b}
+     */
+    private static BigInteger multiplyLowShort(BigInteger a, BigInteger b, int n, int numThreads) {
+        if (n < SHORT_PRODUCT_SCHOOLBOOK_THRESHOLD)
+            return multiplyLowSchoolbook(a.mag, b.mag, n);
+
+        // a*b = aL*bL + (aH*bL+aL*bH)*2^(32k) + aH*bH*2^(64k); the last term vanishes mod 2^(32n)
+        int k = (3*n+3) / 4;
+        int m = n - k;
+        BigInteger c = a.truncate(32*k).multiply(b.truncate(32*k), numThreads);
+        BigInteger cross = multiplyLowShort(a.shiftRight(32*k), b.truncate(32*m), m, numThreads)
+                .add(multiplyLowShort(a.truncate(32*m), b.shiftRight(32*k), m, numThreads));
+        return c.add(cross.shiftLeft(32*k)).truncate(32*n);
+    }
+
+    /**
+     * Computes the low {@code n} ints of the product of two magnitudes, leaving out
+     * the partial products that only affect higher ints.
+     * @param x a big-endian magnitude of at most {@code n} ints
+     * @param y a big-endian magnitude of at most {@code n} ints
+     * @param n the number of ints to compute
+     * @return <code>x*y mod 2<sup>32n</sup></code>
+     */
+    private static BigInteger multiplyLowSchoolbook(int[] x, int[] y, int n) {
+        int xlen = x.length;
+        int ylen = y.length;
+        if (xlen==0 || ylen==0)
+            return ZERO;
+        int[] z = new int[n];   // z[n-1-p] has a weight of 2^(32*p)
+
+        int i = 0;   // the weight of the next int of x is 2^(32*i)
+        if (IS64BIT)
+            // two rows at a time; the one product of row i that row i+1 doesn't reach only affects z[0]
+            for (; i+1 < xlen; i+=2) {
+                int xi = x[xlen-1-i];
+                int len = Math.min(ylen, n-1-i);
+                long top = mulAdd2(z, n-1-i, y, ylen-len, len, xi, x[xlen-2-i], 0);
+                if (len < ylen) {
+                    z[0] += (int)top + xi*y[ylen-1-len];
+                }
+                else {
+                    z[n-1-i-len] = (int)top;
+                    if (n-2-i-len >= 0)
+                        z[n-2-i-len] = (int)(top >>> 32);
+                }
+            }
+
+        for (; i < xlen; i++) {
+            long xi = x[xlen-1-i] & LONG_MASK;
+            int len = Math.min(ylen, n-i);
+            long carry = 0;
+            int k = n - 1 - i;
+            for (int j=ylen-1; j>=ylen-len; j--, k--) {
+                long product = (y[j] & LONG_MASK)*xi + (z[k] & LONG_MASK) + carry;
+                z[k] = (int)product;
+                carry = product >>> 32;
+            }
+            if (k >= 0)
+                z[k] = (int)carry;
+        }
+        return new BigInteger(trustedStripLeadingZeroInts(z), 1);
+    }
+
+    /**
+     * Returns an approximation of {@code a*b} that contains all partial products
+     * <code>a<sub>i</sub>*b<sub>j</sub>*2<sup>32(i+j)</sup></code> with {@code i+j >= n-1}
+     * and is therefore less than <code>n*2<sup>32n</sup></code> below the exact product.
+     * This uses Mulders' short product: the upper 3/4 of each factor are multiplied in
+     * full, and the two cross products that reach above the cut are computed recursively.
+     * Small short products are computed by {@link #multiplyHighSchoolbook(int[], int[], int)}.
+     * @param a a nonnegative number less than 2<sup>32n</sup>
+     * @param b a nonnegative number less than 2<sup>32n</sup>
+     * @param n the length of the factors in ints
+     * @param numThreads number of threads to use for the full product
+     * @return a lower bound of {@code a*b} that differs from it only in the low {@code n+1} ints
+     */
+    private static BigInteger multiplyHighShort(BigInteger a, BigInteger b, int n, int numThreads) {
+        if (n < SHORT_PRODUCT_SCHOOLBOOK_THRESHOLD)
+            return multiplyHighSchoolbook(a.mag, b.mag, n);
+
+        // aL*bL is below the cut, and so are the parts of aH*bL and aL*bH that don't involve
+        // the top k ints of a or b.
+        int k = n / 4;
+        int shift = 32 * (n-k);
+        BigInteger c = a.shiftRight(32*k).multiply(b.shiftRight(32*k), numThreads).shiftLeft(64*k);
+        BigInteger cross = multiplyHighShort(a.shiftRight(shift), b.truncate(32*k), k, numThreads)
+                .add(multiplyHighShort(a.truncate(32*k), b.shiftRight(shift), k, numThreads));
+        return c.add(cross.shiftLeft(shift));
+    }
+
+    /**
+     * Adds up the partial products <code>x<sub>i</sub>*y<sub>j</sub>*2<sup>32(i+j)</sup></code>
+     * with {@code i+j >= n-1}, and possibly some with {@code i+j == n-2}, leaving out the others.
+     * @param x a big-endian magnitude of at most {@code n} ints
+     * @param y a big-endian magnitude of at most {@code n} ints
+     * @param n the length of the factors in ints
+     * @return the sum of the partial products
+     */
+    private static BigInteger multiplyHighSchoolbook(int[] x, int[] y, int n) {
+        int xlen = x.length;
+        int ylen = y.length;
+        if (xlen==0 || ylen==0)
+            return ZERO;
+        int low = Math.max(0, n-2);   // the weight of the lowest int of z is 2^(32*low)
+        int[] z = new int[2*n-low];   // z[2n-1-p] has a weight of 2^(32*p)
+
+        // Each row starts one int below the cut so row i+1 can be done in the same pass as row i.
+        // The rows below don't reach the cut.
+        int i = Math.max(0, n-1-ylen);   // the weight of the next int of x is 2^(32*i)
+        if (IS64BIT)
+            for (; i+1 < xlen; i+=2) {
+                int w = Math.max(0, n-2-i);   // the weight of the lowest int of y that is used
+                long top = mulAdd2(z, 2*n-1-i-w, y, 0, ylen-w, x[xlen-1-i], x[xlen-2-i], 0);
+                z[2*n-1-i-ylen] = (int)top;
+                z[2*n-2-i-ylen] = (int)(top >>> 32);
+            }
+
+        for (; i < xlen; i++) {
+            long xi = x[xlen-1-i] & LONG_MASK;
+            int w = Math.max(0, n-2-i);
+            long carry = 0;
+            int k = 2*n - 1 - i - w;
+            for (int j=ylen-1-w; j>=0; j--, k--) {
+                long product = (y[j] & LONG_MASK)*xi + (z[k] & LONG_MASK) + carry;
+                z[k] = (int)product;
+                carry = product >>> 32;
+            }
+            z[k] = (int)carry;
+        }
+        return new BigInteger(trustedStripLeadingZeroInts(z), 1).shiftLeft(32*low);
+    }
+
+    /**
+     * A number that is multiplied by many other numbers.
+     * Instances are created with {@link BigInteger#prepareMultiplier(BigInteger)}, and they hold the
+     * NTT or Schoenhage-Strassen transform of the number from the most recent multiplication.
+     * They are safe for use by multiple concurrent threads.
+     *
+     * @see BigInteger#multiply(PreparedMultiplier, int)
+     */
+    public static final class PreparedMultiplier {
+        final BigInteger value;
+        private volatile long[][] nttTransform;
+        private volatile SchoenhageStrassenTransform ssTransform;
+
+        PreparedMultiplier(BigInteger value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the number this object was prepared from.
+         * @return the number
+         */
+        public BigInteger value() {
+            return value;
+        }
+
+        /**
+         * Returns the NTT of the number for a given transform length, reusing the previous one if
+         * the length is the same. The returned arrays must not be modified.
+         */
+        long[][] getNttTransform(int logLength, int numThreads) {
+            long[][] t = nttTransform;
+            if (t==null || t[0].length!=1<<logLength) {
+                t = NttMultiplier.transform(value.mag, logLength, numThreads);
+                nttTransform = t;
+            }
+            return t;
+        }
+
+        /**
+         * Returns the Schoenhage-Strassen transform of the number for given parameters. The previous
+         * transform is reused if it has the same transform length and modulus, and a piece size that
+         * is at least as large. The returned arrays must not be modified.
+         */
+        SchoenhageStrassenTransform getSchoenhageStrassenTransform(int k, int numParts, int pieceSize, int numThreads) {
+            SchoenhageStrassenTransform t = ssTransform;
+            int N = getSchoenhageStrassenModulusBits(k, pieceSize);
+            if (t==null || t.k!=k || t.numParts!=numParts || t.pieceSize<pieceSize ||
+                    getSchoenhageStrassenModulusBits(k, t.pieceSize)!=N) {
+                int numCoeffs = getSchoenhageStrassenNumCoeffs(k, numParts);
+                MutableModFn[] pieces = split(value.mag, numCoeffs, pieceSize, N/64+1, numThreads);
+                t = new SchoenhageStrassenTransform(k, numParts, pieceSize, dftTruncated(pieces, k, numParts, N, numThreads));
+                ssTransform = t;
+            }
+            return t;
+        }
+    }
+
+    /** The Schoenhage-Strassen transform of a number together with the parameters it was computed for */
+    private static class SchoenhageStrassenTransform {
+        final int k;
+        final int numParts;
+        final int pieceSize;
+        final MutableModFn[][] parts;
+
+        SchoenhageStrassenTransform(int k, int numParts, int pieceSize, MutableModFn[][] parts) {
+            this.k = k;
+            this.numParts = numParts;
+            this.pieceSize = pieceSize;
+            this.parts = parts;
+        }
     }
 
     private static BigInteger multiplyByInt(int[] x, int y, int sign) {
@@ -1639,7 +2150,16 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         }
         z[xstart] = (int)carry;
 
-        for (int i = xstart-1; i >= 0; i--) {
+        int i = xstart - 1;
+        if (IS64BIT)
+            // two rows at a time
+            for (; i >= 1; i-=2) {
+                long top = mulAdd2(z, ystart+1+i, y, 0, ylen, x[i], x[i-1], 0);
+                z[i] = (int)top;
+                z[i-1] = (int)(top >>> 32);
+            }
+
+        for (; i >= 0; i--) {
             carry = 0;
             for (int j=ystart, k=ystart+1+i; j >= 0; j--, k--) {
                 long product = (y[j] & LONG_MASK) *
@@ -1671,26 +2191,12 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
     private static BigInteger multiplyKaratsuba(BigInteger x, BigInteger y) {
         int xlen = x.mag.length;
         int ylen = y.mag.length;
+        int[] z = new int[xlen+ylen];
+        int[] scratch = ScratchArena.borrowInts(getKaratsubaScratchSize(Math.max(xlen, ylen), false));
+        multiplyKaratsuba(x.mag, xlen, xlen, y.mag, ylen, ylen, z, z.length, scratch, 0);
+        ScratchArena.release(scratch);
 
-        // The number of ints in each half of the number.
-        int half = (Math.max(xlen, ylen)+1) / 2;
-
-        // xl and yl are the lower halves of x and y respectively,
-        // xh and yh are the upper halves.
-        BigInteger xl = x.getLower(half);
-        BigInteger xh = x.getUpper(half);
-        BigInteger yl = y.getLower(half);
-        BigInteger yh = y.getUpper(half);
-
-        BigInteger p1 = xh.multiply(yh);  // p1 = xh*yh
-        BigInteger p2 = xl.multiply(yl);  // p2 = xl*yl
-
-        // p3=(xh+xl)*(yh+yl)
-        BigInteger p3 = xh.add(xl).multiply(yh.add(yl));
-
-        // result = p1 * 2^(32*2*half) + (p3 - p1 - p2) * 2^(32*half) + p2
-        BigInteger result = p1.shiftLeft(32*half).add(p3.subtract(p1).subtract(p2)).shiftLeft(32*half).add(p2);
-
+        BigInteger result = new BigInteger(trustedStripLeadingZeroInts(z), 1);
         if (x.signum != y.signum) {
             return result.negate();
         } else {
@@ -1698,85 +2204,521 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         }
     }
 
+    // Multiplication and squaring kernels for array ranges
+    //
+    // The methods below work on numbers that are stored in parts of int arrays, highest int
+    // first. Like in MutableModFn, a range is specified by the index following its lowest
+    // int and by its length, so the pieces of a number can be passed down the recursion
+    // without being copied. Products overwrite the range they are stored in. Temporary
+    // values go into a scratch array that is allocated once per top-level call; each level
+    // of the recursion uses the part of it that starts at a given index and passes the
+    // rest on to its sub-products.
+
     /**
-     * Multiplies two BigIntegers using a 3-way Toom-Cook multiplication
-     * algorithm.  This is a recursive divide-and-conquer algorithm which is
-     * more efficient for large numbers than what is commonly called the
-     * "grade-school" algorithm used in multiplyToLen.  If the numbers to be
-     * multiplied have length n, the "grade-school" algorithm has an
-     * asymptotic complexity of O(n^2).  In contrast, 3-way Toom-Cook has a
-     * complexity of about O(n^1.465).  It achieves this increased asymptotic
-     * performance by breaking each number into three parts and by doing 5
-     * multiplies instead of 9 when evaluating the product.  Due to overhead
-     * (additions, shifts, and one division) in the Toom-Cook algorithm, it
-     * should only be used when both numbers are larger than a certain
-     * threshold (found experimentally).  This threshold is generally larger
-     * than that for Karatsuba multiplication, so this algorithm is generally
-     * only used when numbers become significantly larger.
-     *
-     * The algorithm used is the "optimal" 3-way Toom-Cook algorithm outlined
-     * by Marco Bodrato.
-     *
-     *  See: http://bodrato.it/toom-cook/
-     *       http://bodrato.it/papers/#WAIFI2007
-     *
-     * "Towards Optimal Toom-Cook Multiplication for Univariate and
-     * Multivariate Polynomials in Characteristic 2 and 0." by Marco BODRATO;
-     * In C.Carlet and B.Sunar, Eds., "WAIFI'07 proceedings", p. 116-133,
-     * LNCS #4547. Springer, Madrid, Spain, June 21-22, 2007.
-     *
+     * Returns the number of scratch ints the range kernels need to multiply or square
+     * numbers of up to {@code len} ints.
+     * @param len the number of ints in the longer factor
+     * @param square whether the thresholds for squaring apply
+     * @return a scratch size for {@link #multiplyRange(int[], int, int, int[], int, int, int[], int, int[], int)}
+     *         or {@link #squareRange(int[], int, int, int[], int, int[], int)}
      */
-    private static BigInteger multiplyToomCook3(BigInteger a, BigInteger b) {
-        int alen = a.mag.length;
-        int blen = b.mag.length;
+    private static int getMultiplyScratchSize(int len, boolean square) {
+        if (len < (square ? KARATSUBA_SQUARE_THRESHOLD : KARATSUBA_THRESHOLD))
+            return 0;
+        else if (len < (square ? TOOM_COOK_SQUARE_THRESHOLD : TOOM_COOK_THRESHOLD))
+            return getKaratsubaScratchSize(len, square);
+        else
+            return getToomCook3ScratchSize(len, square);
+    }
 
-        int largest = Math.max(alen, blen);
+    /**
+     * Returns the number of scratch ints the Karatsuba range kernels need for factors of
+     * up to {@code len} ints, including the scratch space for the sub-products.
+     * @see #getMultiplyScratchSize(int, boolean)
+     */
+    private static int getKaratsubaScratchSize(int len, boolean square) {
+        int half = (len+1) / 2;
+        return 4*(half+1) + getMultiplyScratchSize(half+1, square);
+    }
 
-        // k is the size (in ints) of the lower-order slices.
-        int k = (largest+2)/3;   // Equal to ceil(largest/3)
+    /**
+     * Returns the number of scratch ints the 3-way Toom-Cook range kernels need for
+     * factors of up to {@code len} ints, including the scratch space for the sub-products.
+     * @see #getMultiplyScratchSize(int, boolean)
+     */
+    private static int getToomCook3ScratchSize(int len, boolean square) {
+        int k = (len+2) / 3;
+        return 12*(k+1) + getMultiplyScratchSize(k+1, square);
+    }
 
-        // r is the size (in ints) of the highest-order slice.
-        int r = largest - 2*k;
+    /**
+     * Multiplies two numbers given as array ranges and stores the {@code xLen+yLen} ints of the
+     * product in {@code z}, choosing the algorithm like {@link #multiply(BigInteger)} does. The
+     * Toom-Cook and FFT algorithms work on the ranges directly; the NTT and Schoenhage-Strassen
+     * need copies of the factors, which take little time compared to the transforms.<br/>
+     * Used by {@link MutableBigInteger#multiply(MutableBigInteger, MutableBigInteger)}.
+     * @param x the first factor
+     * @param xEnd the index after the last (lowest) int of {@code x}
+     * @param xLen the number of ints in {@code x}
+     * @param y the second factor; if it is the same range as {@code x}, the number is squared
+     * @param yEnd the index after the last (lowest) int of {@code y}
+     * @param yLen the number of ints in {@code y}
+     * @param z the array to store the product in; the range must not overlap {@code x} or {@code y}
+     * @param zEnd the index after the last (lowest) int of the product
+     */
+    static void multiplyRange(int[] x, int xEnd, int xLen, int[] y, int yEnd, int yLen, int[] z, int zEnd) {
+        boolean square = x==y && xEnd==yEnd && xLen==yLen;
+        if (xLen < yLen) {
+            int[] tmp = x;
+            x = y;
+            y = tmp;
+            int tmpEnd = xEnd;
+            xEnd = yEnd;
+            yEnd = tmpEnd;
+            int tmpLen = xLen;
+            xLen = yLen;
+            yLen = tmpLen;
+        }
+        int zLen = xLen + yLen;
+
+        if (xLen > 2*yLen) {
+            // multiply chunks the size of y like multiplyToomCookChunked does
+            Arrays.fill(z, zEnd-zLen, zEnd, 0);
+            int[] chunkProduct = ScratchArena.borrowInts(2*yLen);
+            for (int i=0; i<xLen; i+=yLen) {
+                int chunkLen = Math.min(yLen, xLen-i);
+                multiplyRange(x, xEnd-i, chunkLen, y, yEnd, yLen, chunkProduct, chunkLen+yLen);
+                addRange(z, zEnd-i, zLen-i, chunkProduct, chunkLen+yLen, chunkLen+yLen);
+            }
+            ScratchArena.release(chunkProduct);
+        }
+        else if (shouldUseFft(xLen, yLen, square))
+            FftMultiplier.multiply(x, xEnd, xLen, y, yEnd, yLen, z, zEnd, 1);
+        else if (shouldUseNtt(xLen, yLen) || shouldUseSchoenhageStrassen(xLen) && shouldUseSchoenhageStrassen(yLen)) {
+            int[] a = Arrays.copyOfRange(x, xEnd-xLen, xEnd);
+            int[] b = square ? a : Arrays.copyOfRange(y, yEnd-yLen, yEnd);
+            int[] c = shouldUseNtt(xLen, yLen) ? NttMultiplier.multiply(a, b, 1) : multiplySchoenhageStrassen(a, b, 1);
+            copyRange(c, c.length, Math.min(c.length, zLen), z, zEnd, zLen);
+        }
+        else {
+            int[] scratch = ScratchArena.borrowInts(getMultiplyScratchSize(xLen, square));
+            if (square)
+                squareRange(x, xEnd, xLen, z, zEnd, scratch, 0);
+            else
+                multiplyRange(x, xEnd, xLen, y, yEnd, yLen, z, zEnd, scratch, 0);
+            ScratchArena.release(scratch);
+        }
+    }
+
+    /**
+     * Multiplies two numbers given as array ranges using the schoolbook, Karatsuba, or
+     * 3-way Toom-Cook algorithm, depending on their lengths, and stores the
+     * {@code xLen+yLen} ints of the product in {@code z}.
+     * @param x the first factor
+     * @param xEnd the index after the last (lowest) int of {@code x}
+     * @param xLen the number of ints in {@code x}
+     * @param y the second factor
+     * @param yEnd the index after the last (lowest) int of {@code y}
+     * @param yLen the number of ints in {@code y}
+     * @param z the array to store the product in; the range must not overlap {@code x} or {@code y}
+     * @param zEnd the index after the last (lowest) int of the product
+     * @param scratch temporary storage; must not overlap {@code x}, {@code y}, or {@code z}
+     * @param scratchOff the first index of {@code scratch} that may be used; at least
+     *        {@link #getMultiplyScratchSize(int, boolean) getMultiplyScratchSize(max(xLen,yLen), false)}
+     *        ints must be available from there
+     */
+    private static void multiplyRange(int[] x, int xEnd, int xLen, int[] y, int yEnd, int yLen,
+                                      int[] z, int zEnd, int[] scratch, int scratchOff) {
+        int zLen = xLen + yLen;
+
+        // leading zeros are common in the Toom-Cook evaluations, so skip them
+        while (xLen>0 && x[xEnd-xLen]==0)
+            xLen--;
+        while (yLen>0 && y[yEnd-yLen]==0)
+            yLen--;
+        if (xLen==0 || yLen==0) {
+            Arrays.fill(z, zEnd-zLen, zEnd, 0);
+            return;
+        }
+        Arrays.fill(z, zEnd-zLen, zEnd-xLen-yLen, 0);
 
-        // Obtain slices of the numbers. a2 and b2 are the most significant
-        // bits of the numbers a and b, and a0 and b0 the least significant.
-        BigInteger a0, a1, a2, b0, b1, b2;
-        a2 = a.getToomSlice(k, r, 0, largest);
-        a1 = a.getToomSlice(k, r, 1, largest);
-        a0 = a.getToomSlice(k, r, 2, largest);
-        b2 = b.getToomSlice(k, r, 0, largest);
-        b1 = b.getToomSlice(k, r, 1, largest);
-        b0 = b.getToomSlice(k, r, 2, largest);
+        if (xLen<KARATSUBA_THRESHOLD || yLen<KARATSUBA_THRESHOLD)
+            multiplySchoolbook(x, xEnd, xLen, y, yEnd, yLen, z, zEnd);
+        else if (xLen<TOOM_COOK_THRESHOLD && yLen<TOOM_COOK_THRESHOLD)
+            multiplyKaratsuba(x, xEnd, xLen, y, yEnd, yLen, z, zEnd, scratch, scratchOff);
+        else
+            multiplyToomCook3(x, xEnd, xLen, y, yEnd, yLen, z, zEnd, scratch, scratchOff);
+    }
 
-        BigInteger v0, v1, v2, vm1, vinf, t1, t2, tm1, da1, db1;
+    /**
+     * Squares a number given as an array range using the schoolbook, Karatsuba, or
+     * 3-way Toom-Cook algorithm, depending on its length, and stores the
+     * {@code 2*len} ints of the result in {@code z}.
+     * @see #multiplyRange(int[], int, int, int[], int, int, int[], int, int[], int)
+     */
+    private static void squareRange(int[] x, int xEnd, int len, int[] z, int zEnd, int[] scratch, int scratchOff) {
+        int zLen = 2 * len;
+        while (len>0 && x[xEnd-len]==0)
+            len--;
+        Arrays.fill(z, zEnd-zLen, zEnd-2*len, 0);
+        if (len == 0)
+            return;
 
-        v0 = a0.multiply(b0);
-        da1 = a2.add(a0);
-        db1 = b2.add(b0);
-        vm1 = da1.subtract(a1).multiply(db1.subtract(b1));
-        da1 = da1.add(a1);
-        db1 = db1.add(b1);
-        v1 = da1.multiply(db1);
-        v2 = da1.add(a2).shiftLeft(1).subtract(a0).multiply(
-             db1.add(b2).shiftLeft(1).subtract(b0));
-        vinf = a2.multiply(b2);
+        if (len < KARATSUBA_SQUARE_THRESHOLD)
+            squareSchoolbook(x, xEnd, len, z, zEnd);
+        else if (len < TOOM_COOK_SQUARE_THRESHOLD)
+            squareKaratsuba(x, xEnd, len, z, zEnd, scratch, scratchOff);
+        else
+            squareToomCook3(x, xEnd, len, z, zEnd, scratch, scratchOff);
+    }
 
-        // The algorithm requires two divisions by 2 and one by 3.
-        // All divisions are known to be exact, that is, they do not produce
-        // remainders, and all results are positive.  The divisions by 2 are
-        // implemented as right shifts which are relatively efficient, leaving
-        // only an exact division by 3, which is done by a specialized
-        // linear-time algorithm.
-        t2 = v2.subtract(vm1).exactDivideBy3();
-        tm1 = v1.subtract(vm1).shiftRight(1);
-        t1 = v1.subtract(v0);
-        t2 = t2.subtract(t1).shiftRight(1);
-        t1 = t1.subtract(tm1).subtract(vinf);
-        t2 = t2.subtract(vinf.shiftLeft(1));
-        tm1 = tm1.subtract(t2);
+    /**
+     * Multiplies two array ranges using the schoolbook method.
+     * Works like {@link #multiplyToLen(int[], int, int[], int, int[])}.
+     * @see #multiplyRange(int[], int, int, int[], int, int, int[], int, int[], int)
+     */
+    private static void multiplySchoolbook(int[] x, int xEnd, int xLen, int[] y, int yEnd, int yLen, int[] z, int zEnd) {
+        int yStart = yEnd - yLen;
 
-        // Number of bits to shift left.
-        int ss = k*32;
+        long xi = x[xEnd-1] & LONG_MASK;
+        long carry = 0;
+        int k = zEnd - 1;
+        for (int j=yEnd-1; j>=yStart; j--, k--) {
+            long product = (y[j] & LONG_MASK)*xi + carry;
+            z[k] = (int)product;
+            carry = product >>> 32;
+        }
+        z[k] = (int)carry;
+
+        int i = 1;   // the weight of the next int of x is 2^(32*i)
+        if (IS64BIT)
+            // two rows at a time
+            for (; i+1 < xLen; i+=2) {
+                long top = mulAdd2(z, zEnd-1-i, y, yStart, yLen, x[xEnd-1-i], x[xEnd-2-i], 0);
+                z[zEnd-1-i-yLen] = (int)top;
+                z[zEnd-2-i-yLen] = (int)(top >>> 32);
+            }
+
+        for (; i < xLen; i++) {
+            xi = x[xEnd-1-i] & LONG_MASK;
+            carry = 0;
+            k = zEnd - 1 - i;
+            for (int j=yEnd-1; j>=yStart; j--, k--) {
+                long product = (y[j] & LONG_MASK)*xi + (z[k] & LONG_MASK) + carry;
+                z[k] = (int)product;
+                carry = product >>> 32;
+            }
+            z[k] = (int)carry;
+        }
+    }
+
+    /**
+     * Squares an array range using the schoolbook method. Each product of two different
+     * ints is computed once and doubled.
+     * @see #squareRange(int[], int, int, int[], int, int[], int)
+     */
+    private static void squareSchoolbook(int[] x, int xEnd, int len, int[] z, int zEnd) {
+        int zLen = 2 * len;
+        Arrays.fill(z, zEnd-zLen, zEnd, 0);
+
+        // Sum of x[i]*x[j] for i<j where i and j are the weights of the ints. The products
+        // for j and j+1 are computed in one pass. Ints of z at weight 2*j and above are
+        // still zero when the pass for j starts.
+        int j = 1;
+        if (IS64BIT)
+            for (; j+1 < len; j+=2) {
+                int xj = x[xEnd-1-j];
+                int xj1 = x[xEnd-2-j];
+                long top = mulAdd2(z, zEnd-1-j, x, xEnd-j, j, xj, xj1, 0);
+                long product = (xj & LONG_MASK) * (xj1 & LONG_MASK);   // x[j]*x[j+1], weight 2*j+1
+                long mid = (top >>> 32) + (product & LONG_MASK);
+                z[zEnd-1-2*j] = (int)top;
+                z[zEnd-2-2*j] = (int)mid;
+                z[zEnd-3-2*j] = (int)((product >>> 32) + (mid >>> 32));
+            }
+        for (; j < len; j++) {
+            long xj = x[xEnd-1-j] & LONG_MASK;
+            long carry = 0;
+            int k = zEnd - 1 - j;
+            for (int i=xEnd-1; i>xEnd-1-j; i--, k--) {
+                long product = (x[i] & LONG_MASK)*xj + (z[k] & LONG_MASK) + carry;
+                z[k] = (int)product;
+                carry = product >>> 32;
+            }
+            z[k] = (int)carry;
+        }
+
+        // double it and add the squares x[i]^2
+        long shifted = 0;   // the bit shifted out of the previous int
+        long carry = 0;
+        for (int i=0; i<len; i++) {
+            long xi = x[xEnd-1-i] & LONG_MASK;
+            long square = xi * xi;
+            int k = zEnd - 1 - 2*i;
+            long z0 = z[k] & LONG_MASK;
+            long z1 = z[k-1] & LONG_MASK;
+            long sum = ((z0<<1) & LONG_MASK | shifted) + (square & LONG_MASK) + carry;
+            z[k] = (int)sum;
+            sum = ((z1<<1) & LONG_MASK | (z0>>>31)) + (square >>> 32) + (sum >>> 32);
+            z[k-1] = (int)sum;
+            shifted = z1 >>> 31;
+            carry = sum >>> 32;
+        }
+    }
+
+    /**
+     * Multiplies two array ranges using Karatsuba multiplication. Like
+     * {@link #multiplyKaratsuba(BigInteger, BigInteger)}, the factors are split at half the
+     * length of the longer one; the upper half of the shorter factor may be empty.
+     * @see #multiplyRange(int[], int, int, int[], int, int, int[], int, int[], int)
+     */
+    private static void multiplyKaratsuba(int[] x, int xEnd, int xLen, int[] y, int yEnd, int yLen,
+                                          int[] z, int zEnd, int[] scratch, int scratchOff) {
+        int zLen = xLen + yLen;
+        int half = (Math.max(xLen, yLen)+1) / 2;
+        int xlLen = Math.min(xLen, half);
+        int xhLen = xLen - xlLen;
+        int ylLen = Math.min(yLen, half);
+        int yhLen = yLen - ylLen;
+
+        // xs=xl+xh, ys=yl+yh, and p3 are kept in the scratch array
+        int xsEnd = scratchOff + half + 1;
+        int ysEnd = xsEnd + half + 1;
+        int p3End = ysEnd + 2*half + 2;
+        int p3Len = 2*half + 2;
+
+        // p2=xl*yl goes in the lowest ints of z, p1=xh*yh above the lowest 2*half ints
+        multiplyRange(x, xEnd, xlLen, y, yEnd, ylLen, z, zEnd, scratch, p3End);
+        int p2Len = xlLen + ylLen;
+        int p1Len = xhLen>0 && yhLen>0 ? xhLen+yhLen : 0;
+        if (p1Len > 0) {
+            Arrays.fill(z, zEnd-2*half, zEnd-p2Len, 0);
+            multiplyRange(x, xEnd-half, xhLen, y, yEnd-half, yhLen, z, zEnd-2*half, scratch, p3End);
+        }
+        else
+            Arrays.fill(z, zEnd-zLen, zEnd-p2Len, 0);
+
+        // p3=(xh+xl)*(yh+yl)
+        copyRange(x, xEnd, xlLen, scratch, xsEnd, half+1);
+        addRange(scratch, xsEnd, half+1, x, xEnd-half, xhLen);
+        copyRange(y, yEnd, ylLen, scratch, ysEnd, half+1);
+        addRange(scratch, ysEnd, half+1, y, yEnd-half, yhLen);
+        multiplyRange(scratch, xsEnd, half+1, scratch, ysEnd, half+1, scratch, p3End, scratch, p3End);
+
+        // result = p1 * 2^(32*2*half) + (p3 - p1 - p2) * 2^(32*half) + p2
+        subtractRange(scratch, p3End, p3Len, z, zEnd, p2Len);
+        subtractRange(scratch, p3End, p3Len, z, zEnd-2*half, p1Len);
+        addRange(z, zEnd-half, zLen-half, scratch, p3End, Math.min(p3Len, zLen-half));
+    }
+
+    /**
+     * Squares an array range using Karatsuba squaring.
+     * @see #squareRange(int[], int, int, int[], int, int[], int)
+     */
+    private static void squareKaratsuba(int[] x, int xEnd, int len, int[] z, int zEnd, int[] scratch, int scratchOff) {
+        int half = (len+1) / 2;
+        int xhLen = len - half;
+        int xsEnd = scratchOff + half + 1;
+        int p3End = xsEnd + 2*half + 2;
+        int p3Len = 2*half + 2;
+
+        squareRange(x, xEnd, half, z, zEnd, scratch, p3End);
+        squareRange(x, xEnd-half, xhLen, z, zEnd-2*half, scratch, p3End);
+
+        // (xl+xh)^2 - (xh^2 + xl^2)
+        copyRange(x, xEnd, half, scratch, xsEnd, half+1);
+        addRange(scratch, xsEnd, half+1, x, xEnd-half, xhLen);
+        squareRange(scratch, xsEnd, half+1, scratch, p3End, scratch, p3End);
+        subtractRange(scratch, p3End, p3Len, z, zEnd, 2*half);
+        subtractRange(scratch, p3End, p3Len, z, zEnd-2*half, 2*xhLen);
+
+        addRange(z, zEnd-half, 2*len-half, scratch, p3End, Math.min(p3Len, 2*len-half));
+    }
+
+    /**
+     * Multiplies two BigIntegers using 3-way Toom-Cook multiplication.<br/>
+     * If the factors differ in length, the longer one is split into
+     * correspondingly more pieces of the same size rather than padding the
+     * shorter one with zeros: Toom-4/3 is used when one factor is about 4/3
+     * times as long as the other, and the half-size splits Toom-3/2 and
+     * Toom-4/2 when it is about 1.5 or 2 times as long. Factors with a
+     * length ratio of more than 2 are multiplied in chunks.<br/>
+     * Balanced variants with more pieces are not used because 3-way Toom-Cook
+     * is faster than 4-, 6- and 8-way Toom-Cook below {@link #FFT_THRESHOLD},
+     * and the FFT is faster above it, with one thread or several.
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     */
+    private static BigInteger multiplyToomCook(BigInteger a, BigInteger b, int numThreads) {
+        if (a.mag.length < b.mag.length) {
+            BigInteger tmp = a;
+            a = b;
+            b = tmp;
+        }
+        int alen = a.mag.length;
+        int blen = b.mag.length;
+        if (blen == 0)
+            return ZERO;
+        if (alen > 2*blen)
+            return multiplyToomCookChunked(a, b, numThreads);
+
+        int ka = (3*alen+blen/2) / blen;   // 3*alen/blen, rounded
+        if (ka == 3)
+            return multiplyToomCook3(a, b, numThreads);
+        else if (ka == 4)
+            return multiplyToomCookUnbalanced(a, b, 4, 3, numThreads);
+        else if (ka == 5)
+            return multiplyToomCookUnbalanced(a, b, 3, 2, numThreads);
+        else
+            return multiplyToomCookUnbalanced(a, b, 4, 2, numThreads);
+    }
+
+    /**
+     * Multiplies a long BigInteger by a much shorter one by splitting the
+     * longer factor into chunks the size of the shorter one, multiplying each
+     * chunk by the shorter factor, and adding up the partial products.
+     * @param a the longer factor
+     * @param b the shorter factor
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     */
+    private static BigInteger multiplyToomCookChunked(BigInteger a, BigInteger b, int numThreads) {
+        int blen = b.mag.length;
+        int numChunks = (a.mag.length+blen-1) / blen;
+        BigInteger[] chunks = a.getToomSlices(blen, numChunks);
+        BigInteger[] factors = new BigInteger[numChunks];
+        Arrays.fill(factors, b.abs());
+        BigInteger[] products = multiplyAll(chunks, factors, numThreads);
+
+        int[] z = new int[a.mag.length+blen];
+        for (int i=0; i<numChunks; i++)
+            addShifted(z, products[i].mag, i*blen);
+
+        BigInteger result = new BigInteger(trustedStripLeadingZeroInts(z), 1);
+        if (a.signum != b.signum)
+            return result.negate();
+        else
+            return result;
+    }
+
+    /**
+     * Single-threaded version of {@link #multiplyToomCook(BigInteger, BigInteger, int)}.
+     * Used by {@code Tune}.
+     */
+    private static BigInteger multiplyToomCook(BigInteger a, BigInteger b) {
+        return multiplyToomCook(a, b, 1);
+    }
+
+    /**
+     * Multiplies two BigIntegers using a 3-way Toom-Cook multiplication
+     * algorithm.  This is a recursive divide-and-conquer algorithm which is
+     * more efficient for large numbers than what is commonly called the
+     * "grade-school" algorithm used in multiplyToLen.  If the numbers to be
+     * multiplied have length n, the "grade-school" algorithm has an
+     * asymptotic complexity of O(n^2).  In contrast, 3-way Toom-Cook has a
+     * complexity of about O(n^1.465).  It achieves this increased asymptotic
+     * performance by breaking each number into three parts and by doing 5
+     * multiplies instead of 9 when evaluating the product.  Due to overhead
+     * (additions, shifts, and one division) in the Toom-Cook algorithm, it
+     * should only be used when both numbers are larger than a certain
+     * threshold (found experimentally).  This threshold is generally larger
+     * than that for Karatsuba multiplication, so this algorithm is generally
+     * only used when numbers become significantly larger.
+     *
+     * The algorithm used is the "optimal" 3-way Toom-Cook algorithm outlined
+     * by Marco Bodrato.
+     *
+     *  See: http://bodrato.it/toom-cook/
+     *       http://bodrato.it/papers/#WAIFI2007
+     *
+     * "Towards Optimal Toom-Cook Multiplication for Univariate and
+     * Multivariate Polynomials in Characteristic 2 and 0." by Marco BODRATO;
+     * In C.Carlet and B.Sunar, Eds., "WAIFI'07 proceedings", p. 116-133,
+     * LNCS #4547. Springer, Madrid, Spain, June 21-22, 2007.
+     *
+     */
+    private static BigInteger multiplyToomCook3(BigInteger a, BigInteger b) {
+        int alen = a.mag.length;
+        int blen = b.mag.length;
+        int[] z = new int[alen+blen];
+        int[] scratch = ScratchArena.borrowInts(getToomCook3ScratchSize(Math.max(alen, blen), false));
+        multiplyToomCook3(a.mag, alen, alen, b.mag, blen, blen, z, z.length, scratch, 0);
+        ScratchArena.release(scratch);
+
+        BigInteger result = new BigInteger(trustedStripLeadingZeroInts(z), 1);
+        if (a.signum != b.signum) {
+            return result.negate();
+        } else {
+            return result;
+        }
+    }
+
+    /**
+     * Multiplies two BigIntegers using 3-way Toom-Cook multiplication,
+     * evaluating the five sub-products concurrently if {@code numThreads > 1}.
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @see #multiplyToomCook3(BigInteger, BigInteger)
+     */
+    private static BigInteger multiplyToomCook3(BigInteger a, BigInteger b, int numThreads) {
+        if (numThreads <= 1)
+            return multiplyToomCook3(a, b);
+
+        int alen = a.mag.length;
+        int blen = b.mag.length;
+
+        int largest = Math.max(alen, blen);
+
+        // k is the size (in ints) of the lower-order slices.
+        int k = (largest+2)/3;   // Equal to ceil(largest/3)
+
+        // r is the size (in ints) of the highest-order slice.
+        int r = largest - 2*k;
+
+        // Obtain slices of the numbers. a2 and b2 are the most significant
+        // bits of the numbers a and b, and a0 and b0 the least significant.
+        BigInteger a0, a1, a2, b0, b1, b2;
+        a2 = a.getToomSlice(k, r, 0, largest);
+        a1 = a.getToomSlice(k, r, 1, largest);
+        a0 = a.getToomSlice(k, r, 2, largest);
+        b2 = b.getToomSlice(k, r, 0, largest);
+        b1 = b.getToomSlice(k, r, 1, largest);
+        b0 = b.getToomSlice(k, r, 2, largest);
+
+        BigInteger v0, v1, v2, vm1, vinf, t1, t2, tm1, da1, db1;
+
+        // evaluate at 0, -1, 1, 2, and infinity
+        da1 = a2.add(a0);
+        db1 = b2.add(b0);
+        BigInteger dam1 = da1.subtract(a1);
+        BigInteger dbm1 = db1.subtract(b1);
+        da1 = da1.add(a1);
+        db1 = db1.add(b1);
+        BigInteger da2 = da1.add(a2).shiftLeft(1).subtract(a0);
+        BigInteger db2 = db1.add(b2).shiftLeft(1).subtract(b0);
+
+        BigInteger[] v = multiplyAll(new BigInteger[] {a0, dam1, da1, da2, a2},
+                                     new BigInteger[] {b0, dbm1, db1, db2, b2}, numThreads);
+        v0 = v[0];
+        vm1 = v[1];
+        v1 = v[2];
+        v2 = v[3];
+        vinf = v[4];
+
+        // The algorithm requires two divisions by 2 and one by 3.
+        // All divisions are known to be exact, that is, they do not produce
+        // remainders, and all results are positive.  The divisions by 2 are
+        // implemented as right shifts which are relatively efficient, leaving
+        // only an exact division by 3, which is done by a specialized
+        // linear-time algorithm.
+        t2 = v2.subtract(vm1).exactDivideBy3();
+        tm1 = v1.subtract(vm1).shiftRight(1);
+        t1 = v1.subtract(v0);
+        t2 = t2.subtract(t1).shiftRight(1);
+        t1 = t1.subtract(tm1).subtract(vinf);
+        t2 = t2.subtract(vinf.shiftLeft(1));
+        tm1 = tm1.subtract(t2);
+
+        // Number of bits to shift left.
+        int ss = k*32;
 
         BigInteger result = vinf.shiftLeft(ss).add(t2).shiftLeft(ss).add(t1).shiftLeft(ss).add(tm1).shiftLeft(ss).add(v0);
 
@@ -1787,6 +2729,621 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         }
     }
 
+    /**
+     * Multiplies two array ranges using 3-way Toom-Cook multiplication. Like
+     * {@link #multiplyToomCook3(BigInteger, BigInteger, int)}, both factors are split into
+     * pieces of a third of the length of the longer one; the upper pieces of the shorter
+     * factor may be short or empty.
+     * @see #multiplyRange(int[], int, int, int[], int, int, int[], int, int[], int)
+     */
+    private static void multiplyToomCook3(int[] x, int xEnd, int xLen, int[] y, int yEnd, int yLen,
+                                          int[] z, int zEnd, int[] scratch, int scratchOff) {
+        int zLen = xLen + yLen;
+
+        // k is the size (in ints) of the lower-order slices; x0 and y0 are the least significant
+        int k = (Math.max(xLen, yLen)+2) / 3;
+        int x0Len = Math.min(xLen, k);
+        int x1Len = Math.min(xLen-x0Len, k);
+        int x2Len = xLen - x0Len - x1Len;
+        int y0Len = Math.min(yLen, k);
+        int y1Len = Math.min(yLen-y0Len, k);
+        int y2Len = yLen - y0Len - y1Len;
+
+        // the values at 1, -1, and 2 take k+1 ints each and their products 2k+2 ints
+        int da1End = scratchOff + k + 1;
+        int dam1End = da1End + k + 1;
+        int da2End = dam1End + k + 1;
+        int db1End = da2End + k + 1;
+        int dbm1End = db1End + k + 1;
+        int db2End = dbm1End + k + 1;
+        int v1End = db2End + 2*k + 2;
+        int vm1End = v1End + 2*k + 2;
+        int v2End = vm1End + 2*k + 2;
+
+        // evaluate at 0, -1, 1, 2, and infinity
+        boolean vm1Negative = evaluateToomCook3(x, xEnd, x0Len, x1Len, x2Len, k, scratch, da1End, dam1End, da2End) !=
+                              evaluateToomCook3(y, yEnd, y0Len, y1Len, y2Len, k, scratch, db1End, dbm1End, db2End);
+
+        // v0 goes in the lowest ints of z, vinf above the lowest 4k ints
+        multiplyRange(x, xEnd, x0Len, y, yEnd, y0Len, z, zEnd, scratch, v2End);
+        int v0Len = x0Len + y0Len;
+        int vinfLen = x2Len>0 && y2Len>0 ? x2Len+y2Len : 0;
+        if (vinfLen > 0) {
+            Arrays.fill(z, zEnd-4*k, zEnd-v0Len, 0);
+            multiplyRange(x, xEnd-2*k, x2Len, y, yEnd-2*k, y2Len, z, zEnd-4*k, scratch, v2End);
+        }
+        else
+            Arrays.fill(z, zEnd-zLen, zEnd-v0Len, 0);
+        multiplyRange(scratch, da1End, k+1, scratch, db1End, k+1, scratch, v1End, scratch, v2End);
+        multiplyRange(scratch, dam1End, k+1, scratch, dbm1End, k+1, scratch, vm1End, scratch, v2End);
+        multiplyRange(scratch, da2End, k+1, scratch, db2End, k+1, scratch, v2End, scratch, v2End);
+
+        interpolateToomCook3(z, zEnd, zLen, k, v0Len, vinfLen, scratch, v1End, vm1End, v2End, vm1Negative);
+    }
+
+    /**
+     * Evaluates the polynomial x2*t<sup>2</sup>+x1*t+x0, whose coefficients are the
+     * pieces of a factor in 3-way Toom-Cook multiplication, at t=1, -1, and 2. Each
+     * value is stored in {@code k+1} ints of {@code scratch}.
+     * @param x the array containing the factor
+     * @param xEnd the index after the last (lowest) int of the factor
+     * @param x0Len the length of the lowest piece
+     * @param x1Len the length of the middle piece, which starts {@code k} ints above the lowest one
+     * @param x2Len the length of the highest piece, which starts {@code 2k} ints above the lowest one
+     * @param k the size of the pieces
+     * @param scratch the array to store the values in
+     * @param d1End the index after the last int of the value at 1
+     * @param dm1End the index after the last int of the absolute value at -1
+     * @param d2End the index after the last int of the value at 2
+     * @return <code>true</code> if the value at -1 is negative
+     */
+    private static boolean evaluateToomCook3(int[] x, int xEnd, int x0Len, int x1Len, int x2Len, int k,
+                                             int[] scratch, int d1End, int dm1End, int d2End) {
+        int len = k + 1;
+
+        // d1=x2+x0, dm1=d1-x1, d1+=x1
+        copyRange(x, xEnd, x0Len, scratch, d1End, len);
+        addRange(scratch, d1End, len, x, xEnd-2*k, x2Len);
+        boolean negative = compareRange(scratch, d1End, len, x, xEnd-k, x1Len) < 0;
+        if (negative) {
+            copyRange(x, xEnd-k, x1Len, scratch, dm1End, len);
+            subtractRange(scratch, dm1End, len, scratch, d1End, len);
+        }
+        else {
+            copyRange(scratch, d1End, len, scratch, dm1End, len);
+            subtractRange(scratch, dm1End, len, x, xEnd-k, x1Len);
+        }
+        addRange(scratch, d1End, len, x, xEnd-k, x1Len);
+
+        // d2=(d1+x2)*2-x0
+        copyRange(scratch, d1End, len, scratch, d2End, len);
+        addRange(scratch, d2End, len, x, xEnd-2*k, x2Len);
+        addRange(scratch, d2End, len, scratch, d2End, len);
+        subtractRange(scratch, d2End, len, x, xEnd, x0Len);
+
+        return negative;
+    }
+
+    /**
+     * Computes the product in 3-way Toom-Cook multiplication or squaring from the values of
+     * the product polynomial at 0, -1, 1, 2, and infinity, using the same sequence of
+     * operations as {@link #multiplyToomCook3(BigInteger, BigInteger, int)}.
+     * @param z the array containing v0 and vinf; the product is stored there
+     * @param zEnd the index after the last (lowest) int of the product
+     * @param zLen the number of ints in the product
+     * @param k the size of the pieces
+     * @param v0Len the number of ints in v0, which is stored in the lowest ints of {@code z}
+     * @param vinfLen the number of ints in vinf, which is stored {@code 4k} ints above v0;
+     *        the ints in between must be zero
+     * @param scratch the array containing v1, vm1, and v2, which are {@code 2k+2} ints each;
+     *        it is overwritten
+     * @param v1End the index after the last int of v1
+     * @param vm1End the index after the last int of the absolute value of vm1
+     * @param v2End the index after the last int of v2
+     * @param vm1Negative whether vm1 is negative
+     */
+    private static void interpolateToomCook3(int[] z, int zEnd, int zLen, int k, int v0Len, int vinfLen,
+                                             int[] scratch, int v1End, int vm1End, int v2End, boolean vm1Negative) {
+        int len = 2*k + 2;
+        int vinfEnd = zEnd - 4*k;
+
+        // t2 = (v2 - vm1) / 3
+        if (vm1Negative)
+            addRange(scratch, v2End, len, scratch, vm1End, len);
+        else
+            subtractRange(scratch, v2End, len, scratch, vm1End, len);
+        exactDivideBy3(scratch, v2End, len);
+
+        // tm1 = (v1 - vm1) / 2, stored where vm1 was
+        if (vm1Negative)
+            addRange(scratch, vm1End, len, scratch, v1End, len);
+        else
+            reverseSubtractRange(scratch, vm1End, scratch, v1End, len);
+        halveRange(scratch, vm1End, len);
+
+        // t1 = v1 - v0, stored where v1 was
+        subtractRange(scratch, v1End, len, z, zEnd, v0Len);
+
+        // t2 = (t2 - t1) / 2
+        subtractRange(scratch, v2End, len, scratch, v1End, len);
+        halveRange(scratch, v2End, len);
+
+        // t1 = t1 - tm1 - vinf
+        subtractRange(scratch, v1End, len, scratch, vm1End, len);
+        subtractRange(scratch, v1End, len, z, vinfEnd, vinfLen);
+
+        // t2 = t2 - 2*vinf
+        subtractRange(scratch, v2End, len, z, vinfEnd, vinfLen);
+        subtractRange(scratch, v2End, len, z, vinfEnd, vinfLen);
+
+        // tm1 = tm1 - t2
+        subtractRange(scratch, vm1End, len, scratch, v2End, len);
+
+        // Add tm1, t1, and t2 shifted by k, 2k, and 3k ints to v0 and vinf. All of them
+        // are positive and their sum fits in zLen ints, so any ints that are beyond the
+        // end of z are zero.
+        for (int i=1; i<=3; i++) {
+            int shift = i * k;
+            int tEnd = i==1 ? vm1End : i==2 ? v1End : v2End;
+            if (zLen > shift)
+                addRange(z, zEnd-shift, zLen-shift, scratch, tEnd, Math.min(len, zLen-shift));
+        }
+    }
+
+    /**
+     * Copies the {@code srcLen} ints of {@code src} that end at {@code srcEnd} into the lowest
+     * ints of the {@code dstLen} ints of {@code dst} that end at {@code dstEnd}, and fills the
+     * ints above them with zeros. {@code srcLen} may be 0.
+     */
+    private static void copyRange(int[] src, int srcEnd, int srcLen, int[] dst, int dstEnd, int dstLen) {
+        if (srcLen > 0)
+            System.arraycopy(src, srcEnd-srcLen, dst, dstEnd-srcLen, srcLen);
+        Arrays.fill(dst, dstEnd-dstLen, dstEnd-srcLen, 0);
+    }
+
+    /**
+     * Adds the {@code xLen} ints of {@code x} that end at {@code xEnd} to the {@code zLen}
+     * ints of {@code z} that end at {@code zEnd}. A carry out of the highest int of
+     * {@code z} is dropped. {@code x} may be the same range as {@code z}.
+     */
+    private static void addRange(int[] z, int zEnd, int zLen, int[] x, int xEnd, int xLen) {
+        long carry = 0;
+        int i = 1;
+        for (; i<=xLen; i++) {
+            long sum = (z[zEnd-i] & LONG_MASK) + (x[xEnd-i] & LONG_MASK) + carry;
+            z[zEnd-i] = (int)sum;
+            carry = sum >>> 32;
+        }
+        for (; carry!=0 && i<=zLen; i++)
+            carry = ++z[zEnd-i]==0 ? 1 : 0;
+    }
+
+    /**
+     * Subtracts the {@code xLen} ints of {@code x} that end at {@code xEnd} from the
+     * {@code zLen} ints of {@code z} that end at {@code zEnd}. The result must not be negative.
+     */
+    private static void subtractRange(int[] z, int zEnd, int zLen, int[] x, int xEnd, int xLen) {
+        long borrow = 0;   // 0 or -1
+        int i = 1;
+        for (; i<=xLen; i++) {
+            long diff = (z[zEnd-i] & LONG_MASK) - (x[xEnd-i] & LONG_MASK) + borrow;
+            z[zEnd-i] = (int)diff;
+            borrow = diff >> 32;
+        }
+        for (; borrow!=0 && i<=zLen; i++)
+            borrow = z[zEnd-i]--==0 ? -1 : 0;
+    }
+
+    /**
+     * Replaces the {@code len} ints of {@code z} that end at {@code zEnd} with {@code x-z},
+     * where {@code x} also has {@code len} ints. The result must not be negative.
+     */
+    private static void reverseSubtractRange(int[] z, int zEnd, int[] x, int xEnd, int len) {
+        long borrow = 0;
+        for (int i=1; i<=len; i++) {
+            long diff = (x[xEnd-i] & LONG_MASK) - (z[zEnd-i] & LONG_MASK) + borrow;
+            z[zEnd-i] = (int)diff;
+            borrow = diff >> 32;
+        }
+    }
+
+    /**
+     * Compares the {@code xLen} ints of {@code x} that end at {@code xEnd} with the
+     * {@code yLen} ints of {@code y} that end at {@code yEnd}.
+     * @return -1, 0, or 1 as {@code x} is less than, equal to, or greater than {@code y}
+     */
+    private static int compareRange(int[] x, int xEnd, int xLen, int[] y, int yEnd, int yLen) {
+        for (int i=Math.max(xLen, yLen); i>0; i--) {
+            long xi = i<=xLen ? x[xEnd-i]&LONG_MASK : 0;
+            long yi = i<=yLen ? y[yEnd-i]&LONG_MASK : 0;
+            if (xi != yi)
+                return xi<yi ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Shifts the {@code len} ints of {@code a} that end at {@code end} right by one bit.
+     */
+    private static void halveRange(int[] a, int end, int len) {
+        int prev = 0;
+        for (int i=end-len; i<end; i++) {
+            int ai = a[i];
+            a[i] = (ai>>>1) | (prev<<31);
+            prev = ai;
+        }
+    }
+
+    /**
+     * Divides the {@code len} ints of {@code a} that end at {@code end} by 3 in place. The
+     * remainder must be zero.
+     * @see #exactDivideBy3()
+     */
+    private static void exactDivideBy3(int[] a, int end, int len) {
+        long borrow = 0;
+        for (int i=end-1; i>=end-len; i--) {
+            long x = a[i] & LONG_MASK;
+            long w = x - borrow;
+            borrow = borrow>x ? 1 : 0;
+
+            // 0xAAAAAAAB is the modular inverse of 3 (mod 2^32)
+            long q = (w * 0xAAAAAAABL) & LONG_MASK;
+            a[i] = (int)q;
+            if (q >= 0x55555556L) {
+                borrow++;
+                if (q >= 0xAAAAAAABL)
+                    borrow++;
+            }
+        }
+    }
+
+    /**
+     * Multiplies two BigIntegers of different lengths using unbalanced
+     * Toom-Cook multiplication with {@code ka} pieces for {@code a} and
+     * {@code kb} pieces for {@code b}: Toom-3/2, Toom-4/2, or Toom-4/3. Both
+     * numbers are split into pieces of the same size, so the cost depends on
+     * the actual lengths rather than on the longer one.<br/>
+     * The pieces are viewed as the coefficients of two polynomials whose
+     * product has degree d=ka+kb-2, i.e. 3, 4, or 5. The polynomials are
+     * evaluated at 0, at &lfloor;d/2&rfloor; pairs of points &plusmn;p/q where
+     * p and q are powers of two, so evaluation needs only shifts and additions,
+     * and at infinity if d is odd. After the d+1 point-wise products have been
+     * computed, the product polynomial is interpolated.<br/>
+     * Evaluating at &plusmn;x lets the interpolation be split into an even
+     * and an odd half: (v(x)+v(-x))/2 only depends on the even coefficients
+     * of the product and (v(x)-v(-x))/2 only on the odd ones.  Once the
+     * coefficients known from the values at 0 and infinity are taken out, both
+     * halves lead to the same linear system whose inverse is computed once
+     * (see {@link ToomCookMatrixHolder}).<br/>
+     * Toom-3/2 and Toom-4/2 need 4 and 5 point-wise products of pieces of
+     * size n/3 and n/4, where n is the length of the longer factor; Toom-4/3
+     * needs 6 products of size n/4.
+     *
+     * See: M. Bodrato, A. Zanoni, "Integer and Polynomial Multiplication:
+     *      Towards Optimal Toom-Cook Matrices", ISSAC 2007
+     *
+     * @param a the longer factor
+     * @param b the shorter factor
+     * @param ka number of pieces to split {@code a} into; 3 or 4
+     * @param kb number of pieces to split {@code b} into; 2 if {@code ka} is 3,
+     *        and 2 or 3 if {@code ka} is 4
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     */
+    private static BigInteger multiplyToomCookUnbalanced(BigInteger a, BigInteger b, int ka, int kb, int numThreads) {
+        int degree = ka + kb - 2;   // degree of the product polynomial
+        int numPairs = degree / 2;
+        boolean useInfinity = degree%2 != 0;
+
+        // s is the size (in ints) of each piece; the most significant pieces may be shorter
+        int s = Math.max((a.mag.length+ka-1)/ka, (b.mag.length+kb-1)/kb);
+
+        int[][] points = ToomCookMatrixHolder.POINTS;
+
+        BigInteger[] aPieces = a.getToomSlices(s, ka);
+        BigInteger[] aEval = evaluateToomCook(aPieces, numPairs, useInfinity);
+        BigInteger[] bPieces = b.getToomSlices(s, kb);
+        BigInteger[] bEval = evaluateToomCook(bPieces, numPairs, useInfinity);
+        BigInteger[] v = multiplyAll(aEval, bEval, numThreads);
+
+        // v[0] = c0, v[2j+1] = c(p/q), v[2j+2] = c(-p/q), and v[2*numPairs+1] = c(infinity) where c is the
+        // product polynomial, evaluated in homogeneous form, i.e. multiplied by q^degree
+        BigInteger c0 = v[0];
+        BigInteger cTop = useInfinity ? v[2*numPairs+1] : null;
+        BigInteger[] even = new BigInteger[numPairs];
+        BigInteger[] odd = new BigInteger[numPairs];
+        for (int j=0; j<numPairs; j++) {
+            int e = points[j][0];   // p = 2^e
+            int f = points[j][1];   // q = 2^f
+            BigInteger vPlus = v[2*j+1];
+            BigInteger vMinus = v[2*j+2];
+            // even coefficients: remove c0 and divide by p^2 (and by q if the degree is odd)
+            even[j] = vPlus.add(vMinus).shiftRight(1).subtract(c0.shiftLeft(f*degree));
+            even[j] = even[j].shiftRight(useInfinity ? 2*e+f : 2*e);
+            // odd coefficients: divide by p*q, or remove the top coefficient and divide by p*q^2 if the degree is odd
+            odd[j] = vPlus.subtract(vMinus).shiftRight(1+e);
+            if (useInfinity)
+                odd[j] = odd[j].subtract(cTop.shiftLeft(e*(degree-1))).shiftRight(2*f);
+            else
+                odd[j] = odd[j].shiftRight(f);
+        }
+
+        BigInteger[] cEven = solveToomCook(even);   // c2, c4, ..., c(2*numPairs)
+        BigInteger[] cOdd = solveToomCook(odd);   // c1, c3, ..., c(2*numPairs-1)
+
+        // all coefficients are nonnegative because all pieces are
+        int[] z = new int[a.mag.length+b.mag.length];
+        addShifted(z, c0.mag, 0);
+        for (int j=0; j<numPairs; j++) {
+            addShifted(z, cOdd[j].mag, (2*j+1)*s);
+            addShifted(z, cEven[j].mag, (2*j+2)*s);
+        }
+        if (useInfinity)
+            addShifted(z, cTop.mag, degree*s);
+
+        BigInteger result = new BigInteger(trustedStripLeadingZeroInts(z), 1);
+        if (a.signum != b.signum)
+            return result.negate();
+        else
+            return result;
+    }
+
+    /**
+     * Evaluates the polynomial whose coefficients are {@code pieces} at 0, at
+     * &plusmn;2<sup>e</sup>/2<sup>f</sup> for the first {@code numPairs} pairs
+     * {e, f} in {@link ToomCookMatrixHolder#POINTS}, and optionally at infinity.
+     * The evaluation is done in homogeneous form, i.e. the value at p/q is
+     * multiplied by q<sup>k-1</sup> where k is the number of pieces, so all
+     * values are integers.
+     * @param pieces the coefficients, least significant first
+     * @param numPairs number of pairs of points
+     * @param infinity whether to evaluate at infinity, too
+     * @return an array containing the value at 0, followed by the values at +p/q and -p/q for each point,
+     *         followed by the value at infinity if requested
+     */
+    private static BigInteger[] evaluateToomCook(BigInteger[] pieces, int numPairs, boolean infinity) {
+        int k = pieces.length;
+        int[][] points = ToomCookMatrixHolder.POINTS;
+        BigInteger[] values = new BigInteger[2*numPairs + (infinity ? 2 : 1)];
+        values[0] = pieces[0];
+        for (int j=0; j<numPairs; j++) {
+            int e = points[j][0];
+            int f = points[j][1];
+            BigInteger sumEven = ZERO;
+            BigInteger sumOdd = ZERO;
+            for (int i=0; i<k; i++) {
+                BigInteger term = pieces[i].shiftLeft(e*i+f*(k-1-i));
+                if (i%2 == 0)
+                    sumEven = sumEven.add(term);
+                else
+                    sumOdd = sumOdd.add(term);
+            }
+            values[2*j+1] = sumEven.add(sumOdd);
+            values[2*j+2] = sumEven.subtract(sumOdd);
+        }
+        if (infinity)
+            values[2*numPairs+1] = pieces[k-1];
+        return values;
+    }
+
+    /**
+     * Solves the linear system that recovers the even or odd coefficients of
+     * the product polynomial in Toom-Cook multiplication.
+     * @param rhs the right-hand side, one value per pair of evaluation points
+     * @return the solution vector, lowest coefficient first
+     */
+    private static BigInteger[] solveToomCook(BigInteger[] rhs) {
+        int n = rhs.length;
+        BigInteger[][] inverse = ToomCookMatrixHolder.INVERSE[n];
+        int[] shifts = ToomCookMatrixHolder.SHIFTS[n];
+        int[][] divisors = ToomCookMatrixHolder.DIVISORS[n];
+
+        BigInteger[] x = new BigInteger[n];
+        for (int m=0; m<n; m++) {
+            BigInteger sum = ZERO;
+            for (int r=0; r<n; r++) {
+                BigInteger coeff = inverse[m][r];
+                if (coeff.signum != 0)
+                    sum = sum.add(rhs[r].multiply(coeff));
+            }
+            // the division is exact, so divide by the power of two and by each odd factor separately
+            sum = sum.shiftRight(shifts[m]);
+            for (int d: divisors[m])
+                sum = sum.exactDivide(d);
+            x[m] = sum;
+        }
+        return x;
+    }
+
+    /**
+     * Holds the evaluation points and the precomputed interpolation matrices
+     * for Toom-Cook multiplication with up to 2 pairs of points, which is
+     * enough for the products of degree 3 to 5 of the Toom-3/2, Toom-4/2 and
+     * Toom-4/3 splits. Matrices are indexed by the number of pairs.<br/>
+     * The matrices are computed when the class is first used, which is after
+     * {@code BigInteger} has been fully initialized.
+     */
+    private static class ToomCookMatrixHolder {
+        /**
+         * Evaluation points &plusmn;2<sup>e</sup>/2<sup>f</sup>, given as pairs {e, f}.
+         * Only powers of two are used so evaluation needs nothing but shifts.
+         * A Toom-Cook variant that needs n pairs uses the first n entries.
+         */
+        static final int[][] POINTS = {{0, 0}, {1, 0}};
+
+        /**
+         * Row m of the inverse for n pairs is INVERSE[n][m] / (2^SHIFTS[n][m] * D) where D is the
+         * product of the odd numbers in DIVISORS[n][m], each of which is less than 2<sup>31</sup>.
+         */
+        static final BigInteger[][][] INVERSE = new BigInteger[POINTS.length+1][][];
+        static final int[][] SHIFTS = new int[POINTS.length+1][];
+        static final int[][][] DIVISORS = new int[POINTS.length+1][][];
+
+        static {
+            for (int n=1; n<=POINTS.length; n++)
+                invert(n);
+        }
+
+        /**
+         * Inverts the matrix V[r][m] = y<sub>r</sub><sup>m</sup>z<sub>r</sub><sup>n-1-m</sup> where
+         * y<sub>r</sub>=p<sub>r</sub><sup>2</sup> and z<sub>r</sub>=q<sub>r</sub><sup>2</sup> for the
+         * first n points, using Gauss-Jordan elimination on fractions.
+         */
+        private static void invert(int n) {
+            int[][] points = POINTS;
+
+            // fractions are stored as num/den; den is always positive
+            BigInteger[][] num = new BigInteger[n][2*n];
+            BigInteger[][] den = new BigInteger[n][2*n];
+            for (int r=0; r<n; r++) {
+                for (int m=0; m<n; m++) {
+                    num[r][m] = ONE.shiftLeft(2*points[r][0]*m + 2*points[r][1]*(n-1-m));
+                    den[r][m] = ONE;
+                    num[r][n+m] = r==m ? ONE : ZERO;
+                    den[r][n+m] = ONE;
+                }
+            }
+
+            for (int col=0; col<n; col++) {
+                int pivot = col;
+                while (num[pivot][col].signum == 0)
+                    pivot++;
+                BigInteger[] tmp = num[pivot];
+                num[pivot] = num[col];
+                num[col] = tmp;
+                tmp = den[pivot];
+                den[pivot] = den[col];
+                den[col] = tmp;
+
+                // divide the pivot row by the pivot element
+                BigInteger pNum = num[col][col];
+                BigInteger pDen = den[col][col];
+                for (int j=0; j<2*n; j++) {
+                    BigInteger[] q = reduceFraction(num[col][j].multiply(pDen), den[col][j].multiply(pNum));
+                    num[col][j] = q[0];
+                    den[col][j] = q[1];
+                }
+
+                // eliminate the column from all other rows
+                for (int r=0; r<n; r++) {
+                    if (r==col || num[r][col].signum==0)
+                        continue;
+                    BigInteger fNum = num[r][col];
+                    BigInteger fDen = den[r][col];
+                    for (int j=0; j<2*n; j++) {
+                        // row[r] -= f * row[col]
+                        BigInteger tNum = fNum.multiply(num[col][j]);
+                        BigInteger tDen = fDen.multiply(den[col][j]);
+                        BigInteger[] d = reduceFraction(num[r][j].multiply(tDen).subtract(tNum.multiply(den[r][j])),
+                                                        den[r][j].multiply(tDen));
+                        num[r][j] = d[0];
+                        den[r][j] = d[1];
+                    }
+                }
+            }
+
+            // bring each row to a common denominator and split off its power of two
+            INVERSE[n] = new BigInteger[n][n];
+            SHIFTS[n] = new int[n];
+            DIVISORS[n] = new int[n][];
+            for (int m=0; m<n; m++) {
+                BigInteger lcm = ONE;
+                for (int r=0; r<n; r++)
+                    lcm = lcm.divide(lcm.gcd(den[m][n+r])).multiply(den[m][n+r]);
+                for (int r=0; r<n; r++)
+                    INVERSE[n][m][r] = num[m][n+r].multiply(lcm.divide(den[m][n+r]));
+                int shift = lcm.getLowestSetBit();
+                SHIFTS[n][m] = shift;
+                DIVISORS[n][m] = splitDivisor(lcm.shiftRight(shift).longValueExact());
+            }
+        }
+
+        /**
+         * Splits an odd number into factors less than 2<sup>31</sup> by combining its prime factors.
+         * Returns an empty array for 1.
+         */
+        private static int[] splitDivisor(long d) {
+            int[] factors = new int[64];
+            int numFactors = 0;
+            long factor = 1;
+            for (long p=3; d>1; p+=2) {
+                if (p*p > d)
+                    p = d;   // d is prime
+                while (d%p == 0) {
+                    if (factor*p >= 1L<<31) {
+                        factors[numFactors++] = (int)factor;
+                        factor = 1;
+                    }
+                    factor *= p;
+                    d /= p;
+                }
+            }
+            if (factor > 1)
+                factors[numFactors++] = (int)factor;
+            return Arrays.copyOf(factors, numFactors);
+        }
+
+        private static BigInteger[] reduceFraction(BigInteger num, BigInteger den) {
+            if (num.signum == 0)
+                return new BigInteger[] {ZERO, ONE};
+            BigInteger gcd = num.gcd(den);
+            if (den.signum < 0)
+                gcd = gcd.negate();
+            return new BigInteger[] {num.divide(gcd), den.divide(gcd)};
+        }
+    }
+
+    /**
+     * Computes <code>a[i]*b[i]</code> for all <code>i</code>. If {@code numThreads > 1},
+     * each product runs as a separate fork-join task and may use all {@code numThreads}
+     * threads for its own recursion. The pieces it forks stay in the shared pool, so
+     * workers that have finished their own product steal them; when there are more
+     * products than threads, the ones left over at the end are not run on one thread.
+     * @param a the first factors
+     * @param b the second factors; an array of the same length as <code>a</code>
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return an array containing the products
+     */
+    private static BigInteger[] multiplyAll(final BigInteger[] a, final BigInteger[] b, final int numThreads) {
+        final BigInteger[] c = new BigInteger[a.length];
+        if (numThreads > 1) {
+            parallelFor(0, a.length, a.length, new RangeTask() {
+                @Override
+                public void run(int fromIdx, int toIdx) {
+                    for (int i=fromIdx; i<toIdx; i++)
+                        c[i] = a[i].multiply(b[i], numThreads);
+                }
+            });
+        }
+        else
+            for (int i=0; i<a.length; i++)
+                c[i] = a[i].multiply(b[i]);
+        return c;
+    }
+
+    /**
+     * Computes <code>a[i]<sup>2</sup></code> for all <code>i</code>.
+     * @param a the numbers to square
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return an array containing the squares
+     * @see #multiplyAll(BigInteger[], BigInteger[], int)
+     */
+    private static BigInteger[] squareAll(final BigInteger[] a, final int numThreads) {
+        final BigInteger[] c = new BigInteger[a.length];
+        if (numThreads > 1) {
+            parallelFor(0, a.length, a.length, new RangeTask() {
+                @Override
+                public void run(int fromIdx, int toIdx) {
+                    for (int i=fromIdx; i<toIdx; i++)
+                        c[i] = a[i].square(numThreads);
+                }
+            });
+        }
+        else
+            for (int i=0; i<a.length; i++)
+                c[i] = a[i].square();
+        return c;
+    }
 
     /**
      * Returns a slice of a BigInteger for use in Toom-Cook multiplication.
@@ -1841,6 +3398,33 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         return new BigInteger(trustedStripLeadingZeroInts(intSlice), 1);
     }
 
+    /**
+     * Splits the magnitude of this BigInteger into {@code numPieces} slices of
+     * {@code pieceSize} ints each for use in k-way Toom-Cook multiplication.
+     * Slices are aligned at the least significant end, so slice {@code i} has
+     * the weight 2<sup>32*pieceSize*i</sup>; slices beyond the length of the
+     * number are zero.  As in {@link #getToomSlice(int, int, int, int)}, all
+     * slices are positive.
+     * @param pieceSize the size of each slice in ints
+     * @param numPieces the number of slices
+     * @return an array of slices, least significant first
+     */
+    private BigInteger[] getToomSlices(int pieceSize, int numPieces) {
+        int len = mag.length;
+        BigInteger[] slices = new BigInteger[numPieces];
+        for (int i=0; i<numPieces; i++) {
+            int end = len - i*pieceSize;   // exclusive
+            int start = Math.max(0, end-pieceSize);
+            if (end <= 0)
+                slices[i] = ZERO;
+            else {
+                int[] intSlice = Arrays.copyOfRange(mag, start, end);
+                slices[i] = new BigInteger(trustedStripLeadingZeroInts(intSlice), 1);
+            }
+        }
+        return slices;
+    }
+
     /**
      * Does an exact division (that is, the remainder is known to be zero)
      * of the specified number by 3.  This is used in Toom-Cook
@@ -1882,39 +3466,119 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
     }
 
     /**
-     * Returns a new BigInteger representing n lower ints of the number.
-     * This is used by Karatsuba multiplication and Karatsuba squaring.
+     * Does an exact division of this number by an odd number less than 2<sup>31</sup>,
+     * using the same method as {@link #exactDivideBy3()}: each quotient int is the
+     * low int of the dividend times the inverse of the divisor modulo 2<sup>32</sup>.
+     * If this number is not a multiple of {@code d}, results are undefined.
+     * @param d an odd positive number
+     * @return {@code this/d}
      */
-    private BigInteger getLower(int n) {
-        int len = mag.length;
+    private BigInteger exactDivide(int d) {
+        if (d == 1)
+            return this;
+        // Newton iteration for the inverse of d mod 2^32; each step doubles the number of correct bits
+        int inverse = d;   // correct to 3 bits because d*d = 1 (mod 8)
+        for (int i=0; i<4; i++)
+            inverse *= 2 - d*inverse;
+        long dLong = d;
+        long inverseLong = inverse & LONG_MASK;
 
-        if (len <= n) {
-            return abs();
+        int len = mag.length;
+        int[] result = new int[len];
+        long borrow = 0;
+        for (int i=len-1; i >= 0; i--) {
+            long x = mag[i] & LONG_MASK;
+            long w = (x - borrow) & LONG_MASK;
+            borrow = borrow>x ? 1 : 0;
+            long q = (w * inverseLong) & LONG_MASK;
+            result[i] = (int)q;
+            // q*d = w + 2^32*hi, so hi has to be subtracted from the next int
+            borrow += (q * dLong) >>> 32;
         }
+        return new BigInteger(trustedStripLeadingZeroInts(result), signum);
+    }
 
-        int lowerInts[] = new int[n];
-        System.arraycopy(mag, len-n, lowerInts, 0, n);
+    // Parallel execution
 
-        return new BigInteger(trustedStripLeadingZeroInts(lowerInts), 1);
+    /**
+     * Holds the fork-join pool shared by all multithreaded code paths. The pool is created
+     * the first time it is needed and lives for the lifetime of the JVM; its worker threads
+     * are daemon threads, so they don't keep the JVM from exiting.<br/>
+     * The pool has one worker per available processor. A {@code numThreads} argument passed
+     * to a multithreaded method limits how many pieces each step of the computation is split
+     * into, not how many threads exist, so concurrent callers and nested steps cannot
+     * oversubscribe the machine.
+     */
+    private static class ForkJoinPoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     }
 
     /**
-     * Returns a new BigInteger representing mag.length-n upper
-     * ints of the number.  This is used by Karatsuba multiplication and
-     * Karatsuba squaring.
+     * A piece of work that processes all indices in the range
+     * <code>[fromIdx, toIdx)</code>.
      */
-    private BigInteger getUpper(int n) {
-        int len = mag.length;
+    interface RangeTask {
+        void run(int fromIdx, int toIdx);
+    }
 
-        if (len <= n) {
-            return ZERO;
+    /**
+     * Splits the index range <code>[fromIdx, toIdx)</code> into at most
+     * <code>numThreads</code> chunks of roughly equal size and runs
+     * {@code task} on each chunk in the shared fork-join pool.<br/>
+     * If the calling thread is a fork-join worker, the chunks are forked in
+     * that worker's pool so nested calls don't block a worker.
+     * Returns when all chunks have been processed.
+     * @param fromIdx the first index, inclusive
+     * @param toIdx the last index, exclusive
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @param task the work to do for each chunk
+     */
+    static void parallelFor(int fromIdx, int toIdx, int numThreads, RangeTask task) {
+        int len = toIdx - fromIdx;
+        if (numThreads<=1 || len<=1) {
+            task.run(fromIdx, toIdx);
+            return;
         }
 
-        int upperLen = len - n;
-        int upperInts[] = new int[upperLen];
-        System.arraycopy(mag, 0, upperInts, 0, upperLen);
+        int chunkSize = (len+numThreads-1) / numThreads;
+        RangeAction action = new RangeAction(task, fromIdx, toIdx, chunkSize);
+        if (ForkJoinTask.inForkJoinPool())
+            action.invoke();
+        else
+            ForkJoinPoolHolder.POOL.invoke(action);
+    }
+
+    /**
+     * Recursively halves an index range until it is no longer than
+     * {@code chunkSize}, then runs a {@link RangeTask} on it.
+     */
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+        private final int fromIdx;
+        private final int toIdx;
+        private final int chunkSize;
 
-        return new BigInteger(trustedStripLeadingZeroInts(upperInts), 1);
+        RangeAction(RangeTask task, int fromIdx, int toIdx, int chunkSize) {
+            this.task = task;
+            this.fromIdx = fromIdx;
+            this.toIdx = toIdx;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (toIdx-fromIdx <= chunkSize)
+                task.run(fromIdx, toIdx);
+            else {
+                // split on a chunk boundary so all chunks except the last one are chunkSize long
+                int numChunks = (toIdx-fromIdx+chunkSize-1) / chunkSize;
+                int midIdx = fromIdx + numChunks/2*chunkSize;
+                invokeAll(new RangeAction(task, fromIdx, midIdx, chunkSize),
+                          new RangeAction(task, midIdx, toIdx, chunkSize));
+            }
+        }
     }
 
     // Schoenhage-Strassen
@@ -1938,13 +3602,54 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
 
         int[] cArr = multiplySchoenhageStrassen(a.mag, b.mag, numThreads);
 
-        BigInteger c = new BigInteger(1, cArr);
+        BigInteger c = new BigInteger(trustedStripLeadingZeroInts(cArr), 1);
         if (signum < 0)
             c = c.negate();
 
         return c;
     }
 
+    /**
+     * Multiplies two {@link BigInteger}s using a floating-point FFT. The caller must make sure
+     * the result is exact by checking {@link FftMultiplier#getDigitBits(int, int, boolean)}.
+     * @param a the first factor
+     * @param b the second factor
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     * @see FftMultiplier
+     */
+    private static BigInteger multiplyFft(BigInteger a, BigInteger b, int numThreads) {
+        int[] cArr = FftMultiplier.multiply(a.mag, a==b ? a.mag : b.mag, numThreads);
+        BigInteger c = new BigInteger(trustedStripLeadingZeroInts(cArr), 1);
+        if (a.signum != b.signum)
+            c = c.negate();
+        return c;
+    }
+
+    /**
+     * Squares a {@link BigInteger} using a floating-point FFT.
+     * Used by {@code Tune}.
+     */
+    private BigInteger squareFft() {
+        return multiplyFft(this, this, 1);
+    }
+
+    /**
+     * Multiplies two {@link BigInteger}s using number-theoretic transforms modulo three primes.
+     * @param a the first factor
+     * @param b the second factor
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     * @see NttMultiplier
+     */
+    private static BigInteger multiplyNtt(BigInteger a, BigInteger b, int numThreads) {
+        int[] cArr = NttMultiplier.multiply(a.mag, b.mag, numThreads);
+        BigInteger c = new BigInteger(trustedStripLeadingZeroInts(cArr), 1);
+        if (a.signum != b.signum)
+            c = c.negate();
+        return c;
+    }
+
     /**
      * This is the core Schoenhage-Strassen method. It multiplies two <b>positive</b> numbers given as
      * int arrays, i.e. in base 2<sup>32</sup>.
@@ -1955,32 +3660,40 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * <p/>
      * The Schoenhage-Strassen algorithm works as follows:
      * <ol>
-     *   <li>Given numbers a and b, split both numbers into pieces of length 2<sup>n-1</sup> bits.
-     *       See the code for how n is calculated.</li>
-     *   <li>Take the low n+2 bits of each piece of a, zero-pad them to 3n+5 bits,
+     *   <li>Choose a transform length K=2<sup>k</sup> and a number of coefficients T, which is K, 3K/2,
+     *       or 7K/4 (see {@link #getSchoenhageStrassenParams(int, int)}).
+     *       Given numbers a and b, split both numbers into pieces of p bits where p is the smallest
+     *       multiple of 64 for which the product a*b has no more than T pieces.</li>
+     *   <li>Choose N as the smallest multiple of 64 and of K that is at least 2p.</li>
+     *   <li>Take the low k+2 bits of each piece of a, zero-pad them to 3k+5 bits,
      *       and concatenate them to a new number u.</li>
      *   <li>Do the same for b to obtain v.</li>
      *   <li>Calculate all pieces of gamma by multiplying u and v (using Schoenhage-Strassen or another
      *       algorithm).</li>
-     *   <li>Split gamma into pieces of 3n+5 bits.</li>
-     *   <li>Calculate z'<sub>i</sub> = gamma<sub>i</sub> + gamma<sub>i+2*2<sup>n</sup></sub> -
-     *       gamma<sub>i+2<sup>n</sup></sub> - gamma<sub>i+3*2<sup>n</sup></sub> and reduce modulo
-     *       2<sup>n+2</sup>.<br/>
-     *       z'<sub>i</sub> will be the i-th piece of a*b mod 2<sup>n+2</sup>.</li>
-     *   <li>Pad the pieces of a and b from step 1 to 2<sup>n</sup>+1 bits.</li>
-     *   <li>Perform a
+     *   <li>Split gamma into pieces of 3k+5 bits and reduce them modulo 2<sup>k+2</sup>.<br/>
+     *       The result, z'<sub>i</sub>, will be the i-th piece of a*b mod 2<sup>k+2</sup>.</li>
+     *   <li>Pad the pieces of a and b from step 1 to N+1 bits.</li>
+     *   <li>View the pieces as coefficients of polynomials and reduce them modulo x<sup>K</sup>+1,
+     *       and, if T&gt;K, also modulo x<sup>K/2</sup>+1 and possibly x<sup>K/4</sup>+1.</li>
+     *   <li>For each of these, perform a
      *       <a href="http://en.wikipedia.org/wiki/Discrete_Fourier_transform_%28general%29#Number-theoretic_transform">
-     *       Discrete Fourier Transform</a> (DFT) on the padded pieces.</li>
-     *   <li>Calculate all pieces of z" by multiplying the i-th piece of a by the i-th piece of b.</li>
-     *   <li>Perform an Inverse Discrete Fourier Transform (IDFT) on z". z" will contain all pieces of
-     *       a*b mod F<sub>n</sub> where F<sub>n</sub>=2<sup>2<sup>n</sup></sup>+1.</li>
-     *   <li>Calculate all pieces of z such that each piece is congruent to z' modulo 2<sup>n+2</sup> and congruent to
-     *       z" modulo F<sub>n</sub>. This is done using the
+     *       Discrete Fourier Transform</a> (DFT) on the reduced pieces, using a power of 2 as the root
+     *       of unity, multiply the i-th piece of a by the i-th piece of b, and perform an Inverse
+     *       Discrete Fourier Transform (IDFT). This yields a*b modulo 2<sup>N</sup>+1 and modulo the
+     *       respective polynomial.</li>
+     *   <li>Combine the results using the Chinese remainder theorem for polynomials. z" will contain
+     *       all T pieces of a*b mod 2<sup>N</sup>+1.</li>
+     *   <li>Calculate all pieces of z such that each piece is congruent to z' modulo 2<sup>k+2</sup> and congruent to
+     *       z" modulo 2<sup>N</sup>+1. This is done using the
      *       <a href="http://en.wikipedia.org/wiki/Chinese_remainder_theorem">Chinese remainder theorem</a>.</li>
-     *   <li>Calculate c by adding z<sub>i</sub> * 2<sup>i*2<sup>n-1</sup></sup> for all i, where z<sub>i</sub> is the
+     *   <li>Calculate c by adding z<sub>i</sub> * 2<sup>i*p</sup> for all i, where z<sub>i</sub> is the
      *       i-th piece of z.</li>
-     *   <li>Return c reduced modulo 2<sup>2<sup>m</sup></sup>+1. See the code for how m is calculated.</li>
      * </ol>
+     * Because p and N are not restricted to powers of two, and because the number of coefficients
+     * can be 1, 3/2, or 7/4 times a power of two, the cost grows fairly smoothly with the size of the
+     * input rather than doubling each time the product length exceeds a power of two.<br/>
+     * If one factor is much longer than the other, it is cut into chunks that are multiplied separately
+     * (see {@link #multiplySchoenhageStrassenUnbalanced(int[], int[], int, int)}).
      *
      * References:
      * <ol>
@@ -1993,6 +3706,8 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      *       Schoenhage-Strassen-Algorithmus</a></li>
      *   <li><a href="http://www.loria.fr/~gaudry/publis/issac07.pdf">A GMP-based Implementation of
      *       Schoenhage-Strassen's Large Integer Multiplication Algorithm</a></li>
+     *   <li><a href="http://www.texmacs.org/joris/tft/tft-abs.html">Joris van der Hoeven: The Truncated
+     *       Fourier Transform and Applications</a></li>
      * </ol>
      * @param a
      * @param b
@@ -2000,138 +3715,585 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * @return a*b
      */
     private static int[] multiplySchoenhageStrassen(int[] a, int[] b, int numThreads) {
-        boolean square = a == b;
-
-        // set M to the number of binary digits in a or b, whichever is greater
-        int M = Math.max(a.length*32, b.length*32);
-
-        // find the lowest m such that m>=log2(2M)
-        int m = 32 - Integer.numberOfLeadingZeros(2*M-1-1);
+        if (a.length < b.length) {
+            int[] temp = a;
+            a = b;
+            b = temp;
+        }
+        int chunkLength = getSchoenhageStrassenChunkLength(a.length, b.length);
+        if (chunkLength < a.length)
+            return multiplySchoenhageStrassenUnbalanced(a, b, chunkLength, numThreads);
+        // a single transform needs no copies for the shorter ones and no temporary vectors for combining them
+        int maxParts = shouldSaveSchoenhageStrassenMemory(a.length, b.length) ? 1 : 3;
+        int[] params = getSchoenhageStrassenParams(a.length, b.length, maxParts);
+        return multiplySchoenhageStrassen(a, b, params[0], params[1], numThreads);
+    }
+
+    /**
+     * Decides whether a Schoenhage-Strassen multiplication should trade some speed for a lower peak
+     * heap usage.<br/>
+     * The transforms of both factors take up about four times the size of the product. With two or three
+     * transforms of different lengths, the copies for the shorter transforms and the temporary vectors
+     * for combining the results add up to about three more product sizes, and assembling the product on
+     * several threads needs another one. Arrays this large usually go to the old generation, which is
+     * only part of the heap, so this is avoided if the maximum heap size is less than ten times the size
+     * of the product. A single transform makes the multiplication up to about 10% slower.
+     * @param alen length of the first factor in ints
+     * @param blen length of the second factor in ints
+     * @return <code>true</code> to use a single transform and assemble the product on one thread
+     */
+    private static boolean shouldSaveSchoenhageStrassenMemory(int alen, int blen) {
+        long productBytes = 4L * (alen+blen);
+        return 10*productBytes > Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Multiplies a long number by a much shorter one using Schoenhage-Strassen.<br/>
+     * A single multiplication would pick a transform length for the length of the product, so the
+     * short factor would be padded to the size of the long one and transformed at full length.
+     * Instead, the long factor is cut into chunks, the short factor is transformed once for the
+     * length of a chunk times the short factor, and the partial products, which overlap by
+     * {@code b.length} ints, are added up.
+     * @param a the longer factor
+     * @param b the shorter factor
+     * @param chunkLength the maximum number of ints in a chunk of {@code a}
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     * @see #getSchoenhageStrassenChunkLength(int, int)
+     */
+    private static int[] multiplySchoenhageStrassenUnbalanced(int[] a, int[] b, int chunkLength, int numThreads) {
+        // make all chunks about the same length so the transform of b fits all of them equally well
+        int numChunks = (a.length+chunkLength-1) / chunkLength;
+        chunkLength = (a.length+numChunks-1) / numChunks;
+
+        int[] params = getSchoenhageStrassenParams(chunkLength, b.length);
+        int k = params[0];
+        int numParts = params[1];
+        int numCoeffs = getSchoenhageStrassenNumCoeffs(k, numParts);
+        int pieceSize = getSchoenhageStrassenPieceSize(chunkLength, b.length, numCoeffs);
+        int N = getSchoenhageStrassenModulusBits(k, pieceSize);
+        MutableModFn[][] bTransformed = dftTruncated(split(b, numCoeffs, pieceSize, N/64+1, numThreads), k, numParts, N, numThreads);
+
+        int[] c = new int[a.length+b.length];
+        for (int end=a.length; end>0; end-=chunkLength) {
+            int[] chunk = Arrays.copyOfRange(a, Math.max(0, end-chunkLength), end);
+            int[] chunkProduct = multiplySchoenhageStrassen(chunk, b, k, numParts, pieceSize, bTransformed, numThreads);
+            addShifted(c, chunkProduct, a.length-end);
+        }
+        return c;
+    }
 
-        int n = m/2 + 1;
+    /**
+     * Multiplies two <b>positive</b> numbers using Schoenhage-Strassen with a maximum transform
+     * length of 2<sup>k</sup>.
+     * @param a
+     * @param b
+     * @param k base-2 logarithm of the longest transform; must be at least 4
+     * @param numParts the number of transforms, each half as long as the previous one; can be 1, 2, or 3
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     * @see #multiplySchoenhageStrassen(int[], int[], int)
+     */
+    private static int[] multiplySchoenhageStrassen(int[] a, int[] b, int k, int numParts, int numThreads) {
+        int pieceSize = getSchoenhageStrassenPieceSize(a.length, b.length, getSchoenhageStrassenNumCoeffs(k, numParts));
+        return multiplySchoenhageStrassen(a, b, k, numParts, pieceSize, null, numThreads);
+    }
 
-        // split a and b into pieces 1<<(n-1) bits long; assume n>=6 so pieces start and end at int boundaries
-        boolean even = m%2 == 0;
-        int numPieces = even ? 1<<n : 1<<(n+1);
-        int pieceSize = 1 << (n-1-5);   // in ints
+    /**
+     * Multiplies two <b>positive</b> numbers using Schoenhage-Strassen, optionally reusing the
+     * transforms of the second factor.
+     * @param a
+     * @param b
+     * @param k base-2 logarithm of the longest transform; must be at least 4
+     * @param numParts the number of transforms, each half as long as the previous one; can be 1, 2, or 3
+     * @param pieceSize the piece size in ints; must be even and at least
+     *                  {@link #getSchoenhageStrassenPieceSize(int, int, int)}
+     * @param bTransformed the result of {@link #dftTruncated(MutableModFn[], int, int, int, int)} for
+     *                     {@code b} and the same parameters, or {@code null} to compute it
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b
+     * @see #multiplySchoenhageStrassen(int[], int[], int)
+     */
+    private static int[] multiplySchoenhageStrassen(int[] a, int[] b, int k, int numParts, int pieceSize, MutableModFn[][] bTransformed, int numThreads) {
+        boolean square = a==b && bTransformed==null;
+        int numCoeffs = getSchoenhageStrassenNumCoeffs(k, numParts);
+        int N = getSchoenhageStrassenModulusBits(k, pieceSize);
+        int t = k + 2;   // number of bits in the z' pieces
+        int spacing = 3*k + 5;   // 2*t+k+1 bits so gamma pieces cannot overflow
+
+        // zr mod 2^N+1. This is done first, and no references to the transforms are kept
+        // longer than necessary, so the memory of the transform of b can be reclaimed before
+        // the inverse transform, and that of the shorter transforms before the product is assembled.
+        MutableModFn[][] aParts = dftTruncated(split(a, numCoeffs, pieceSize, N/64+1, numThreads), k, numParts, N, numThreads);
+        if (square)
+            multiplyParts(aParts, null, numThreads);
+        else if (bTransformed != null)
+            multiplyParts(aParts, bTransformed, numThreads);
+        else
+            multiplyParts(aParts, dftTruncated(split(b, numCoeffs, pieceSize, N/64+1, numThreads), k, numParts, N, numThreads), numThreads);
+        MutableModFn[] c = idftTruncated(aParts, k, N, numCoeffs, numThreads);
+        aParts = null;
 
-        // zi mod 2^(n+2): build u and v from a and b, allocating 3n+5 bits in u and v per n+2 bits from a and b, resp.
-        int numPiecesA = (a.length+pieceSize) / pieceSize;
-        int[] u = new int[(numPiecesA*(3*n+5)+31)/32];
-        int uBitLength = 0;
-        for (int i=0; i<numPiecesA && i*pieceSize<a.length; i++) {
-            appendBits(u, uBitLength, a, i*pieceSize, n+2);
-            uBitLength += 3*n+5;
-        }
+        // zi mod 2^t: build u and v from a and b, allocating spacing bits in u and v per t bits from a and b, resp.
+        int[] u = packLowBits(a, pieceSize, t, spacing, numThreads);
         int[] gamma;
         if (square)
             gamma = new BigInteger(1, u).square(numThreads).mag;   // gamma = u * u
         else {
-            int numPiecesB = (b.length+pieceSize) / pieceSize;
-            int[] v = new int[(numPiecesB*(3*n+5)+31)/32];
-            int vBitLength = 0;
-            for (int i=0; i<numPiecesB && i*pieceSize<b.length; i++) {
-                appendBits(v, vBitLength, b, i*pieceSize, n+2);
-                vBitLength += 3*n+5;
-            }
+            int[] v = packLowBits(b, pieceSize, t, spacing, numThreads);
             gamma = new BigInteger(1, u).multiply(new BigInteger(1, v), numThreads).mag;   // gamma = u * v
         }
-        int[][] gammai = splitBits(gamma, 3*n+5);
-        int halfNumPcs = numPieces / 2;
-
-        int[][] zi = new int[gammai.length][];
-        for (int i=0; i<gammai.length; i++)
-            zi[i] = gammai[i];
-        for (int i=0; i<gammai.length-halfNumPcs; i++)
-            subModPow2(zi[i], gammai[i+halfNumPcs], n+2);
-        for (int i=0; i<gammai.length-2*halfNumPcs; i++)
-            addModPow2(zi[i], gammai[i+2*halfNumPcs], n+2);
-        for (int i=0; i<gammai.length-3*halfNumPcs; i++)
-            subModPow2(zi[i], gammai[i+3*halfNumPcs], n+2);
-
-        // zr mod Fn
-        MutableModFn[] ai = split(a, halfNumPcs, pieceSize, (1<<(n-6))+1);   // assume n>=6
-        MutableModFn[] bi = null;
-        if (!square)
-            bi = split(b, halfNumPcs, pieceSize, (1<<(n-6))+1);
-        int omega = even ? 4 : 2;
-        if (square) {
-            dft(ai, omega, numThreads);
-            squareElements(ai, numThreads);
-        }
-        else {
-            dft(ai, omega, numThreads);
-            dft(bi, omega, numThreads);
-            multiplyElements(ai, bi, numThreads);
+        // the product has no more than numCoeffs pieces, so there is no wrap-around to undo
+        int[][] zi = splitBits(gamma, spacing, numThreads);
+
+        // The product is assembled in base 2^64 because the c[i] are already in that format, and
+        // pieceSize and N are multiples of 64 bits. This avoids converting every coefficient to ints.
+        // The parallel assembly needs extra memory about the size of the product.
+        int assemblyThreads = shouldSaveSchoenhageStrassenMemory(a.length, b.length) ? 1 : numThreads;
+        final long[] z = assembleProduct(c, zi, (a.length+b.length+1) / 2, pieceSize, N, t, assemblyThreads);
+        c = null;
+        zi = null;
+
+        // convert to base 2^32; if a.length+b.length is odd, the upper half of z[0] is zero
+        final int[] zInt = new int[a.length+b.length];
+        parallelFor(0, z.length, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int i=fromIdx; i<toIdx; i++) {
+                    int zIdx = zInt.length - 1 - 2*(z.length-1-i);
+                    zInt[zIdx] = (int)z[i];
+                    if (zIdx > 0)
+                        zInt[zIdx-1] = (int)(z[i] >>> 32);
+                }
+            }
+        });
+        return zInt;
+    }
+
+    /**
+     * Calculates the pieces z<sub>i</sub> of a Schoenhage-Strassen product from z<sub>i</sub> mod
+     * 2<sup>N</sup>+1 and z<sub>i</sub> mod 2<sup>t</sup>, and adds them up.<br/>
+     * With more than one thread, each thread adds a range of pieces into a window of its own. The
+     * windows overlap by about N bits, so the lower part of each window is copied to the product
+     * and the upper part is added afterwards.
+     * @param c the pieces modulo 2<sup>N</sup>+1
+     * @param zi the pieces modulo 2<sup>t</sup>, or more precisely, numbers whose low t bits are the pieces
+     *           modulo 2<sup>t</sup>; may be shorter than {@code c}, in which case the remaining pieces are zero
+     * @param zLength the length of the product in longs
+     * @param pieceSize the piece size in ints
+     * @param N number of bits in each element of {@code c}
+     * @param t number of bits in the pieces modulo 2<sup>t</sup>
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the product in base 2<sup>64</sup>, most significant digit first
+     */
+    private static long[] assembleProduct(final MutableModFn[] c, final int[][] zi, final int zLength, final int pieceSize,
+            final int N, final int t, int numThreads) {
+        final long[] z = new long[zLength];
+        final int pieceLongs = pieceSize / 2;
+        final int numPieces = Math.min(c.length, (zLength+pieceLongs-1)/pieceLongs);   // pieces above the product are zero
+        final int numRanges = Math.max(1, Math.min(numThreads, numPieces/4));
+        if (numRanges == 1) {
+            addPieces(z, c, zi, 0, numPieces, pieceSize, N, t);
+            return z;
+        }
+
+        final long[][] upperParts = new long[numRanges][];
+        parallelFor(0, numRanges, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int r=fromIdx; r<toIdx; r++) {
+                    int fromPiece = (int)((long)numPieces*r/numRanges);
+                    int toPiece = (int)((long)numPieces*(r+1)/numRanges);
+                    // the sum of the pieces is less than the product, so nothing is lost if the window is cut off
+                    int windowLength = Math.min((toPiece-fromPiece)*pieceLongs + N/64 + 2, zLength - fromPiece*pieceLongs);
+                    long[] window = new long[windowLength];
+                    addPieces(window, c, zi, fromPiece, toPiece, pieceSize, N, t);
+
+                    int lowerLength = Math.min(windowLength, (toPiece-fromPiece)*pieceLongs);
+                    System.arraycopy(window, windowLength-lowerLength, z, zLength-fromPiece*pieceLongs-lowerLength, lowerLength);
+                    upperParts[r] = Arrays.copyOf(window, windowLength-lowerLength);
+                }
+            }
+        });
+        for (int r=0; r<numRanges; r++) {
+            int toPiece = (int)((long)numPieces*(r+1)/numRanges);
+            addShifted(z, upperParts[r], 0, upperParts[r].length, toPiece*pieceLongs);
         }
-        MutableModFn[] c = ai;
-        idft(c, omega, numThreads);
-        int[][] cInt = toIntArray(c);
+        return z;
+    }
 
-        int[] z = new int[(1<<(m-5))+1];
-        // calculate zr mod Fm from zr mod Fn and zr mod 2^(n+2), then add to z
-        // note: z is an int[] rather than a MutableBigInteger because MBI.addShifted() seems to be much slower than BI.addShifted()
-        for (int i=0; i<halfNumPcs; i++) {
-            int[] eta = i>=zi.length ? new int[(n+2+31)/32] : zi[i];
+    /**
+     * Adds the pieces {@code fromIdx} to {@code toIdx-1} of a Schoenhage-Strassen product to {@code z},
+     * shifted such that piece {@code fromIdx} is added at the least significant end of {@code z}.
+     * @see #assembleProduct(MutableModFn[], int[][], int, int, int, int, int)
+     */
+    private static void addPieces(long[] z, MutableModFn[] c, int[][] zi, int fromIdx, int toIdx, int pieceSize, int N, int t) {
+        long tMask = -1L >>> (64-t);
+        // calculate zr from zr mod 2^N+1 and zr mod 2^t, then add to z
+        for (int i=fromIdx; i<toIdx; i++) {
+            MutableModFn ci = c[i];
+            long eta = 0;
+            if (i < zi.length) {
+                int[] zii = zi[i];
+                eta = zii[zii.length-1] & LONG_MASK;
+                if (zii.length > 1)
+                    eta |= ((long)zii[zii.length-2]) << 32;
+            }
 
-            // zi = delta = (zi-c[i]) % 2^(n+2)
-            subModPow2(eta, cInt[i], n+2);
+            // delta = (zi-c[i]) % 2^t
+            long delta = (eta-ci.digits[ci.offset+ci.length-1]) & tMask;
 
-            // z += zr<<shift = [ci + delta*(2^2^n+1)] << [i*2^(n-1)]
-            int shift = i*(1<<(n-1-5));   // assume n>=6
-            addShifted(z, cInt[i], shift);
-            addShifted(z, eta, shift);
-            addShifted(z, eta, shift+(1<<(n-5)));
+            // z += zr<<shift = [ci + delta*(2^N+1)] << [i*pieceSize]
+            int shift = (i-fromIdx) * pieceSize / 2;
+            addShifted(z, ci.digits, ci.offset, ci.length, shift);
+            addShifted(z, delta, shift);
+            addShifted(z, delta, shift+N/64);
         }
+    }
 
-        MutableModFn.reduce(z);   // assume m>=5
-        return z;
+    /**
+     * Multiplies two polynomials with coefficients modulo 2<sup>N</sup>+1 whose product has degree
+     * less than {@code a.length}, using one negacyclic convolution of length K=2<sup>k</sup> and
+     * {@code numParts-1} shorter ones of lengths K/2, K/4.<br/>
+     * The convolutions give the product modulo x<sup>K</sup>+1, x<sup>K/2</sup>+1, and so on.
+     * These polynomials are pairwise coprime, and their product has degree {@code a.length}, so the
+     * product of {@code a} and {@code b} can be recovered with the Chinese remainder theorem. This is
+     * simple because x<sup>K/2<sup>j</sup></sup>+1 is congruent to 2 modulo x<sup>K/2<sup>i</sup></sup>+1
+     * for all j&lt;i, so the combination only needs shifts, additions and subtractions.
+     * The elements of {@code a} and {@code b} are overwritten.
+     * @param a the coefficients of the first factor; length must be K, 3K/2, or 7K/4 depending on {@code numParts}
+     * @param b the coefficients of the second factor, or {@code null} to square {@code a}
+     * @param k base-2 logarithm of the longest transform
+     * @param numParts the number of convolutions
+     * @param N number of bits in each coefficient; must be a multiple of 64 and of 2<sup>k</sup>
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the coefficients of the product
+     * @see MutableModFn#multiply(MutableModFn)
+     */
+    static MutableModFn[] multiplyTruncated(MutableModFn[] a, MutableModFn[] b, int k, int numParts, int N, int numThreads) {
+        int numCoeffs = a.length;
+        MutableModFn[][] aParts = dftTruncated(a, k, numParts, N, numThreads);
+        multiplyParts(aParts, b==null ? null : dftTruncated(b, k, numParts, N, numThreads), numThreads);
+        return idftTruncated(aParts, k, N, numCoeffs, numThreads);
     }
 
     /**
-     * Estimates whether SS will be more efficient than the other methods when multiplying two numbers
-     * of a given length in ints.
-     * @param length the number of ints in each of the two factors
-     * @return <code>true</code> if SS will be more efficient, <code>false</code> if Toom-Cook will be more efficient
+     * Reduces a polynomial modulo x<sup>K</sup>+1, x<sup>K/2</sup>+1, etc. and transforms each of the
+     * reduced polynomials. This is the part of {@link #multiplyTruncated(MutableModFn[], MutableModFn[], int, int, int, int)}
+     * that only depends on one factor. The elements of {@code a} are overwritten.
+     * @param a the coefficients; length must be K, 3K/2, or 7K/4 depending on {@code numParts}
+     * @param k base-2 logarithm of the longest transform
+     * @param numParts the number of convolutions
+     * @param N number of bits in each coefficient; must be a multiple of 64 and of 2<sup>k</sup>
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the transforms, longest first
      */
-    private static boolean shouldUseSchoenhageStrassen(int length) {
-        if (IS64BIT) {
-            // The following values were determined experimentally on a 64-bit JVM.
-            // SS is slower than Toom-Cook below ~2,000 ints (~19,300 decimal digits)
-            // and faster above ~8,700 ints (~84,000 decimal digits).
-            // Between those values, it changes several times.
-            if (length <= 2000)
-                return false;
-            if (length <= 2048)   // 2^11
-                return true;
-            if (length <= 3120)
-                return false;
-            if (length <= 4096)   // 2^12
-                return true;
-            if (length <= 5232)
-                return false;
-            if (length <= 8192)   // 2^13
-                return true;
-            if (length <= 8720)
-                return false;
-            return true;
-        } else {
-            // The following values were determined experimentally on a 32-bit JVM.
-            // SS is slower than Toom-Cook below ~3,500 ints (~33,800 decimal digits)
-            // and faster above ~9,600 ints (~92,900 decimal digits).
-            // Between those values, it changes several times.
-            if (length <= 3504)
-                return false;
-            if (length <= 4096)   // 2^12
-                return true;
-            if (length <= 5968)
-                return false;
-            if (length <= 8192)   // 2^13
-                return true;
-            if (length <= 9648)
-                return false;
-            return true;
+    private static MutableModFn[][] dftTruncated(MutableModFn[] a, int k, int numParts, int N, int numThreads) {
+        int len = 1 << k;
+
+        // do the shorter convolutions first because reducing modulo x^K+1 is done in place
+        MutableModFn[][] parts = new MutableModFn[numParts][];
+        for (int i=numParts-1; i>=0; i--) {
+            MutableModFn[] ap = reduceNegacyclic(a, len>>i, i>0, numThreads);
+            dft(ap, (N/len) << i, numThreads);
+            parts[i] = ap;
+        }
+        return parts;
+    }
+
+    /**
+     * Multiplies two polynomials given as transforms returned by
+     * {@link #dftTruncated(MutableModFn[], int, int, int, int)} pointwise.
+     * The elements of {@code aParts} are overwritten; {@code bParts} is not modified.
+     * @param aParts the transforms of the first factor
+     * @param bParts the transforms of the second factor, or {@code null} to square the first factor
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     */
+    private static void multiplyParts(MutableModFn[][] aParts, MutableModFn[][] bParts, int numThreads) {
+        for (int i=0; i<aParts.length; i++)
+            if (bParts == null)
+                squareElements(aParts[i], numThreads);
+            else
+                multiplyElements(aParts[i], bParts[i], numThreads);
+    }
+
+    /**
+     * Transforms the pointwise products computed by {@link #multiplyParts(MutableModFn[][], MutableModFn[][], int)}
+     * back and combines them into the coefficients of the product. The elements of {@code aParts} are overwritten.
+     * @param aParts the pointwise products, longest transform first
+     * @param k base-2 logarithm of the longest transform
+     * @param N number of bits in each coefficient
+     * @param numCoeffs the number of coefficients of the product
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the coefficients of the product
+     */
+    private static MutableModFn[] idftTruncated(MutableModFn[][] aParts, int k, int N, int numCoeffs, int numThreads) {
+        int len = 1 << k;
+        int numParts = aParts.length;
+        for (int i=0; i<numParts; i++)
+            idft(aParts[i], (N/len) << i, numThreads);
+
+        // combine the results; c starts out as the product modulo x^K+1 and is zero-padded to numCoeffs elements
+        final MutableModFn[] c = Arrays.copyOf(aParts[0], numCoeffs);
+        final int numLongs = aParts[0][0].length;
+        if (numCoeffs > len)
+            System.arraycopy(MutableModFn.newVector(numCoeffs-len, numLongs), 0, c, len, numCoeffs-len);
+        int degree = len;   // degree of the product of the moduli used so far
+        for (int i=1; i<numParts; i++) {
+            final int partIdx = i;
+            final int[] offsets = new int[1<<i];   // the exponents of (x^len+1) * (x^(len/2)+1) * ... * (x^(2*partLen)+1)
+            for (int mask=0; mask<1<<i; mask++)
+                for (int m=0; m<i; m++)
+                    if ((mask & (1<<m)) != 0)
+                        offsets[mask] += len >> m;
+
+            final MutableModFn[] q = aParts[i];
+            final MutableModFn[] cReduced = reduceNegacyclic(Arrays.copyOf(c, degree), len>>i, true, numThreads);
+            parallelFor(0, len>>i, numThreads, new RangeTask() {
+                @Override
+                public void run(int fromIdx, int toIdx) {
+                    MutableModFn temp = new MutableModFn(numLongs);
+                    for (int j=fromIdx; j<toIdx; j++) {
+                        // q = (aParts[i] - c) / 2^i mod x^partLen+1
+                        q[j].subtract(cReduced[j]);
+                        q[j].shiftRight(partIdx, temp);
+                        temp.copyTo(q[j]);
+
+                        // c += q * (x^len+1) * (x^(len/2)+1) * ... * (x^(2*partLen)+1)
+                        for (int offset: offsets)
+                            c[offset+j].add(q[j]);
+                    }
+                }
+            });
+            degree += len >> i;
         }
+
+        return c;
+    }
+
+    /**
+     * Reduces a polynomial modulo x<sup>len</sup>+1.
+     * @param a the coefficients, lowest first
+     * @param len a power of two
+     * @param copy whether to leave {@code a} unmodified; if {@code false}, the first {@code len}
+     *             elements of {@code a} are reused
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the {@code len} coefficients of the reduced polynomial
+     */
+    private static MutableModFn[] reduceNegacyclic(final MutableModFn[] a, final int len, final boolean copy, int numThreads) {
+        final MutableModFn[] r = copy ? MutableModFn.newVector(len, a[0].length) : Arrays.copyOf(a, len);
+        parallelFor(0, len, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int j=fromIdx; j<toIdx; j++) {
+                    if (copy)
+                        a[j].copyTo(r[j]);
+                    // x^len = -1, so coefficients of x^(j+q*len) are added with a sign of (-1)^q
+                    for (int i=j+len; i<a.length; i+=len)
+                        if ((i/len) % 2 == 0)
+                            r[j].add(a[i]);
+                        else
+                            r[j].subtract(a[i]);
+                }
+            }
+        });
+        return r;
+    }
+
+    /**
+     * Chooses the transform length and the number of coefficients for Schoenhage-Strassen
+     * multiplication.<br/>
+     * A longer transform means shorter pieces and therefore cheaper pointwise multiplications, but
+     * the transforms themselves become more expensive, and N, which must be a multiple of the
+     * transform length, may have to be rounded up further. This method picks the combination with
+     * the lowest estimated cost.
+     * @param alen length of the first factor in ints
+     * @param blen length of the second factor in ints
+     * @return an array containing {@code k}, the base-2 logarithm of the transform length, and the number
+     *         of transforms
+     */
+    private static int[] getSchoenhageStrassenParams(int alen, int blen) {
+        return getSchoenhageStrassenParams(alen, blen, 3);
+    }
+
+    /**
+     * Like {@link #getSchoenhageStrassenParams(int, int)} but with a limit on the number of transforms.
+     * @param alen length of the first factor in ints
+     * @param blen length of the second factor in ints
+     * @param maxParts the maximum number of transforms; 1, 2, or 3
+     * @return an array containing {@code k} and the number of transforms
+     */
+    private static int[] getSchoenhageStrassenParams(int alen, int blen, int maxParts) {
+        int productBits = 32 - Integer.numberOfLeadingZeros(alen+blen-1);   // log2 of the product length, rounded up
+        int kCenter = (productBits+6) / 2;   // roughly balances the number and the length of the pieces
+        int bestK = 0;
+        int bestParts = 0;
+        double bestCost = Double.MAX_VALUE;
+        for (int k=Math.max(4, kCenter-4); k<=kCenter+2; k++)
+            for (int numParts=1; numParts<=maxParts; numParts++) {
+                double cost = getSchoenhageStrassenCost(alen, blen, k, numParts, 3);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestK = k;
+                    bestParts = numParts;
+                }
+            }
+        return new int[] {bestK, bestParts};
+    }
+
+    /**
+     * Estimates the cost of a Schoenhage-Strassen multiplication with given parameters in arbitrary units.
+     * @param alen length of the first factor in ints
+     * @param blen length of the second factor in ints
+     * @param k base-2 logarithm of the longest transform
+     * @param numParts the number of transforms
+     * @param numTransforms the number of forward and inverse transforms to count; 3 for a full multiplication
+     * @return the estimated cost
+     */
+    private static double getSchoenhageStrassenCost(int alen, int blen, int k, int numParts, int numTransforms) {
+        int numCoeffs = getSchoenhageStrassenNumCoeffs(k, numParts);
+        int pieceSize = getSchoenhageStrassenPieceSize(alen, blen, numCoeffs);
+        int coeffInts = getSchoenhageStrassenModulusBits(k, pieceSize) / 32;
+
+        // pointwise multiplications, plus the transforms with k levels of butterflies each
+        double cost = coeffInts<KARATSUBA_THRESHOLD ? (double)coeffInts*coeffInts :
+                KARATSUBA_THRESHOLD*KARATSUBA_THRESHOLD*Math.pow((double)coeffInts/KARATSUBA_THRESHOLD, 1.585);
+        cost += 2.0 * numTransforms * k * coeffInts;
+        return cost * numCoeffs;
+    }
+
+    /**
+     * Chooses the chunk length for {@link #multiplySchoenhageStrassenUnbalanced(int[], int[], int, int)}.<br/>
+     * Each chunk costs two transforms and the pointwise products, and the short factor is transformed
+     * once. Short chunks keep the transforms short but make the short factor a larger part of each
+     * product, so chunk lengths from {@code blen} up to {@code alen} are compared using the same cost
+     * estimate as {@link #getSchoenhageStrassenParams(int, int)}.
+     * @param alen length of the longer factor in ints
+     * @param blen length of the shorter factor in ints
+     * @return the chunk length in ints, or {@code alen} if the long factor should not be cut up
+     */
+    private static int getSchoenhageStrassenChunkLength(int alen, int blen) {
+        int[] params = getSchoenhageStrassenParams(alen, blen);
+        // splitting the factors and assembling the product add a cost that is linear in the product
+        // length, which the chunks pay for repeatedly; the weight was determined experimentally
+        double bestCost = getSchoenhageStrassenCost(alen, blen, params[0], params[1], 3) + 200.0*(alen+blen);
+        int bestLength = alen;
+        for (int chunkLength=blen; chunkLength<=alen/2; chunkLength+=(chunkLength+1)/2) {
+            int numChunks = (alen+chunkLength-1) / chunkLength;
+            int len = (alen+numChunks-1) / numChunks;
+            params = getSchoenhageStrassenParams(len, blen);
+            int k = params[0];
+            int numParts = params[1];
+            // the first chunk pays for the transform of the short factor
+            double cost = getSchoenhageStrassenCost(len, blen, k, numParts, 3) +
+                    (numChunks-1) * getSchoenhageStrassenCost(len, blen, k, numParts, 2) + 200.0*numChunks*(len+blen);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestLength = len;
+            }
+        }
+        return bestLength;
+    }
+
+    /** Returns the number of coefficients for a Schoenhage-Strassen transform of length 2^k split into {@code numParts}. */
+    private static int getSchoenhageStrassenNumCoeffs(int k, int numParts) {
+        int len = 1 << k;
+        return 2*len - (len>>(numParts-1));
+    }
+
+    /**
+     * Returns the smallest even number of ints that can be used as the piece size in Schoenhage-Strassen
+     * such that the product has no more than {@code numCoeffs} pieces. It must be even because pieces are
+     * stored in longs.
+     */
+    private static int getSchoenhageStrassenPieceSize(int alen, int blen, int numCoeffs) {
+        int pieceSize = Math.max(2, (alen+blen) / numCoeffs & -2);
+        while (alen/pieceSize + blen/pieceSize + 1 > numCoeffs)
+            pieceSize += 2;
+        return pieceSize;
+    }
+
+    /**
+     * Returns N, the smallest number that is at least twice the piece size in bits and a multiple
+     * of 64 and of the transform length 2<sup>k</sup>. Coefficients are computed modulo 2<sup>N</sup>+1.
+     */
+    private static int getSchoenhageStrassenModulusBits(int k, int pieceSize) {
+        int unit = Math.max(64, 1<<k);
+        return (64*pieceSize+unit-1) / unit * unit;
+    }
+
+    /**
+     * Estimates whether the floating-point FFT will be more efficient than the other methods when
+     * multiplying two numbers of given lengths in ints, and can be guaranteed to give an exact result.
+     * @param xlen the number of ints in the first factor
+     * @param ylen the number of ints in the second factor
+     * @param square whether the two factors are the same number
+     * @return <code>true</code> if the FFT should be used, <code>false</code> otherwise
+     */
+    private static boolean shouldUseFft(int xlen, int ylen, boolean square) {
+        int threshold = square ? FFT_SQUARE_THRESHOLD : FFT_THRESHOLD;
+        return Math.min(xlen, ylen)>threshold && Math.max(xlen, ylen)<=FFT_UPPER_THRESHOLD &&
+                FftMultiplier.getDigitBits(xlen, ylen, square)>0;
+    }
+
+    /**
+     * Estimates whether the three-prime NTT will be more efficient than the other methods when
+     * multiplying two numbers of given lengths in ints.<br/>
+     * The NTT pads the number of 64-bit coefficients to a power of two, so its cost roughly doubles at
+     * every power of two while SS adapts its transform length more finely. The NTT is only faster than
+     * SS when at least 7/8 of the transform length is used: on a 64-bit JVM it won by 7-32% at 32,000,
+     * 64,000, 120,000, 128,000, and 250,000 ints (92-98% used) and lost by 4-20% at 40,000-56,000,
+     * 80,000-100,000, and 160,000 ints (61-76% used). Below {@link #NTT_THRESHOLD} ints the FFT or SS
+     * is used instead.
+     * @param xlen the number of ints in the first factor
+     * @param ylen the number of ints in the second factor
+     * @return <code>true</code> if the NTT will be more efficient, <code>false</code> otherwise
+     */
+    private static boolean shouldUseNtt(int xlen, int ylen) {
+        int minLength = Math.min(xlen, ylen);
+        int maxLength = Math.max(xlen, ylen);
+        if (xlen+ylen > NttMultiplier.maxLength())
+            return false;
+        boolean inRange;
+        if (IS64BIT)
+            // determined experimentally on a 64-bit JVM
+            inRange = minLength>NTT_THRESHOLD && maxLength<=NTT_UPPER_THRESHOLD;
+        else
+            // 64-bit arithmetic is slower on a 32-bit JVM; scaled like the SS threshold
+            inRange = minLength>NTT_THRESHOLD*5/3 && maxLength<=NTT_UPPER_THRESHOLD/4;
+        return inRange && NttMultiplier.getNumCoeffs(xlen, ylen) > 7*(1<<NttMultiplier.getLogLength(xlen, ylen))/8;
+    }
+
+    /**
+     * Estimates whether the three-prime NTT will be more efficient than Schoenhage-Strassen when
+     * multiplying by a prepared number. Reusing the transform of the prepared number saves a third
+     * of an NTT multiplication but much less of an SS multiplication, whose cost is dominated by the
+     * pointwise products, so the NTT is used for somewhat longer numbers than usual.
+     * @param xlen the number of ints in the first factor
+     * @param ylen the number of ints in the prepared factor
+     * @return <code>true</code> if the NTT should be used, <code>false</code> otherwise
+     * @see #multiply(PreparedMultiplier, int)
+     */
+    private static boolean shouldUsePreparedNtt(int xlen, int ylen) {
+        return Math.min(xlen, ylen)>NTT_THRESHOLD && Math.max(xlen, ylen)<=PREPARED_NTT_UPPER_THRESHOLD &&
+                xlen+ylen<=NttMultiplier.maxLength();
+    }
+
+    /**
+     * Estimates whether SS will be more efficient than the other methods when multiplying two numbers
+     * of a given length in ints.
+     * @param length the number of ints in each of the two factors
+     * @return <code>true</code> if SS will be more efficient, <code>false</code> if Toom-Cook will be more efficient
+     */
+    private static boolean shouldUseSchoenhageStrassen(int length) {
+        // The cost of SS grows smoothly with the input length, so there is a single crossover point.
+        if (IS64BIT)
+            // determined experimentally on a 64-bit JVM; SS and Toom-Cook are about equally fast
+            // between ~2,000 and ~3,800 ints (~19,300 and ~36,600 decimal digits)
+            return length > 3000;
+        else
+            // scaled from the 64-bit value by the ratio of the old 32-bit and 64-bit thresholds
+            return length > 5000;
     }
 
     /**
@@ -2142,18 +4304,14 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * The modification is that the first step is omitted because only the upper half of the result is needed.<br/>
      * <code>A</code> is assumed to be the lower half of the full array and the upper half is assumed to be all zeros.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      * @param numThreads number of threads to use; 1 means run on the current thread
      */
-    private static void dft(MutableModFn[] A, int omega, int numThreads) {
+    private static void dft(MutableModFn[] A, int omegaLog, int numThreads) {
         if (numThreads > 1)
-            try {
-                dftParallel(A, omega, numThreads);
-            } catch (InterruptedException | ExecutionException e) {
-                throw new ArithmeticException(e.getLocalizedMessage());
-            }
+            dftParallel(A, omegaLog, numThreads);
         else
-            dftSequential(A, omega);
+            dftSequential(A, omegaLog);
     }
 
     /**
@@ -2161,27 +4319,35 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * This implementation uses <a href="http://www.nas.nasa.gov/assets/pdf/techreports/1989/rnr-89-004.pdf">
      * Bailey's 4-step algorithm</a>.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      */
-    private static void dftSequential(MutableModFn[] A, int omega) {
+    private static void dftSequential(MutableModFn[] A, int omegaLog) {
         // arrange the elements of A in a matrix roughly sqrt(A.length) by sqrt(A.length) in size
         int rows = 1 << ((31-Integer.numberOfLeadingZeros(A.length))/2);   // number of rows
         int cols = A.length / rows;   // number of columns
+        MutableModFn temp = new MutableModFn(A[0].length);
+        int[] colExps = getDftExponents(rows, rows, cols, omegaLog);
+        int[] rowExps = getDftExponents(cols, 0, rows, omegaLog);
 
-        // step 1: perform an DFT on each column, that is, on the vector
-        // A[colIdx], A[colIdx+cols], A[colIdx+2*cols], ..., A[colIdx+(rows-1)*cols].
-        for (int i=0; i<cols; i++)
-            dftDirect(A, omega, rows, rows, cols, i, cols);
+        if (isDftBlocked(A))
+            // steps 1 and 2 on contiguous copies of the columns
+            dftColumnsBlocked(A, omegaLog, colExps, rows, cols, 0, cols, temp);
+        else {
+            // step 1: perform an DFT on each column, that is, on the vector
+            // A[colIdx], A[colIdx+cols], A[colIdx+2*cols], ..., A[colIdx+(rows-1)*cols].
+            for (int i=0; i<cols; i++)
+                dftDirect(A, colExps, rows, i, cols, temp);
 
-        // step 2: multiply by powers of omega
-        applyDftWeights(A, omega, rows, cols);
+            // step 2: multiply by powers of omega
+            applyDftWeights(A, omegaLog, rows, cols, 1);
+        }
 
         // step 3 is built into step 1 by making the stride length a multiple of the row length
 
         // step 4: perform an DFT on each row, that is, on the vector
         // A[rowIdx*cols], A[rowIdx*cols+1], ..., A[rowIdx*cols+cols-1].
         for (int i=0; i<rows; i++)
-            dftDirect(A, omega, cols, 0, rows, i*cols, 1);
+            dftDirect(A, rowExps, cols, i*cols, 1, temp);
     }
 
     /**
@@ -2189,154 +4355,265 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * This implementation uses <a href="http://www.nas.nasa.gov/assets/pdf/techreports/1989/rnr-89-004.pdf">
      * Bailey's 4-step algorithm</a>.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      * @param numThreads number of threads to use; 1 means run on the current thread
      */
-    private static void dftParallel(final MutableModFn[] A, final int omega, int numThreads) throws InterruptedException, ExecutionException {
+    private static void dftParallel(final MutableModFn[] A, final int omegaLog, int numThreads) {
         // arrange the elements of A in a matrix roughly sqrt(A.length) by sqrt(A.length) in size
         final int rows = 1 << ((31-Integer.numberOfLeadingZeros(A.length))/2);   // number of rows
         final int cols = A.length / rows;   // number of columns
-
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final int[] colExps = getDftExponents(rows, rows, cols, omegaLog);
+        final int[] rowExps = getDftExponents(cols, 0, rows, omegaLog);
 
         // step 1: perform an DFT on each column
-        Collection<Future<?>> pending = new ArrayList<>();
-        for (int i=0; i<cols; i++) {
-            final int colIdx = i;
-            Future<?> future = executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    dftDirect(A, omega, rows, rows, cols, colIdx, cols);
-                }
-            });
-            pending.add(future);
-        }
-        for (Future<?> future: pending)
-            future.get();
+        final boolean blocked = isDftBlocked(A);
+        parallelFor(0, cols, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                MutableModFn temp = new MutableModFn(A[0].length);
+                if (blocked)
+                    dftColumnsBlocked(A, omegaLog, colExps, rows, cols, fromIdx, toIdx, temp);   // includes step 2
+                else
+                    for (int colIdx=fromIdx; colIdx<toIdx; colIdx++)
+                        dftDirect(A, colExps, rows, colIdx, cols, temp);
+            }
+        });
 
         // step 2: multiply by powers of omega
-        applyDftWeights(A, omega, rows, cols);
+        if (!blocked)
+            applyDftWeights(A, omegaLog, rows, cols, numThreads);
 
         // step 3 is built into step 1 by making the stride length a multiple of the row length
 
         // step 4: perform an DFT on each row
-        pending = new ArrayList<>();
-        for (int i=0; i<rows; i++) {
-            final int rowIdx = i;
-            Future<?> future = executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    dftDirect(A, omega, cols, 0, rows, rowIdx*cols, 1);
+        parallelFor(0, rows, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                MutableModFn temp = new MutableModFn(A[0].length);
+                for (int rowIdx=fromIdx; rowIdx<toIdx; rowIdx++)
+                    dftDirect(A, rowExps, cols, rowIdx*cols, 1, temp);
+            }
+        });
+    }
+
+    /**
+     * Returns whether a DFT or IDFT of {@code A} should transform the columns in contiguous blocks.
+     * @see #DFT_BLOCK_BYTES
+     */
+    private static boolean isDftBlocked(MutableModFn[] A) {
+        int rows = 1 << ((31-Integer.numberOfLeadingZeros(A.length))/2);
+        long colBytes = 8L * rows * A[0].length;
+        // only worthwhile if the vector doesn't fit into the block but a column does
+        return 8L*A.length*A[0].length>DFT_BLOCK_BYTES && colBytes<=DFT_BLOCK_BYTES;
+    }
+
+    /**
+     * Performs steps 1 and 2 of Bailey's algorithm on a range of columns, i.e. transforms the columns
+     * and multiplies them by powers of omega.<br/>
+     * This is the six-step variant: Blocks of columns are copied into a contiguous array so that the
+     * column transforms don't have to access elements {@code cols} apart. The twiddle factors are
+     * applied when the columns are copied back.
+     * @param A the vector to transform
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
+     * @param exps the exponents of omega for the column transforms
+     * @param rows number of matrix rows
+     * @param cols number of matrix columns
+     * @param fromCol the first column to transform
+     * @param toCol the index after the last column to transform
+     * @param temp a temporary value of the same length as the elements of {@code A}
+     */
+    private static void dftColumnsBlocked(MutableModFn[] A, int omegaLog, int[] exps, int rows, int cols, int fromCol, int toCol, MutableModFn temp) {
+        int v = 31 - Integer.numberOfLeadingZeros(rows) + 1;
+        int blockCols = getDftBlockColumns(A, rows, toCol-fromCol);
+        MutableModFn[] block = MutableModFn.newVector(blockCols*rows, A[0].length);   // column-major copy of blockCols columns
+        for (int c0=fromCol; c0<toCol; c0+=blockCols) {
+            int numCols = Math.min(blockCols, toCol-c0);
+            for (int i=0; i<rows; i++)
+                for (int j=0; j<numCols; j++)
+                    A[i*cols+c0+j].copyTo(block[j*rows+i]);
+            for (int j=0; j<numCols; j++)
+                dftDirect(block, exps, rows, j*rows, 1, temp);
+            for (int i=0; i<rows; i++)
+                for (int j=0; j<numCols; j++) {
+                    int shiftAmt = getBaileyShiftAmount(i, c0+j, rows, v) * omegaLog;
+                    block[j*rows+i].shiftLeft(shiftAmt, A[i*cols+c0+j]);
                 }
-            });
-            pending.add(future);
         }
-        for (Future<?> future: pending)
-            future.get();
+    }
 
-        executor.shutdown();
+    /**
+     * Returns the number of columns {@link #dftColumnsBlocked} and {@link #idftColumnsBlocked} copy at
+     * a time.
+     */
+    private static int getDftBlockColumns(MutableModFn[] A, int rows, int maxCols) {
+        long colBytes = 8L * rows * A[0].length;
+        return (int)Math.max(1, Math.min(maxCols, DFT_BLOCK_BYTES/colBytes));
     }
 
     /**
      * Performs a DFT on {@code A}.
-     * This implementation uses the radix-4 technique which combines two levels of butterflies.
+     * This implementation uses the radix-8 technique which combines three levels of butterflies,
+     * so each element is read and written once for every three levels. Any remaining one or two
+     * levels are done as a radix-2 or radix-4 pass.<br/>
+     * Reduction modulo F<sub>n</sub> is deferred until an element is shifted or the transform is finished.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
-     * @param expOffset value to add to the array index when computing the exponent
-     * @param expScale factor by which to multiply the exponent
+     * @param exps the exponents of omega as returned by {@link #getDftExponents(int, int, int, int)}
      * @param len number of elements to transform
      * @param idxOffset value to add to the array index when accessing elements of {@code A}
      * @param stride stride length
+     * @param d a temporary value of the same length as the elements of {@code A}
      */
-    private static void dftDirect(MutableModFn[] A, int omega, int len, int expOffset, int expScale, int idxOffset, int stride) {
+    private static void dftDirect(MutableModFn[] A, int[] exps, int len, int idxOffset, int stride, MutableModFn d) {
         int n = 31 - Integer.numberOfLeadingZeros(2*len);   // multiply by 2 because we're doing a half DFT and we need the n that corresponds to the full DFT length
         int v = 1;   // v starts at 1 rather than 0 for the same reason
-        MutableModFn d = new MutableModFn(A[0].digits.length);
 
         int slen = len / 2;
-        while (slen > 1) {   // slen = #consecutive coefficients for which the sign (add/sub) and x are constant
+        while (slen >= 4) {   // slen = #consecutive coefficients for which the sign (add/sub) and x are constant
+            int q = slen / 4;
             for (int j=0; j<len; j+=2*slen) {
-                int x1 = getDftExponent(n, v+1, j+expOffset, omega) * expScale;        // for level v+2
-                int x2 = getDftExponent(n, v, j+expOffset, omega) * expScale;          // for level v+1
-                int x3 = getDftExponent(n, v+1, j+slen+expOffset, omega) * expScale;   // for level v+2
-
-                // stride length = stride*slen elements
+                int x1 = getDftExponent(exps, n, v, j);                  // for level v+1
+                int x2 = getDftExponent(exps, n, v+1, j);                // for level v+2
+                int x3 = getDftExponent(exps, n, v+1, j+slen);           // for level v+2
+                int x4 = getDftExponent(exps, n, v+2, j);                // for level v+3
+                int x5 = getDftExponent(exps, n, v+2, j+slen/2);         // for level v+3
+                int x6 = getDftExponent(exps, n, v+2, j+slen);           // for level v+3
+                int x7 = getDftExponent(exps, n, v+2, j+slen/2*3);       // for level v+3
+
+                // stride length = stride*q elements
                 int idx0 = stride*j + idxOffset;
-                int idx1 = stride*j + stride*slen/2 + idxOffset;
-                int idx2 = idx0 + stride*slen;
-                int idx3 = idx1 + stride*slen;
+                int qs = stride * q;
+                for (int k=q-1; k>=0; k--) {
+                    int idx1 = idx0 + qs;
+                    int idx2 = idx1 + qs;
+                    int idx3 = idx2 + qs;
+                    int idx4 = idx3 + qs;
+                    int idx5 = idx4 + qs;
+                    int idx6 = idx5 + qs;
+                    int idx7 = idx6 + qs;
 
-                for (int k=slen-1; k>=0; k-=2) {
                     // do level v+1
-                    A[idx2].shiftLeft(x2, d);
-                    A[idx0].copyTo(A[idx2]);
-                    A[idx0].add(d);
-                    A[idx2].subtract(d);
-
-                    A[idx3].shiftLeft(x2, d);
-                    A[idx1].copyTo(A[idx3]);
-                    A[idx1].add(d);
-                    A[idx3].subtract(d);
+                    dftButterfly(A[idx0], A[idx4], x1, d);
+                    dftButterfly(A[idx1], A[idx5], x1, d);
+                    dftButterfly(A[idx2], A[idx6], x1, d);
+                    dftButterfly(A[idx3], A[idx7], x1, d);
 
                     // do level v+2
-                    A[idx1].shiftLeft(x1, d);
-                    A[idx0].copyTo(A[idx1]);
-                    A[idx0].add(d);
-                    A[idx1].subtract(d);
+                    dftButterfly(A[idx0], A[idx2], x2, d);
+                    dftButterfly(A[idx1], A[idx3], x2, d);
+                    dftButterfly(A[idx4], A[idx6], x3, d);
+                    dftButterfly(A[idx5], A[idx7], x3, d);
 
-                    A[idx3].shiftLeft(x3, d);
-                    A[idx2].copyTo(A[idx3]);
-                    A[idx2].add(d);
-                    A[idx3].subtract(d);
+                    // do level v+3
+                    dftButterfly(A[idx0], A[idx1], x4, d);
+                    dftButterfly(A[idx2], A[idx3], x5, d);
+                    dftButterfly(A[idx4], A[idx5], x6, d);
+                    dftButterfly(A[idx6], A[idx7], x7, d);
 
                     idx0 += stride;
-                    idx1 += stride;
-                    idx2 += stride;
-                    idx3 += stride;
                 }
             }
 
-            v += 2;
-            slen /= 4;
+            v += 3;
+            slen /= 8;
         }
 
-        // if there is an odd number of levels, do the remaining one now
-        if (slen > 0)
-            for (int j=0; j<len; j+=2*slen) {
-                int x = getDftExponent(n, v, j+expOffset, omega) * expScale;
-                int idx = stride*j + idxOffset;
-                int idx2 = idx + stride*slen;   // stride length = stride*slen elements
+        // if the number of levels is not a multiple of three, do the remaining two levels or one level now
+        if (slen == 2)
+            for (int j=0; j<len; j+=4) {
+                int x1 = getDftExponent(exps, n, v, j);       // for level v+1
+                int x2 = getDftExponent(exps, n, v+1, j);     // for level v+2
+                int x3 = getDftExponent(exps, n, v+1, j+2);   // for level v+2
 
-                for (int k=slen-1; k>=0; k--) {
-                    A[idx2].shiftLeft(x, d);
-                    A[idx].copyTo(A[idx2]);
-                    A[idx].add(d);
-                    A[idx2].subtract(d);
-                    idx += stride;
-                    idx2 += stride;
-                }
+                int idx0 = stride*j + idxOffset;
+                int idx1 = idx0 + stride;
+                int idx2 = idx1 + stride;
+                int idx3 = idx2 + stride;
+
+                // do level v+1
+                dftButterfly(A[idx0], A[idx2], x1, d);
+                dftButterfly(A[idx1], A[idx3], x1, d);
+
+                // do level v+2
+                dftButterfly(A[idx0], A[idx1], x2, d);
+                dftButterfly(A[idx2], A[idx3], x3, d);
+            }
+        else if (slen == 1)
+            for (int j=0; j<len; j+=2) {
+                int x = getDftExponent(exps, n, v, j);
+                int idx = stride*j + idxOffset;
+                dftButterfly(A[idx], A[idx+stride], x, d);
             }
+
+        // the butterflies leave the elements partially reduced
+        for (int j=0; j<len; j++)
+            A[stride*j+idxOffset].reduceSigned();
+    }
+
+    /**
+     * Performs a DFT butterfly on two elements, i.e. sets <code>a</code> to <code>a+b*2<sup>x</sup></code>
+     * and <code>b</code> to <code>a-b*2<sup>x</sup></code>.<br/>
+     * The inputs and outputs are not fully reduced modulo F<sub>n</sub> (see
+     * {@link MutableModFn#addSubtractLazy(MutableModFn, MutableModFn)}); only {@code b} is reduced
+     * because the shift requires it.
+     * {@code d} is a temporary value of the same length as {@code a} and {@code b}.
+     */
+    private static void dftButterfly(MutableModFn a, MutableModFn b, int x, MutableModFn d) {
+        b.reduceSigned();
+        b.shiftLeft(x, d);
+        a.addSubtractLazy(d, b);
+    }
+
+    /**
+     * Computes the exponents of omega used by {@code dftDirect} and {@code idftDirect} for one
+     * transform length, so they don't have to be recomputed for every row and column.<br/>
+     * The exponent for butterfly depth <code>v</code> and array index <code>j</code> is stored at
+     * index <code>2<sup>v-1</sup> + j/2<sup>n-v</sup></code> where <code>n</code> is the log of the
+     * full DFT length; see {@link #getDftExponent(int[], int, int, int)}.
+     * @param len number of elements to transform
+     * @param expOffset value to add to the array index when computing the exponent
+     * @param expScale factor by which to multiply the exponent
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
+     * @return an array of length <code>len</code>
+     */
+    private static int[] getDftExponents(int len, int expOffset, int expScale, int omegaLog) {
+        int n = 31 - Integer.numberOfLeadingZeros(2*len);
+        int[] exps = new int[len];
+        for (int v=1; v<n; v++)
+            for (int j=0; j<len; j+=1<<(n-v))
+                exps[(1<<(v-1)) + (j>>(n-v))] = getDftExponent(n, v, j+expOffset, omegaLog) * expScale;
+        return exps;
+    }
+
+    /**
+     * Looks up the power to which to raise omega in a DFT in a table returned by
+     * {@link #getDftExponents(int, int, int, int)}.
+     * @param exps the exponent table
+     * @param n the log of the DFT length
+     * @param v butterfly depth
+     * @param j index of the array element to be computed, relative to the start of the transform
+     */
+    private static int getDftExponent(int[] exps, int n, int v, int j) {
+        return exps[(1<<(v-1)) + (j>>(n-v))];
     }
 
     /**
      * Returns the power to which to raise omega in a DFT.<br/>
-     * When <code>omega</code>=4, this method doubles the exponent so
+     * This method multiplies the exponent by <code>omegaLog</code> so
      * <code>omega</code> can be assumed always to be 2 in the
      * {@code dftDirect} and {@code idftDirect} methods.
      * @param n the log of the DFT length
      * @param v butterfly depth
      * @param idx index of the array element to be computed
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      * @return
      */
-    private static int getDftExponent(int n, int v, int idx, int omega) {
+    private static int getDftExponent(int n, int v, int idx, int omegaLog) {
         // x = 2^(n-1-v) * s, where s is the v (out of n) high bits of idx in reverse order
         int x = Integer.reverse(idx >>> (n-v)) >>> (32-v);
         x <<= n - v - 1;
 
-        // if omega=4, double the shift amount
-        if (omega == 4)
-            x *= 2;
+        // scale the shift amount to omega=2^omegaLog
+        x *= omegaLog;
 
         return x;
     }
@@ -2344,23 +4621,28 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
     /**
      * Multiplies vector elements by powers of omega (aka twiddle factors). Used by Bailey's algorithm.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      * @param rows number of matrix rows
      * @param cols number of matrix columns
+     * @param numThreads number of threads to use; 1 means run on the current thread
      */
-    private static void applyDftWeights(MutableModFn[] A, int omega, int rows, int cols) {
-        int v = 31 - Integer.numberOfLeadingZeros(rows) + 1;
-
-        for (int i=0; i<rows; i++)
-            for (int j=0; j<cols; j++) {
-                int idx = i*cols + j;
-                MutableModFn temp = new MutableModFn(A[idx].digits.length);
-                int shiftAmt = getBaileyShiftAmount(i, j, rows, v);
-                if (omega == 4)
-                    shiftAmt *= 2;
-                A[idx].shiftLeft(shiftAmt, temp);
-                System.arraycopy(temp.digits, 0, A[idx].digits, 0, temp.digits.length);
+    private static void applyDftWeights(final MutableModFn[] A, final int omegaLog, final int rows, final int cols, int numThreads) {
+        final int v = 31 - Integer.numberOfLeadingZeros(rows) + 1;
+
+        parallelFor(0, rows, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                MutableModFn temp = new MutableModFn(A[0].length);
+                for (int i=fromIdx; i<toIdx; i++)
+                    for (int j=1; j<cols; j++) {   // the shift amount is zero for j=0
+                        int idx = i*cols + j;
+                        int shiftAmt = getBaileyShiftAmount(i, j, rows, v);
+                        shiftAmt *= omegaLog;
+                        A[idx].shiftLeft(shiftAmt, temp);
+                        temp.copyTo(A[idx]);
+                    }
             }
+        });
     }
 
     private static int getBaileyShiftAmount(int i, int j, int rows, int v) {
@@ -2376,18 +4658,14 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * is omitted.<br/>
      * <code>A</code> is assumed to be the upper half of the full array and the lower half is assumed to be all zeros.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      * @param numThreads number of threads to use; 1 means run on the current thread
      */
-    private static void idft(MutableModFn[] A, int omega, int numThreads) {
+    private static void idft(MutableModFn[] A, int omegaLog, int numThreads) {
         if (numThreads > 1)
-            try {
-                idftParallel(A, omega, numThreads);
-            } catch (InterruptedException | ExecutionException e) {
-                throw new ArithmeticException(e.getLocalizedMessage());
-            }
+            idftParallel(A, omegaLog, numThreads);
         else
-            idftSequential(A, omega);
+            idftSequential(A, omegaLog);
     }
 
     /**
@@ -2395,27 +4673,35 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * This implementation uses <a href="http://www.nas.nasa.gov/assets/pdf/techreports/1989/rnr-89-004.pdf">
      * Bailey's 4-step algorithm</a>.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      */
-    private static void idftSequential(MutableModFn[] A, int omega) {
+    private static void idftSequential(MutableModFn[] A, int omegaLog) {
         // arrange the elements of A in a matrix roughly sqrt(A.length) by sqrt(A.length) in size
         int rows = 1 << ((31-Integer.numberOfLeadingZeros(A.length))/2);   // number of rows
         int cols = A.length / rows;   // number of columns
+        MutableModFn temp = new MutableModFn(A[0].length);
+        int[] colExps = getDftExponents(rows, rows, cols, omegaLog);
+        int[] rowExps = getDftExponents(cols, 0, rows, omegaLog);
 
         // step 1: perform an IDFT on each row, that is, on the vector
         // A[rowIdx*cols], A[rowIdx*cols+1], ..., A[rowIdx*cols+cols-1].
         for (int i=0; i<rows; i++)
-            idftDirect(A, omega, cols, 0, rows, i*cols, 1);
-
-        // step 2: multiply by powers of omega
-        applyIdftWeights(A, omega, rows, cols);
+            idftDirect(A, rowExps, cols, i*cols, 1, temp);
 
         // step 3 is built into step 4 by making the stride length a multiple of the row length
 
-        // step 4: perform an IDFT on each column, that is, on the vector
-        // A[colIdx], A[colIdx+cols], A[colIdx+2*cols], ..., A[colIdx+(rows-1)*cols].
-        for (int i=0; i<cols; i++)
-            idftDirect(A, omega, rows, rows, cols, i, cols);
+        if (isDftBlocked(A))
+            // steps 2 and 4 on contiguous copies of the columns
+            idftColumnsBlocked(A, omegaLog, colExps, rows, cols, 0, cols, temp);
+        else {
+            // step 2: multiply by powers of omega
+            applyIdftWeights(A, omegaLog, rows, cols, 1);
+
+            // step 4: perform an IDFT on each column, that is, on the vector
+            // A[colIdx], A[colIdx+cols], A[colIdx+2*cols], ..., A[colIdx+(rows-1)*cols].
+            for (int i=0; i<cols; i++)
+                idftDirect(A, colExps, rows, i, cols, temp);
+        }
     }
 
     /**
@@ -2423,188 +4709,228 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * This implementation uses <a href="http://www.nas.nasa.gov/assets/pdf/techreports/1989/rnr-89-004.pdf">
      * Bailey's 4-step algorithm</a>.
      * @param A the vector to transform
-     * @param omega root of unity, can be 2 or 4
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
      * @param numThreads number of threads to use; 1 means run on the current thread
      */
-    private static void idftParallel(final MutableModFn[] A, final int omega, int numThreads) throws InterruptedException, ExecutionException {
+    private static void idftParallel(final MutableModFn[] A, final int omegaLog, int numThreads) {
         // arrange the elements of A in a matrix roughly sqrt(A.length) by sqrt(A.length) in size
         final int rows = 1 << ((31-Integer.numberOfLeadingZeros(A.length))/2);   // number of rows
         final int cols = A.length / rows;   // number of columns
-
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final int[] colExps = getDftExponents(rows, rows, cols, omegaLog);
+        final int[] rowExps = getDftExponents(cols, 0, rows, omegaLog);
 
         // step 1: perform an IDFT on each row
-        Collection<Future<?>> pending = new ArrayList<>();
-        for (int i=0; i<rows; i++) {
-            final int rowIdx = i;
-            Future<?> future = executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    idftDirect(A, omega, cols, 0, rows, rowIdx*cols, 1);
-                }
-            });
-            pending.add(future);
-        }
-        for (Future<?> future: pending)
-            future.get();
+        parallelFor(0, rows, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                MutableModFn temp = new MutableModFn(A[0].length);
+                for (int rowIdx=fromIdx; rowIdx<toIdx; rowIdx++)
+                    idftDirect(A, rowExps, cols, rowIdx*cols, 1, temp);
+            }
+        });
 
         // step 2: multiply by powers of omega
-        applyIdftWeights(A, omega, rows, cols);
+        final boolean blocked = isDftBlocked(A);
+        if (!blocked)
+            applyIdftWeights(A, omegaLog, rows, cols, numThreads);
 
         // step 3 is built into step 4 by making the stride length a multiple of the row length
         // step 4: perform an IDFT on each column
-        pending = new ArrayList<>();
-        for (int i=0; i<cols; i++) {
-            final int colIdx = i;
-            Future<?> future = executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    idftDirect(A, omega, rows, rows, cols, colIdx, cols);
-                }
-            });
-            pending.add(future);
-        }
-        for (Future<?> future: pending)
-            future.get();
-
-        executor.shutdown();
+        parallelFor(0, cols, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                MutableModFn temp = new MutableModFn(A[0].length);
+                if (blocked)
+                    idftColumnsBlocked(A, omegaLog, colExps, rows, cols, fromIdx, toIdx, temp);   // includes step 2
+                else
+                    for (int colIdx=fromIdx; colIdx<toIdx; colIdx++)
+                        idftDirect(A, colExps, rows, colIdx, cols, temp);
+            }
+        });
     }
 
-    /** This implementation uses the radix-4 technique which combines two levels of butterflies. */
-    private static void idftDirect(MutableModFn[] A, int omega, int len, int expOffset, int expScale, int idxOffset, int stride) {
+    /**
+     * This implementation uses the radix-8 technique which combines three levels of butterflies;
+     * see {@link #dftDirect(MutableModFn[], int[], int, int, int, MutableModFn)}.
+     * {@code c} is a temporary value of the same length as the elements of {@code A}.
+     */
+    private static void idftDirect(MutableModFn[] A, int[] exps, int len, int idxOffset, int stride, MutableModFn c) {
         int n = 31 - Integer.numberOfLeadingZeros(2*len);   // multiply by 2 because we're doing a half DFT and we need the n that corresponds to the full DFT length
         int v = 31 - Integer.numberOfLeadingZeros(len);
-        MutableModFn c = new MutableModFn(A[0].digits.length);
 
         int slen = 1;
-        while (slen <= len/4) {   // slen = #consecutive coefficients for which the sign (add/sub) and x are constant
-            for (int j=0; j<len; j+=4*slen) {
-                int x1 = getDftExponent(n, v, j+expOffset, omega)*expScale + 1;          // for level v
-                int x2 = getDftExponent(n, v-1, j+expOffset, omega)*expScale + 1;        // for level v-1
-                int x3 = getDftExponent(n, v, j+slen*2+expOffset, omega)*expScale + 1;   // for level v
+        while (slen <= len/8) {   // slen = #consecutive coefficients for which the sign (add/sub) and x are constant
+            for (int j=0; j<len; j+=8*slen) {
+                int x1 = getDftExponent(exps, n, v, j) + 1;            // for level v
+                int x2 = getDftExponent(exps, n, v, j+2*slen) + 1;     // for level v
+                int x3 = getDftExponent(exps, n, v, j+4*slen) + 1;     // for level v
+                int x4 = getDftExponent(exps, n, v, j+6*slen) + 1;     // for level v
+                int x5 = getDftExponent(exps, n, v-1, j) + 1;          // for level v-1
+                int x6 = getDftExponent(exps, n, v-1, j+4*slen) + 1;   // for level v-1
+                int x7 = getDftExponent(exps, n, v-2, j) + 1;          // for level v-2
 
                 // stride length = stride*slen elements
                 int idx0 = stride*j + idxOffset;
-                int idx1 = stride*j + stride*slen + idxOffset;
-                int idx2 = idx0 + stride*slen*2;
-                int idx3 = idx1 + stride*slen*2;
-
+                int ss = stride * slen;
                 for (int k=slen-1; k>=0; k--) {
+                    int idx1 = idx0 + ss;
+                    int idx2 = idx1 + ss;
+                    int idx3 = idx2 + ss;
+                    int idx4 = idx3 + ss;
+                    int idx5 = idx4 + ss;
+                    int idx6 = idx5 + ss;
+                    int idx7 = idx6 + ss;
+
                     // do level v
-                    A[idx0].copyTo(c);
-                    A[idx0].add(A[idx1]);
-                    A[idx0].shiftRight(1, A[idx0]);
-                    c.subtract(A[idx1]);
-                    c.shiftRight(x1, A[idx1]);
-
-                    A[idx2].copyTo(c);
-                    A[idx2].add(A[idx3]);
-                    A[idx2].shiftRight(1, A[idx2]);
-                    c.subtract(A[idx3]);
-                    c.shiftRight(x3, A[idx3]);
+                    idftButterfly(A[idx0], A[idx1], x1, c);
+                    idftButterfly(A[idx2], A[idx3], x2, c);
+                    idftButterfly(A[idx4], A[idx5], x3, c);
+                    idftButterfly(A[idx6], A[idx7], x4, c);
 
                     // do level v-1
-                    A[idx0].copyTo(c);
-                    A[idx0].add(A[idx2]);
-                    A[idx0].shiftRight(1, A[idx0]);
-                    c.subtract(A[idx2]);
-                    c.shiftRight(x2, A[idx2]);
-
-                    A[idx1].copyTo(c);
-                    A[idx1].add(A[idx3]);
-                    A[idx1].shiftRight(1, A[idx1]);
-                    c.subtract(A[idx3]);
-                    c.shiftRight(x2, A[idx3]);
+                    idftButterfly(A[idx0], A[idx2], x5, c);
+                    idftButterfly(A[idx1], A[idx3], x5, c);
+                    idftButterfly(A[idx4], A[idx6], x6, c);
+                    idftButterfly(A[idx5], A[idx7], x6, c);
+
+                    // do level v-2
+                    idftButterfly(A[idx0], A[idx4], x7, c);
+                    idftButterfly(A[idx1], A[idx5], x7, c);
+                    idftButterfly(A[idx2], A[idx6], x7, c);
+                    idftButterfly(A[idx3], A[idx7], x7, c);
 
                     idx0 += stride;
-                    idx1 += stride;
-                    idx2 += stride;
-                    idx3 += stride;
                 }
             }
 
-            v -= 2;
-            slen *= 4;
+            v -= 3;
+            slen *= 8;
         }
 
-        // if there is an odd number of levels, do the remaining one now
-        if (slen <= len/2)
+        // if the number of levels is not a multiple of three, do the remaining two levels or one level now
+        if (slen <= len/4)
+            for (int j=0; j<len; j+=4*slen) {
+                int x1 = getDftExponent(exps, n, v, j) + 1;          // for level v
+                int x2 = getDftExponent(exps, n, v, j+2*slen) + 1;   // for level v
+                int x3 = getDftExponent(exps, n, v-1, j) + 1;        // for level v-1
+
+                // stride length = stride*slen elements
+                int idx0 = stride*j + idxOffset;
+                int ss = stride * slen;
+                for (int k=slen-1; k>=0; k--) {
+                    int idx1 = idx0 + ss;
+                    int idx2 = idx1 + ss;
+                    int idx3 = idx2 + ss;
+
+                    // do level v
+                    idftButterfly(A[idx0], A[idx1], x1, c);
+                    idftButterfly(A[idx2], A[idx3], x2, c);
+
+                    // do level v-1
+                    idftButterfly(A[idx0], A[idx2], x3, c);
+                    idftButterfly(A[idx1], A[idx3], x3, c);
+
+                    idx0 += stride;
+                }
+            }
+        else if (slen <= len/2)
             for (int j=0; j<len; j+=2*slen) {
-                int x = getDftExponent(n, v, j+expOffset, omega)*expScale + 1;
+                int x = getDftExponent(exps, n, v, j) + 1;
                 int idx = stride*j + idxOffset;
                 int idx2 = idx + stride*slen;   // stride length = stride*slen elements
 
                 for (int k=slen-1; k>=0; k--) {
-                    A[idx].copyTo(c);
-                    A[idx].add(A[idx2]);
-                    A[idx].shiftRight(1, A[idx]);
-
-                    c.subtract(A[idx2]);
-                    c.shiftRight(x, A[idx2]);
+                    idftButterfly(A[idx], A[idx2], x, c);
                     idx += stride;
                     idx2 += stride;
                 }
             }
     }
 
-    /** Divides vector elements by powers of omega (aka twiddle factors) */
-    private static void applyIdftWeights(MutableModFn[] A, int omega, int rows, int cols) {
-        int v = 31 - Integer.numberOfLeadingZeros(rows) + 1;
+    /**
+     * Performs an IDFT butterfly on two elements, i.e. sets <code>a</code> to <code>(a+b)/2</code>
+     * and <code>b</code> to <code>(a-b)/2<sup>x</sup></code>.
+     * {@code c} is a temporary value of the same length as {@code a} and {@code b}.
+     */
+    private static void idftButterfly(MutableModFn a, MutableModFn b, int x, MutableModFn c) {
+        a.addSubtractLazy(b, c);
+        a.reduceSigned();
+        a.shiftRight(1, a);
+        c.reduceSigned();
+        c.shiftRight(x, b);
+    }
 
-        for (int i=0; i<rows; i++)
-            for (int j=0; j<cols; j++) {
-                int idx = i*cols + j;
-                MutableModFn temp = new MutableModFn(A[idx].digits.length);
-                int shiftAmt = getBaileyShiftAmount(i, j, rows, v);
-                if (omega == 4)
-                    shiftAmt *= 2;
-                A[idx].shiftRight(shiftAmt, temp);
-                temp.copyTo(A[idx]);
-            }
+    /**
+     * Performs steps 2 and 4 of the inverse of Bailey's algorithm on a range of columns, i.e. divides
+     * the columns by powers of omega and transforms them. Like {@link #dftColumnsBlocked}, this copies
+     * blocks of columns into a contiguous array, and the twiddle factors are applied while copying.
+     * @param A the vector to transform
+     * @param omegaLog base-2 logarithm of the root of unity, i.e. omega=2<sup>omegaLog</sup>
+     * @param exps the exponents of omega for the column transforms
+     * @param rows number of matrix rows
+     * @param cols number of matrix columns
+     * @param fromCol the first column to transform
+     * @param toCol the index after the last column to transform
+     * @param temp a temporary value of the same length as the elements of {@code A}
+     */
+    private static void idftColumnsBlocked(MutableModFn[] A, int omegaLog, int[] exps, int rows, int cols, int fromCol, int toCol, MutableModFn temp) {
+        int v = 31 - Integer.numberOfLeadingZeros(rows) + 1;
+        int blockCols = getDftBlockColumns(A, rows, toCol-fromCol);
+        MutableModFn[] block = MutableModFn.newVector(blockCols*rows, A[0].length);   // column-major copy of blockCols columns
+        for (int c0=fromCol; c0<toCol; c0+=blockCols) {
+            int numCols = Math.min(blockCols, toCol-c0);
+            for (int i=0; i<rows; i++)
+                for (int j=0; j<numCols; j++) {
+                    int shiftAmt = getBaileyShiftAmount(i, c0+j, rows, v) * omegaLog;
+                    A[i*cols+c0+j].shiftRight(shiftAmt, block[j*rows+i]);
+                }
+            for (int j=0; j<numCols; j++)
+                idftDirect(block, exps, rows, j*rows, 1, temp);
+            for (int i=0; i<rows; i++)
+                for (int j=0; j<numCols; j++)
+                    block[j*rows+i].copyTo(A[i*cols+c0+j]);
+        }
     }
 
-    private static int[][] toIntArray(MutableModFn[] a) {
-        int[][] aInt = new int[a.length][];
-        for(int i=0;i<a.length;i++)
-            aInt[i] = MutableModFn.toIntArrayOdd(a[i].digits);
-        return aInt;
+    /** Divides vector elements by powers of omega (aka twiddle factors) */
+    private static void applyIdftWeights(final MutableModFn[] A, final int omegaLog, final int rows, final int cols, int numThreads) {
+        final int v = 31 - Integer.numberOfLeadingZeros(rows) + 1;
+
+        parallelFor(0, rows, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                MutableModFn temp = new MutableModFn(A[0].length);
+                for (int i=fromIdx; i<toIdx; i++)
+                    for (int j=1; j<cols; j++) {   // the shift amount is zero for j=0
+                        int idx = i*cols + j;
+                        int shiftAmt = getBaileyShiftAmount(i, j, rows, v);
+                        shiftAmt *= omegaLog;
+                        A[idx].shiftRight(shiftAmt, temp);
+                        temp.copyTo(A[idx]);
+                    }
+            }
+        });
     }
 
     /**
      * Calls {@code multiply()} for each element of <code>a</code> and <code>b</code> and
      * places the result into <code>a</code>, i.e., <code>a[i]</code> becomes
-     * <code>a[i]*b[i]</code> for all <code>i</code>.
+     * <code>a[i]*b[i]</code> for all <code>i</code>.<br/>
+     * If there are more threads than elements, each product gets an equal share of the threads,
+     * rounded up, for its own recursion; work stealing in the fork-join pool evens out the rest.
      * @param a
      * @param b an array of the same length as <code>a</code>
      * @param numThreads number of threads to use; 1 means run on the current thread
      */
     private static void multiplyElements(final MutableModFn[] a, final MutableModFn[] b, int numThreads) {
-        if (numThreads > 1) {
-            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-            Collection<Future<?>> pending = new ArrayList<>();
-            for (int i=0; i<numThreads; i++) {
-                final int fromIdx = a.length * i / numThreads;
-                final int toIdx = a.length * (i+1) / numThreads;
-                Future<?> future = executor.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (int idx=fromIdx; idx<toIdx; idx++)
-                            a[idx].multiply(b[idx]);
-                    }
-                });
-                pending.add(future);
-            }
-            executor.shutdown();
-            try {
-                for (Future<?> future: pending)
-                    future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new ArithmeticException(e.getLocalizedMessage());
+        final int subThreads = (numThreads+a.length-1) / a.length;
+        parallelFor(0, a.length, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int idx=fromIdx; idx<toIdx; idx++)
+                    a[idx].multiply(b[idx], subThreads);
             }
-        }
-        else
-            for (int i=0; i<a.length; i++)
-                a[i].multiply(b[i]);
+        });
     }
 
     /**
@@ -2613,34 +4939,17 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * <code>i</code>.
      * @param a
      * @param numThreads number of threads to use; 1 means run on the current thread
+     * @see #multiplyElements(MutableModFn[], MutableModFn[], int)
      */
     private static void squareElements(final MutableModFn[] a, int numThreads) {
-        if (numThreads > 1) {
-            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-            Collection<Future<?>> pending = new ArrayList<>();
-            for (int i=0; i<numThreads; i++) {
-                final int fromIdx = a.length * i / numThreads;
-                final int toIdx = a.length * (i+1) / numThreads;
-                Future<?> future = executor.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (int idx=fromIdx; idx<toIdx; idx++)
-                            a[idx].square();
-                    }
-                });
-                pending.add(future);
+        final int subThreads = (numThreads+a.length-1) / a.length;
+        parallelFor(0, a.length, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int idx=fromIdx; idx<toIdx; idx++)
+                    a[idx].square(subThreads);
             }
-            executor.shutdown();
-            try {
-                for (Future<?> future: pending)
-                    future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new ArithmeticException(e.getLocalizedMessage());
-            }
-        }
-        else
-            for (int i=0; i<a.length; i++)
-                a[i].square();
+        });
     }
 
     /**
@@ -2677,6 +4986,61 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         }
     }
 
+    /**
+     * Like {@link #addShifted(int[], int[], int)} but works on numbers in base 2<sup>64</sup>
+     * and {@code b} is a range of an array.
+     * @param a a number in base 2<sup>64</sup> starting with the highest digit
+     * @param b an array containing a number in base 2<sup>64</sup> starting with the highest digit
+     * @param bOffset the index of the highest digit of {@code b}
+     * @param bLength the number of digits in {@code b}
+     * @param numElements the number of digits to shift {@code b} by
+     */
+    private static void addShifted(long[] a, long[] b, int bOffset, int bLength, int numElements) {
+        boolean carry = false;
+        int aIdx = a.length - 1 - numElements;
+        int bIdx = bOffset + bLength - 1;
+        int i = Math.min(aIdx, bLength-1);
+        while (i >= 0) {
+            long ai = a[aIdx];
+            long bi = b[bIdx];
+            long sum = ai + bi;
+            if (carry)
+                sum++;
+            carry = ((sum>>>63) < (ai>>>63)+(bi>>>63));   // carry if signBit(sum) < signBit(a)+signBit(b)
+            a[aIdx] = sum;
+            i--;
+            aIdx--;
+            bIdx--;
+        }
+        while (carry && aIdx>=0) {
+            a[aIdx]++;
+            carry = a[aIdx] == 0;
+            aIdx--;
+        }
+    }
+
+    /**
+     * Adds a single base 2<sup>64</sup> digit shifted left by {@code numElements} digits to {@code a}.
+     * @param a a number in base 2<sup>64</sup> starting with the highest digit
+     * @param b the digit to add
+     * @param numElements the number of digits to shift {@code b} by
+     */
+    private static void addShifted(long[] a, long b, int numElements) {
+        int aIdx = a.length - 1 - numElements;
+        if (aIdx < 0)
+            return;
+        long ai = a[aIdx];
+        long sum = ai + b;
+        a[aIdx] = sum;
+        boolean carry = ((sum>>>63) < (ai>>>63)+(b>>>63));
+        aIdx--;
+        while (carry && aIdx>=0) {
+            a[aIdx]++;
+            carry = a[aIdx] == 0;
+            aIdx--;
+        }
+    }
+
     /**
      * Adds two <b>positive</b> numbers (meaning they are interpreted as unsigned) modulo 2<sup>numBits</sup>.
      * Both input values are given as <code>int</code> arrays.
@@ -2733,6 +5097,30 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
             a[aIdx] = 0;
     }
 
+    /**
+     * Copies the lowest <code>bitLength</code> bits of each <code>pieceSize</code>-int piece of
+     * <code>a</code> to a new array, <code>spacing</code> bits apart.<br/>
+     * 32 pieces always take up a whole number of ints, so groups of 32 pieces are packed in parallel.
+     * @param a the input array
+     * @param pieceSize the size of each piece of <code>a</code> in ints
+     * @param bitLength the number of bits to copy from each piece; must be less than 32
+     * @param spacing the number of bits between two consecutive pieces in the output
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the packed bits
+     */
+    private static int[] packLowBits(final int[] a, final int pieceSize, final int bitLength, final int spacing, int numThreads) {
+        final int numPieces = (a.length+pieceSize-1) / pieceSize;
+        final int[] u = new int[((a.length+pieceSize)/pieceSize*spacing+31) / 32];
+        parallelFor(0, (numPieces+31)/32, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int i=fromIdx*32; i<Math.min(toIdx*32, numPieces); i++)
+                    appendBits(u, i*spacing, a, i*pieceSize, bitLength);
+            }
+        });
+        return u;
+    }
+
     /**
      * Reads <code>bBitLength</code> bits from <code>b</code>, starting at array index
      * <code>bStart</code>, and copies them into <code>a</code>, starting at bit
@@ -2775,40 +5163,47 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * Divides an <code>int</code> array into pieces <code>bitLength</code> bits long.
      * @param a
      * @param bitLength
+     * @param numThreads number of threads to use; 1 means run on the current thread
      * @return a new array containing <code>bitLength</code> bits from <code>a</code> in each subarray
      */
-    private static int[][] splitBits(int[] a, int bitLength) {
-        int aIntIdx = a.length - 1;
-        int aBitIdx = 0;
+    private static int[][] splitBits(final int[] a, final int bitLength, int numThreads) {
         int numPieces = (a.length*32+bitLength-1) / bitLength;
-        int pieceLength = (bitLength+31) / 32;   // in ints
-        int[][] b = new int[numPieces][pieceLength];
-        for (int i=0; i<b.length; i++) {
-            int bitsRemaining = Math.min(bitLength, a.length*32-i*bitLength);
-            int bIntIdx = bitLength / 32;
-            if (bitLength%32 == 0)
-                bIntIdx--;
-            int bBitIdx = 0;
-            while (bitsRemaining > 0) {
-                int bitsToCopy = Math.min(32-aBitIdx, 32-bBitIdx);
-                bitsToCopy = Math.min(bitsRemaining, bitsToCopy);
-                int mask = a[aIntIdx] >>> aBitIdx;
-                mask &= -1 >>> (32-bitsToCopy);
-                mask <<= bBitIdx;
-                b[i][bIntIdx] |= mask;
-                bitsRemaining -= bitsToCopy;
-                aBitIdx += bitsToCopy;
-                if (aBitIdx >= 32) {
-                    aBitIdx -= 32;
-                    aIntIdx--;
-                }
-                bBitIdx += bitsToCopy;
-                if (bBitIdx >= 32) {
-                    bBitIdx -= 32;
-                    bIntIdx--;
+        final int pieceLength = (bitLength+31) / 32;   // in ints
+        final int[][] b = new int[numPieces][];
+        parallelFor(0, numPieces, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                int aIntIdx = a.length - 1 - fromIdx*bitLength/32;
+                int aBitIdx = fromIdx*bitLength % 32;
+                for (int i=fromIdx; i<toIdx; i++) {
+                    b[i] = new int[pieceLength];
+                    int bitsRemaining = Math.min(bitLength, a.length*32-i*bitLength);
+                    int bIntIdx = bitLength / 32;
+                    if (bitLength%32 == 0)
+                        bIntIdx--;
+                    int bBitIdx = 0;
+                    while (bitsRemaining > 0) {
+                        int bitsToCopy = Math.min(32-aBitIdx, 32-bBitIdx);
+                        bitsToCopy = Math.min(bitsRemaining, bitsToCopy);
+                        int mask = a[aIntIdx] >>> aBitIdx;
+                        mask &= -1 >>> (32-bitsToCopy);
+                        mask <<= bBitIdx;
+                        b[i][bIntIdx] |= mask;
+                        bitsRemaining -= bitsToCopy;
+                        aBitIdx += bitsToCopy;
+                        if (aBitIdx >= 32) {
+                            aBitIdx -= 32;
+                            aIntIdx--;
+                        }
+                        bBitIdx += bitsToCopy;
+                        if (bBitIdx >= 32) {
+                            bBitIdx -= 32;
+                            bIntIdx--;
+                        }
+                    }
                 }
             }
-        }
+        });
         return b;
     }
 
@@ -2816,39 +5211,41 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * Splits an <code>int</code> array into pieces of <code>pieceSize longs</code> each,
      * pads each piece to <code>targetPieceSize longs</code>, and wraps it in a {@link MutableModFn}
      * (this implies <code>targetPieceSize</code>=2<sup>k</sup>+1 for some k).
+     * All pieces are backed by one contiguous array.
      * @param a the input array
      * @param numPieces the number of pieces to split the array into
      * @param sourcePieceSize the size of each piece in the input array in <code>ints</code>
      * @param targetPieceSize the size of each <code>MutableModFn</code> in the output array in <code>longs</code>
+     * @param numThreads number of threads to use; 1 means run on the current thread
      * @return an array of length <code>numPieces</code> containing {@link MutableModFn}s of length <code>targetPieceSize longs</code> each
      */
-    private static MutableModFn[] split(int[] a, int numPieces, int sourcePieceSize, int targetPieceSize) {
-        MutableModFn[] ai = new MutableModFn[numPieces];
-        int aIdx = a.length - sourcePieceSize;
-        int pieceIdx = 0;
-        while (aIdx >= 0) {
-            long[] digits = new long[targetPieceSize];
-            for (int i=0; i<sourcePieceSize; i+=2)
-                digits[targetPieceSize-sourcePieceSize/2+i/2] = (((long)a[aIdx+i])<<32) | (a[aIdx+i+1]&0xFFFFFFFFL);
-            ai[pieceIdx] = new MutableModFn(digits);
-            aIdx -= sourcePieceSize;
-            pieceIdx++;
-        }
-        long[] digits = new long[targetPieceSize];
+    private static MutableModFn[] split(final int[] a, int numPieces, final int sourcePieceSize, final int targetPieceSize, int numThreads) {
+        final MutableModFn[] ai = MutableModFn.newVector(numPieces, targetPieceSize);
+        final long[] digits = ai[0].digits;   // all pieces share one array
+        int pieceIdx = a.length / sourcePieceSize;   // the number of whole pieces
+        parallelFor(0, pieceIdx, numThreads, new RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int j=fromIdx; j<toIdx; j++) {
+                    int aIdx = a.length - (j+1)*sourcePieceSize;
+                    int end = ai[j].offset + targetPieceSize;
+                    for (int i=0; i<sourcePieceSize; i+=2)
+                        digits[end-sourcePieceSize/2+i/2] = (((long)a[aIdx+i])<<32) | (a[aIdx+i+1]&0xFFFFFFFFL);
+                }
+            }
+        });
+        int end = ai[pieceIdx].offset + targetPieceSize;
         if ((a.length%sourcePieceSize) % 2 == 0)
             for (int i=0; i<a.length%sourcePieceSize; i+=2)
-                digits[targetPieceSize-(a.length%sourcePieceSize)/2+i/2] = (((long)a[i])<<32) | (a[i+1]&0xFFFFFFFFL);
+                digits[end-(a.length%sourcePieceSize)/2+i/2] = (((long)a[i])<<32) | (a[i+1]&0xFFFFFFFFL);
         else {
             for (int i=0; i<a.length%sourcePieceSize-2; i+=2) {
-                digits[targetPieceSize-(a.length%sourcePieceSize)/2+i/2] = ((long)a[i+1]) << 32;
-                digits[targetPieceSize-(a.length%sourcePieceSize)/2+i/2-1] |= a[i] & 0xFFFFFFFFL;
+                digits[end-(a.length%sourcePieceSize)/2+i/2] = ((long)a[i+1]) << 32;
+                digits[end-(a.length%sourcePieceSize)/2+i/2-1] |= a[i] & 0xFFFFFFFFL;
             }
             // the remaining half-long
-            digits[targetPieceSize-1] |= a[a.length%sourcePieceSize-1] & 0xFFFFFFFFL;
+            digits[end-1] |= a[a.length%sourcePieceSize-1] & 0xFFFFFFFFL;
         }
-        ai[pieceIdx] = new MutableModFn(digits);
-        while (++pieceIdx < numPieces)
-            ai[pieceIdx] = new MutableModFn(targetPieceSize);
         return ai;
     }
 
@@ -2872,8 +5269,12 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
             if (len < TOOM_COOK_SQUARE_THRESHOLD) {
                 return squareKaratsuba();
             } else {
-                if (!shouldUseSchoenhageStrassen(len))
-                    return squareToomCook3();
+                if (shouldUseFft(len, len, true))
+                    return multiplyFft(this, this, 1);
+                else if (shouldUseNtt(len, len))
+                    return multiplyNtt(this, this, 1);
+                else if (!shouldUseSchoenhageStrassen(len))
+                    return squareToomCook3(1);
                 else
                     return multiplySchoenhageStrassen(this, this, 1);
             }
@@ -2884,15 +5285,22 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * Returns a BigInteger whose value is {@code (this<sup>2</sup>)},
      * using multiple threads if the numbers are sufficiently large.
      *
+     * @param numThreads number of threads to use; 1 means run on the current thread
      * @return {@code this<sup>2</sup>}
      * @see #square()
      */
-    private BigInteger square(int numThreads) {
+    BigInteger square(int numThreads) {
         int xlen = mag.length;
-        if (!shouldUseSchoenhageStrassen(xlen))
-            return square();
-        else
+        if (shouldUseFft(xlen, xlen, true))
+            return multiplyFft(this, this, numThreads);
+        else if (shouldUseNtt(xlen, xlen))
+            return multiplyNtt(this, this, numThreads);
+        else if (shouldUseSchoenhageStrassen(xlen))
             return multiplySchoenhageStrassen(this, this, numThreads);
+        else if (numThreads>1 && xlen>=PARALLEL_MULTIPLY_THRESHOLD)
+            return squareToomCook3(numThreads);
+        else
+            return square();
     }
 
     /**
@@ -2949,7 +5357,19 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         }
 
         // Add in off-diagonal sums
-        for (int i=len, offset=1; i > 0; i--, offset+=2) {
+        int i = len;
+        int offset = 1;
+        if (IS64BIT)
+            // two rows at a time: (x[0..i-2]) * x[i-1] and (x[0..i-3]) * x[i-2]
+            for (; i > 2; i-=2, offset+=4) {
+                int zIdx = zlen - offset - 1;
+                long product = (x[i-2] & LONG_MASK) * (x[i-1] & LONG_MASK) + (z[zIdx] & LONG_MASK);
+                z[zIdx] = (int)product;
+                long top = mulAdd2(z, zIdx-1, x, 0, i-2, x[i-1], x[i-2], product>>>32);
+                addOne(z, offset-1, i, (int)top);
+                addOne(z, offset, i, (int)(top>>>32));
+            }
+        for (; i > 0; i--, offset+=2) {
             int t = x[i-1];
             t = mulAdd(z, x, offset, i-1, t);
             addOne(z, offset-1, i, t);
@@ -2970,16 +5390,12 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * squareToLen.
      */
     private BigInteger squareKaratsuba() {
-        int half = (mag.length+1) / 2;
-
-        BigInteger xl = getLower(half);
-        BigInteger xh = getUpper(half);
-
-        BigInteger xhs = xh.square();  // xhs = xh^2
-        BigInteger xls = xl.square();  // xls = xl^2
-
-        // xh^2 << 64  +  (((xl+xh)^2 - (xh^2 + xl^2)) << 32) + xl^2
-        return xhs.shiftLeft(half*32).add(xl.add(xh).square().subtract(xhs.add(xls))).shiftLeft(half*32).add(xls);
+        int len = mag.length;
+        int[] z = new int[2*len];
+        int[] scratch = ScratchArena.borrowInts(getKaratsubaScratchSize(len, true));
+        squareKaratsuba(mag, len, len, z, z.length, scratch, 0);
+        ScratchArena.release(scratch);
+        return new BigInteger(trustedStripLeadingZeroInts(z), 1);
     }
 
     /**
@@ -2991,6 +5407,24 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      */
     private BigInteger squareToomCook3() {
         int len = mag.length;
+        int[] z = new int[2*len];
+        int[] scratch = ScratchArena.borrowInts(getToomCook3ScratchSize(len, true));
+        squareToomCook3(mag, len, len, z, z.length, scratch, 0);
+        ScratchArena.release(scratch);
+        return new BigInteger(trustedStripLeadingZeroInts(z), 1);
+    }
+
+    /**
+     * Squares a BigInteger using the 3-way Toom-Cook squaring algorithm,
+     * evaluating the five sub-squares concurrently if {@code numThreads > 1}.
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @see #squareToomCook3()
+     */
+    private BigInteger squareToomCook3(int numThreads) {
+        if (numThreads <= 1)
+            return squareToomCook3();
+
+        int len = mag.length;
 
         // k is the size (in ints) of the lower-order slices.
         int k = (len+2)/3;   // Equal to ceil(largest/3)
@@ -3006,13 +5440,18 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         a0 = getToomSlice(k, r, 2, len);
         BigInteger v0, v1, v2, vm1, vinf, t1, t2, tm1, da1;
 
-        v0 = a0.square();
+        // evaluate at 0, -1, 1, 2, and infinity
         da1 = a2.add(a0);
-        vm1 = da1.subtract(a1).square();
+        BigInteger dam1 = da1.subtract(a1);
         da1 = da1.add(a1);
-        v1 = da1.square();
-        vinf = a2.square();
-        v2 = da1.add(a2).shiftLeft(1).subtract(a0).square();
+        BigInteger da2 = da1.add(a2).shiftLeft(1).subtract(a0);
+
+        BigInteger[] v = squareAll(new BigInteger[] {a0, dam1, da1, da2, a2}, numThreads);
+        v0 = v[0];
+        vm1 = v[1];
+        v1 = v[2];
+        v2 = v[3];
+        vinf = v[4];
 
         // The algorithm requires two divisions by 2 and one by 3.
         // All divisions are known to be exact, that is, they do not produce
@@ -3034,6 +5473,38 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         return vinf.shiftLeft(ss).add(t2).shiftLeft(ss).add(t1).shiftLeft(ss).add(tm1).shiftLeft(ss).add(v0);
     }
 
+    /**
+     * Squares an array range using 3-way Toom-Cook squaring.
+     * @see #multiplyToomCook3(int[], int, int, int[], int, int, int[], int, int[], int)
+     */
+    private static void squareToomCook3(int[] x, int xEnd, int len, int[] z, int zEnd, int[] scratch, int scratchOff) {
+        int k = (len+2) / 3;
+        int x0Len = Math.min(len, k);
+        int x1Len = Math.min(len-x0Len, k);
+        int x2Len = len - x0Len - x1Len;
+
+        int d1End = scratchOff + k + 1;
+        int dm1End = d1End + k + 1;
+        int d2End = dm1End + k + 1;
+        int v1End = d2End + 2*k + 2;
+        int vm1End = v1End + 2*k + 2;
+        int v2End = vm1End + 2*k + 2;
+
+        evaluateToomCook3(x, xEnd, x0Len, x1Len, x2Len, k, scratch, d1End, dm1End, d2End);
+        squareRange(x, xEnd, x0Len, z, zEnd, scratch, v2End);
+        if (x2Len > 0) {
+            Arrays.fill(z, zEnd-4*k, zEnd-2*x0Len, 0);
+            squareRange(x, xEnd-2*k, x2Len, z, zEnd-4*k, scratch, v2End);
+        }
+        else
+            Arrays.fill(z, zEnd-2*len, zEnd-2*x0Len, 0);
+        squareRange(scratch, d1End, k+1, scratch, v1End, scratch, v2End);
+        squareRange(scratch, dm1End, k+1, scratch, vm1End, scratch, v2End);
+        squareRange(scratch, d2End, k+1, scratch, v2End, scratch, v2End);
+
+        interpolateToomCook3(z, zEnd, 2*len, k, 2*x0Len, 2*x2Len, scratch, v1End, vm1End, v2End, false);
+    }
+
     // Division
 
     /**
@@ -3423,8 +5894,9 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         int n = b.bitLength();
 
         BigInteger a1 = shiftRight(n-1);
-        BigInteger q = a1.multiply(mu, numThreads).shiftRight(m-n+1);
-        BigInteger r = subtract(b.multiply(q, numThreads));
+        BigInteger q = a1.multiplyHigh(mu, m-n+1, numThreads);
+        // q is off by only a few units, so r=this-b*q is less than n+64 bits long
+        BigInteger r = subtractProduct(this, b, q, n+64, numThreads);
         while (r.signum()<0 || r.compareTo(b)>=0)
             if (r.signum() < 0) {
                 r = r.add(b);
@@ -3468,20 +5940,88 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         for (int i=0; i<numSteps; i++) {
             ki = k[i];
             // the following BigIntegers represent numbers of the form a*2^(-exponent)
-            BigInteger s = z.square(numThreads);   // exponent = 2ki
+            // z' = 2z-t*z^2 = z+z*e where e=1-t*z
             BigInteger t = shiftRightRounded(m-2*ki-3);   // exponent = 2ki+3
-            BigInteger u = t.multiply(s, numThreads);   // exponent = 4ki+3 > 2ki+1
-            BigInteger w = z.add(z);   // exponent = ki
-            w = w.shiftLeft(3*ki+3);   // increase #fraction digits to 4ki+3 to match u
-            z = w.subtract(u);   // exponent = 4ki+3
+            // z is accurate to about ki bits, so t*z=1-e where e is about 2^-ki; the high part of t*z need not be computed
+            BigInteger e = subtractProduct(ONE.shiftLeft(3*ki+3), t, z, 2*ki+3+64, numThreads);   // exponent = 3ki+3
+            e = e.shiftRight(ki);   // exponent = 2ki+3; the dropped bits are below the precision of z'
+            BigInteger u = z.multiply(e, numThreads);   // exponent = 3ki+3
+            z = z.shiftLeft(2*ki+3).add(u);   // exponent = 3ki+3
             if (i < numSteps-1)
-                z = z.shiftRightRounded(4*ki+3-k[i+1]);   // reduce #fraction digits to k[i+1]
+                z = z.shiftRightRounded(3*ki+3-k[i+1]);   // reduce #fraction digits to k[i+1]
             else
-                z = z.shiftRightRounded(4*ki+3-n);   // final step: reduce #fraction digits to n
+                z = z.shiftRightRounded(3*ki+3-n);   // final step: reduce #fraction digits to n
         }
         return z;
     }
 
+    /**
+     * Computes <code>c-a*b</code> for nonnegative numbers, given that the result is known to be
+     * less than 2<sup>bits-1</sup> in absolute value.<br/>
+     * This is a middle product: the part of <code>a*b</code> above <code>bits</code> bits cancels
+     * with <code>c</code>, so only <code>a*b</code> modulo 2<sup>M</sup>-1 is computed, where M is
+     * the smallest number of the form 64*2<sup>k</sup> that is at least <code>bits</code>. Because
+     * 2<sup>M</sup> is 1 modulo 2<sup>M</sup>-1, this is a wrap-around (cyclic) convolution that
+     * needs no zero padding. If the full product is not longer than M bits, or if it would not be
+     * computed with the NTT or Schoenhage-Strassen anyway, <code>c-a*b</code> is computed directly.
+     * @param c the minuend
+     * @param a the first factor
+     * @param b the second factor
+     * @param bits bound on the length of the result
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return <code>c-a*b</code>
+     */
+    private static BigInteger subtractProduct(BigInteger c, BigInteger a, BigInteger b, int bits, int numThreads) {
+        int alen = a.mag.length;
+        int blen = b.mag.length;
+        int logLength = 32 - Integer.numberOfLeadingZeros((bits+63)/64 - 1);   // log2 of the number of 64-bit pieces
+        boolean largeProduct = shouldUseNtt(alen, blen) || shouldUseSchoenhageStrassen(alen) && shouldUseSchoenhageStrassen(blen);
+        if (!largeProduct || shouldUseFft(alen, blen, false) || alen+blen>NttMultiplier.maxLength() ||
+                logLength>=NttMultiplier.getLogLength(alen, blen))
+            return c.subtract(a.multiply(b, numThreads));
+
+        int M = 64 << logLength;
+        BigInteger w = new BigInteger(1, NttMultiplier.multiplyCyclic(a.mag, b.mag, logLength, numThreads));
+        BigInteger d = c.reduceModPow2Minus1(M).subtract(w.reduceModPow2Minus1(M));   // -2^M < d < 2^M
+        BigInteger modulus = ONE.shiftLeft(M).subtract(ONE);
+        if (d.signum() < 0)
+            d = d.add(modulus);
+        // 0 <= d <= 2^M-1; pick the representative closest to zero
+        if (d.testBit(M-1))
+            d = d.subtract(modulus);
+        return d;
+    }
+
+    /**
+     * Returns a number that is congruent to {@code this} modulo 2<sup>bits</sup>-1 and is less than
+     * 2<sup>bits</sup>. {@code this} must not be negative.
+     * @param bits a positive number
+     * @return a number in [0, 2<sup>bits</sup>-1]
+     */
+    private BigInteger reduceModPow2Minus1(int bits) {
+        BigInteger r = this;
+        // 2^bits = 1 mod 2^bits-1, so the part above bits bits can be added to the lower part
+        while (r.bitLength() > bits)
+            r = r.shiftRight(bits).add(r.truncate(bits));
+        return r;
+    }
+
+    /**
+     * Returns the lowest {@code bits} bits of {@code this}, i.e. {@code this mod 2<sup>bits</sup>}.
+     * {@code this} must not be negative.
+     * @param bits the number of bits to keep
+     * @return {@code this} if it has no more than {@code bits} bits, otherwise the low bits
+     */
+    private BigInteger truncate(int bits) {
+        if (bitLength() <= bits)
+            return this;
+        int numInts = (bits+31) / 32;
+        int[] lowInts = Arrays.copyOfRange(mag, mag.length-numInts, mag.length);
+        if (bits%32 != 0)
+            lowInts[0] &= (1 << (bits%32)) - 1;
+        return new BigInteger(trustedStripLeadingZeroInts(lowInts), 1);
+    }
+
     /**
      * Same as {@link BigInteger#shiftRight(int)} but rounds to the
      * nearest integer.
@@ -4143,6 +6683,41 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
         return (int)carry;
     }
 
+    /**
+     * Multiplies an array by the two-word number <code>k2*2<sup>32</sup>+k1</code> and adds the product
+     * to {@code out}, except for the two most significant words, which are returned. This does the work
+     * of two calls to {@link #mulAdd(int[], int[], int, int, int)} in one pass over {@code out}.
+     * @param out the array to add to
+     * @param outIdx the index of the word in {@code out} that the lowest word of the product is added to
+     * @param in the array to multiply
+     * @param inOffset the index of the most significant word of {@code in}
+     * @param len the number of words in {@code in}; must be at least 1
+     * @param k1 the lower word of the multiplier
+     * @param k2 the upper word of the multiplier
+     * @param carry a value less than 2<sup>32</sup> to add at {@code outIdx}
+     * @return the two words of the product above <code>out[outIdx-len+1]</code>; the upper one is in the upper half
+     */
+    static long mulAdd2(int[] out, int outIdx, int[] in, int inOffset, int len, int k1, int k2, long carry) {
+        long k1Long = k1 & LONG_MASK;
+        long k2Long = k2 & LONG_MASK;
+        int inIdx = inOffset + len - 1;
+
+        // the lowest word only gets a contribution from k1
+        long product1 = (in[inIdx] & LONG_MASK) * k1Long + (out[outIdx] & LONG_MASK) + carry;
+        out[outIdx--] = (int)product1;
+        long carry1 = product1 >>> 32;
+        long carry2 = 0;
+        for (int j=inIdx-1; j >= inOffset; j--) {
+            long inj1 = in[j+1] & LONG_MASK;
+            product1 = (in[j] & LONG_MASK) * k1Long + (out[outIdx] & LONG_MASK) + carry1;
+            carry1 = product1 >>> 32;
+            long product2 = inj1 * k2Long + (product1 & LONG_MASK) + carry2;   // can't overflow
+            out[outIdx--] = (int)product2;
+            carry2 = product2 >>> 32;
+        }
+        return (in[inOffset] & LONG_MASK) * k2Long + carry1 + carry2;
+    }
+
     /**
      * Add one word to the number a mlen words into a. Return the resulting
      * carry.
@@ -4405,6 +6980,17 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * @return {@code this & val}
      */
     public BigInteger and(BigInteger val) {
+        if (signum>=0 && val.signum>=0) {
+            // work on the magnitudes directly in a loop the JIT can vectorize
+            int len = Math.min(mag.length, val.mag.length);
+            int xOffset = mag.length - len;
+            int yOffset = val.mag.length - len;
+            int[] result = new int[len];
+            for (int i=0; i < len; i++)
+                result[i] = mag[xOffset+i] & val.mag[yOffset+i];
+            return new BigInteger(trustedStripLeadingZeroInts(result), 1);
+        }
+
         int[] result = new int[Math.max(intLength(), val.intLength())];
         for (int i=0; i < result.length; i++)
             result[i] = (getInt(result.length-i-1)
@@ -4422,6 +7008,18 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * @return {@code this | val}
      */
     public BigInteger or(BigInteger val) {
+        if (signum>=0 && val.signum>=0) {
+            // work on the magnitudes directly in a loop the JIT can vectorize
+            int[] x = mag.length>=val.mag.length ? mag : val.mag;   // the longer magnitude
+            int[] y = mag.length>=val.mag.length ? val.mag : mag;
+            int yOffset = x.length - y.length;
+            int[] result = new int[x.length];
+            System.arraycopy(x, 0, result, 0, yOffset);
+            for (int i=0; i < y.length; i++)
+                result[yOffset+i] = x[yOffset+i] | y[i];
+            return new BigInteger(result, 1);
+        }
+
         int[] result = new int[Math.max(intLength(), val.intLength())];
         for (int i=0; i < result.length; i++)
             result[i] = (getInt(result.length-i-1)
@@ -4439,6 +7037,18 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * @return {@code this ^ val}
      */
     public BigInteger xor(BigInteger val) {
+        if (signum>=0 && val.signum>=0) {
+            // work on the magnitudes directly in a loop the JIT can vectorize
+            int[] x = mag.length>=val.mag.length ? mag : val.mag;   // the longer magnitude
+            int[] y = mag.length>=val.mag.length ? val.mag : mag;
+            int yOffset = x.length - y.length;
+            int[] result = new int[x.length];
+            System.arraycopy(x, 0, result, 0, yOffset);
+            for (int i=0; i < y.length; i++)
+                result[yOffset+i] = x[yOffset+i] ^ y[i];
+            return new BigInteger(trustedStripLeadingZeroInts(result), 1);
+        }
+
         int[] result = new int[Math.max(intLength(), val.intLength())];
         for (int i=0; i < result.length; i++)
             result[i] = (getInt(result.length-i-1)
@@ -4473,6 +7083,19 @@ public class BigInteger extends Number implements Comparable<BigInteger> {
      * @return {@code this & ~val}
      */
     public BigInteger andNot(BigInteger val) {
+        if (signum>=0 && val.signum>=0) {
+            // work on the magnitudes directly in a loop the JIT can vectorize;
+            // the result is no longer than this number
+            int len = Math.min(mag.length, val.mag.length);
+            int xOffset = mag.length - len;
+            int yOffset = val.mag.length - len;
+            int[] result = new int[mag.length];
+            System.arraycopy(mag, 0, result, 0, xOffset);
+            for (int i=0; i < len; i++)
+                result[xOffset+i] = mag[xOffset+i] & ~val.mag[yOffset+i];
+            return new BigInteger(trustedStripLeadingZeroInts(result), 1);
+        }
+
         int[] result = new int[Math.max(intLength(), val.intLength())];
         for (int i=0; i < result.length; i++)
             result[i] = (getInt(result.length-i-1)
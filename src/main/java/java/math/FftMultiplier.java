@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package java.math;
+
+import java.util.Arrays;
+
+/**
+ * Multiplies numbers using a complex floating-point
+ * <a href="http://en.wikipedia.org/wiki/Fast_Fourier_transform">FFT</a>.
+ * <p>
+ * Each factor is split into balanced digits of at most 16 bits, i.e. digits in the range
+ * [-2<sup>b-1</sup>, 2<sup>b-1</sup>]. When multiplying, the digits of one factor go into the real
+ * parts and the digits of the other factor go into the imaginary parts of a single complex
+ * sequence z. The imaginary part of z<sup>2</sup> is twice the product, so one forward and one
+ * inverse transform suffice.
+ * <p>
+ * The FFT is only used when rounding the result to the nearest integer is guaranteed to give the
+ * exact product. This is checked with the error bound from Theorem 5.1 in Colin Percival,
+ * <a href="http://www.daemonology.net/papers/fft.pdf">Rapid multiplication modulo the sum and
+ * difference of highly composite numbers</a>: the cyclic convolution of x and y computed with a
+ * radix-2 FFT of length 2<sup>n</sup> is off by less than
+ * <pre>
+ * ||x|| ||y|| ((1+&epsilon;)<sup>3n</sup> (1+&epsilon;&radic;5)<sup>3n+1</sup> (1+&beta;)<sup>3n</sup> - 1)
+ * </pre>
+ * in every coefficient, where &epsilon;=2<sup>-53</sup> and &beta; bounds the error in the
+ * precomputed roots of unity. If that is not less than 1/2 for 16-bit digits, smaller digits are
+ * tried, and if none work, {@link #getDigitBits(int, int, boolean)} returns 0 so the caller can
+ * use another algorithm.
+ *
+ * @see BigInteger#multiplyFft(BigInteger, BigInteger, int)
+ */
+class FftMultiplier {
+    /** The largest digit size in bits */
+    private static final int MAX_DIGIT_BITS = 16;
+
+    /** The smallest digit size in bits; below this, the FFT is not competitive. */
+    private static final int MIN_DIGIT_BITS = 10;
+
+    /** The unit roundoff of a {@code double} */
+    private static final double EPSILON = 0x1p-53;
+
+    /**
+     * Bound on the error of a precomputed root of unity, see {@link #getRoots(int)}. The angle is
+     * at most &pi;/4 and is rounded once, so it is off by at most half an ulp, i.e. &epsilon;/2,
+     * which moves the root by no more than that. {@link Math#cos(double)} and
+     * {@link Math#sin(double)} are accurate to one ulp, which is at most &epsilon; for results in
+     * [0, 1], so each of the two components adds at most &epsilon;. This gives
+     * (1/2+&radic;2)&epsilon; &lt; 2&epsilon;; all other roots are exact reflections of these.
+     */
+    private static final double BETA = 2 * EPSILON;
+
+    /**
+     * The upper 26 bits of &pi;. Multiplying it by a number of at most 27 bits is exact.
+     */
+    private static final double PI_HI = Double.longBitsToDouble(Double.doubleToLongBits(Math.PI) & 0xFFFFFFFFF8000000L);
+
+    /** &pi; - {@link #PI_HI}, rounded to a {@code double}. {@code Math.PI} is 1.2246e-16 less than &pi;. */
+    private static final double PI_LO = (Math.PI-PI_HI) + 1.2246467991473532e-16;
+
+    /** The cosines and sines of 2&pi;j/len for 0&lt;=j&lt;len/2 and the longest len computed so far */
+    private static volatile double[][] rootsCache = {{1}, {0}};
+
+    /**
+     * Multiplies two <b>positive</b> numbers given as int arrays in the same format as
+     * {@link BigInteger#mag}. If {@code a==b}, the number is squared, which only needs a real input.
+     * @param a
+     * @param b
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b as an array of length {@code a.length+b.length}, possibly with leading zeros
+     * @throws ArithmeticException if the result cannot be guaranteed to be exact
+     * @see #getDigitBits(int, int, boolean)
+     */
+    static int[] multiply(int[] a, int[] b, int numThreads) {
+        int[] c = new int[a.length+b.length];
+        multiply(a, a.length, a.length, b, b.length, b.length, c, c.length, numThreads);
+        return c;
+    }
+
+    /**
+     * Multiplies two <b>positive</b> numbers given as array ranges, most significant int first,
+     * and stores the {@code aLen+bLen} ints of the product in {@code c}. If both ranges are the
+     * same, the number is squared.
+     * @param a the first factor
+     * @param aEnd the index after the last (lowest) int of {@code a}
+     * @param aLen the number of ints in {@code a}
+     * @param b the second factor
+     * @param bEnd the index after the last (lowest) int of {@code b}
+     * @param bLen the number of ints in {@code b}
+     * @param c the array to store the product in; it may overlap the factors
+     * @param cEnd the index after the last (lowest) int of the product
+     * @param numThreads number of threads to use for the transforms and the pointwise products;
+     *                   1 means run on the current thread
+     * @throws ArithmeticException if the result cannot be guaranteed to be exact
+     * @see #multiply(int[], int[], int)
+     */
+    static void multiply(int[] a, int aEnd, int aLen, int[] b, int bEnd, int bLen, int[] c, int cEnd, int numThreads) {
+        boolean square = a==b && aEnd==bEnd && aLen==bLen;
+        int bits = getDigitBits(aLen, bLen, square);
+        if (bits == 0)
+            throw new ArithmeticException("FFT result would not be exact");
+
+        int aNumDigits = (int)getNumDigits(aLen, bits);
+        int bNumDigits = (int)getNumDigits(bLen, bits);
+        int numCoeffs = aNumDigits + bNumDigits - 1;
+        int logLength = 32 - Integer.numberOfLeadingZeros(numCoeffs-1);
+        int len = 1 << logLength;
+        double[][] roots = getRoots(logLength);
+
+        // len is a power of two, so the borrowed arrays are exactly len long
+        final double[] re = ScratchArena.borrowDoubles(len);
+        final double[] im = ScratchArena.borrowDoubles(len);
+        toDigits(a, aEnd, aLen, bits, re, aNumDigits);
+        Arrays.fill(re, aNumDigits, len, 0);
+        if (square)
+            Arrays.fill(im, 0);
+        else {
+            toDigits(b, bEnd, bLen, bits, im, bNumDigits);
+            Arrays.fill(im, bNumDigits, len, 0);
+        }
+
+        transform(re, im, roots, numThreads);
+        BigInteger.parallelFor(0, len, numThreads, new BigInteger.RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int i=fromIdx; i<toIdx; i++) {
+                    double x = re[i];
+                    double y = im[i];
+                    re[i] = x*x - y*y;
+                    im[i] = 2 * x * y;
+                }
+            }
+        });
+        inverseTransform(re, im, roots, numThreads);
+
+        // for a product, the convolution is the imaginary part divided by 2
+        double[] conv = square ? re : im;
+        double scale = square ? 1.0/len : 0.5/len;   // exact because len is a power of two
+        fromCoeffs(conv, scale, numCoeffs, bits, c, cEnd, aLen+bLen);
+        ScratchArena.release(re);
+        ScratchArena.release(im);
+    }
+
+    /**
+     * Returns the largest digit size for which an FFT multiplication of two numbers of the given
+     * lengths is guaranteed to be exact, or 0 if no digit size of at least {@link #MIN_DIGIT_BITS}
+     * bits qualifies.
+     * @param alen length of the first factor in ints
+     * @param blen length of the second factor in ints
+     * @param square whether the two factors are the same number
+     * @return the number of bits per digit, or 0
+     */
+    static int getDigitBits(int alen, int blen, boolean square) {
+        for (int bits=MAX_DIGIT_BITS; bits>=MIN_DIGIT_BITS; bits--) {
+            long na = getNumDigits(alen, bits);
+            long nb = getNumDigits(blen, bits);
+            long numCoeffs = na + nb - 1;
+            int logLength = 64 - Long.numberOfLeadingZeros(numCoeffs-1);
+            if (logLength > 30)
+                continue;
+
+            // squared norms of the input vectors; balanced digits are at most 2^(bits-1) in absolute value
+            double maxDigitSquared = Math.scalb(1.0, 2*(bits-1));
+            double normSquared;
+            if (square)
+                normSquared = na * maxDigitSquared;
+            else
+                // ||z||^2 = ||a||^2 + ||b||^2, and the error is halved when taking half the imaginary part
+                normSquared = (na+nb) * maxDigitSquared / 2;
+            if (normSquared*getRelativeError(logLength) < 0.5)
+                return bits;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns (1+&epsilon;)<sup>3n</sup> (1+&epsilon;&radic;5)<sup>3n+1</sup> (1+&beta;)<sup>3n</sup> - 1,
+     * rounded up generously to make up for rounding errors in the calculation.
+     */
+    private static double getRelativeError(int n) {
+        double logSum = 3*n*Math.log1p(EPSILON) + (3*n+1)*Math.log1p(EPSILON*Math.sqrt(5)) + 3*n*Math.log1p(BETA);
+        return Math.expm1(logSum) * 1.01;
+    }
+
+    /** Returns the number of balanced digits a number of {@code len} ints is split into. */
+    private static long getNumDigits(int len, int bits) {
+        // one extra digit for the carry out of the top digit
+        return (32L*len+bits-1)/bits + 1;
+    }
+
+    /**
+     * Splits a number into balanced digits, least significant first.
+     * @param a an array containing the number, most significant int first
+     * @param aEnd the index after the last (lowest) int of the number
+     * @param aLen the number of ints in the number
+     * @param bits the number of bits per digit
+     * @param digits receives digits in the range [-2<sup>bits-1</sup>, 2<sup>bits-1</sup>]
+     * @param numDigits the number of digits to write, see {@link #getNumDigits(int, int)}
+     */
+    private static void toDigits(int[] a, int aEnd, int aLen, int bits, double[] digits, int numDigits) {
+        int half = 1 << (bits-1);
+        int mask = (1<<bits) - 1;
+        long acc = 0;   // bits that have not been turned into digits yet
+        int accBits = 0;
+        int aIdx = aEnd - 1;
+        int aStart = aEnd - aLen;
+        int carry = 0;
+        for (int i=0; i<numDigits; i++) {
+            if (accBits<bits && aIdx>=aStart) {
+                acc |= (a[aIdx--]&BigInteger.LONG_MASK) << accBits;
+                accBits += 32;
+            }
+            int d = ((int)acc&mask) + carry;
+            acc >>>= bits;
+            accBits -= bits;
+            if (d > half) {
+                d -= 1 << bits;
+                carry = 1;
+            }
+            else
+                carry = 0;
+            digits[i] = d;
+        }
+    }
+
+    /**
+     * Rounds the coefficients of the product to integers and adds them up.
+     * @param conv the convolution, before scaling
+     * @param scale the factor to multiply each coefficient by
+     * @param numCoeffs number of coefficients
+     * @param bits the number of bits per digit
+     * @param result the array to store the product in, most significant int first
+     * @param resultEnd the index after the last (lowest) int of the product
+     * @param resultLength length of the product in ints
+     */
+    private static void fromCoeffs(double[] conv, double scale, int numCoeffs, int bits, int[] result, int resultEnd, int resultLength) {
+        int resultStart = resultEnd - resultLength;
+        int resultIdx = resultEnd - 1;
+        int mask = (1<<bits) - 1;
+        long carry = 0;   // the signed sum of the coefficients that have not been written yet
+        long acc = 0;     // bits that have not been written to the result yet
+        int accBits = 0;
+        for (int i=0; i<numCoeffs && resultIdx>=resultStart; i++) {
+            carry += Math.round(conv[i]*scale);
+            acc |= (carry&mask) << accBits;
+            accBits += bits;
+            carry >>= bits;
+            if (accBits >= 32) {
+                result[resultIdx--] = (int)acc;
+                acc >>>= 32;
+                accBits -= 32;
+            }
+        }
+        // the final carry is nonnegative because the product is
+        while (resultIdx >= resultStart) {
+            acc |= carry << accBits;
+            result[resultIdx--] = (int)acc;
+            acc >>>= 32;
+            carry >>= 32 - accBits;
+            accBits = 0;
+        }
+    }
+
+    /**
+     * Returns the cosines and sines of 2&pi;j/len for 0&lt;=j&lt;len/2, where len is at least
+     * 2<sup>logLength</sup>. The table is cached and only recomputed when a longer one is needed.<br/>
+     * Only the angles up to &pi;/4 are computed. Because j has at most 27 bits there, j*&pi; is
+     * computed as j*{@link #PI_HI}, which is exact, plus j*{@link #PI_LO}, so the angle is only
+     * rounded once. The other roots follow from cos(&pi;/2-x)=sin(x) and cos(&pi;-x)=-cos(x)
+     * without further rounding errors.
+     */
+    private static double[][] getRoots(int logLength) {
+        double[][] roots = rootsCache;
+        int half = 1 << (logLength-1);
+        if (roots[0].length < half) {
+            double[] cos = new double[half];
+            double[] sin = new double[half];
+            for (int j=0; j<=half/4; j++) {
+                double angle = (j*PI_HI + j*PI_LO) / half;
+                cos[j] = Math.cos(angle);
+                sin[j] = Math.sin(angle);
+            }
+            for (int j=half/4+1; j<=half/2 && j<half; j++) {
+                cos[j] = sin[half/2-j];
+                sin[j] = cos[half/2-j];
+            }
+            for (int j=half/2+1; j<half; j++) {
+                cos[j] = -cos[half-j];
+                sin[j] = sin[half-j];
+            }
+            roots = new double[][] {cos, sin};
+            rootsCache = roots;
+        }
+        return roots;
+    }
+
+    /**
+     * Returns the number of blocks a transform of length {@code len} is split into so that the
+     * last levels, whose butterflies stay within a block, can be done by one thread per block.
+     */
+    private static int getNumBlocks(int len, int numThreads) {
+        if (numThreads <= 1)
+            return 1;
+        // the smallest power of two that is at least numThreads, and at most len/2 so blocks hold a butterfly
+        return Math.min(len/2, Integer.highestOneBit(numThreads-1) * 2);
+    }
+
+    /**
+     * Performs a forward FFT with the root e<sup>-2&pi;i/len</sup> using decimation in frequency.
+     * The input is in natural order and the output is in bit-reversed order.<br/>
+     * With more than one thread, the first levels, which combine elements from different blocks
+     * (see {@link #getNumBlocks(int, int)}), are split among the threads one level at a time;
+     * after that, each block is finished by a single thread.
+     * @param re real parts
+     * @param im imaginary parts
+     * @param roots the table returned by {@link #getRoots(int)}
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     */
+    private static void transform(final double[] re, final double[] im, double[][] roots, int numThreads) {
+        int len = re.length;
+        final double[] cos = roots[0];
+        final double[] sin = roots[1];
+        final int tableStep = 2 * cos.length / len;
+        int numBlocks = getNumBlocks(len, numThreads);
+        final int blockLen = len / numBlocks;
+
+        for (int half=len/2; half>=blockLen; half/=2) {
+            final int levelHalf = half;
+            final int step = tableStep * len / (2*half);
+            BigInteger.parallelFor(0, len/2, numThreads, new BigInteger.RangeTask() {
+                @Override
+                public void run(int fromIdx, int toIdx) {
+                    transformLevel(re, im, cos, sin, levelHalf, step, fromIdx, toIdx);
+                }
+            });
+        }
+
+        final int blockStep = tableStep * len / blockLen;
+        BigInteger.parallelFor(0, numBlocks, numThreads, new BigInteger.RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int half=blockLen/2, step=blockStep; half>=1; half/=2, step*=2)
+                    transformLevel(re, im, cos, sin, half, step, fromIdx*blockLen/2, toIdx*blockLen/2);
+            }
+        });
+    }
+
+    /**
+     * Performs the butterflies of one level of {@link #transform(double[], double[], double[][], int)}.
+     * Butterfly {@code k} combines the elements {@code 2k-j} and {@code 2k-j+half}, where
+     * {@code j=k mod half}.
+     * @param re real parts
+     * @param im imaginary parts
+     * @param cos the cosines returned by {@link #getRoots(int)}
+     * @param sin the sines returned by {@link #getRoots(int)}
+     * @param half the distance between the two elements of a butterfly
+     * @param step the distance between consecutive roots in the table
+     * @param fromK the first butterfly
+     * @param toK the index after the last butterfly
+     */
+    private static void transformLevel(double[] re, double[] im, double[] cos, double[] sin, int half, int step, int fromK, int toK) {
+        for (int k=fromK; k<toK; k++) {
+            int j = k & (half-1);
+            int idx0 = 2*k - j;
+            int idx1 = idx0 + half;
+            double ur = re[idx0];
+            double ui = im[idx0];
+            double vr = re[idx1];
+            double vi = im[idx1];
+            re[idx0] = ur + vr;
+            im[idx0] = ui + vi;
+            double dr = ur - vr;
+            double di = ui - vi;
+            double wr = cos[j*step];
+            double wi = sin[j*step];
+            // multiply by conj(w)
+            re[idx1] = dr*wr + di*wi;
+            im[idx1] = di*wr - dr*wi;
+        }
+    }
+
+    /**
+     * Performs an inverse FFT, without the division by the length, using decimation in time.
+     * The input is in bit-reversed order and the output is in natural order.<br/>
+     * This is the reverse of {@link #transform(double[], double[], double[][], int)}: each block is
+     * done by a single thread first, then the last levels are split among the threads.
+     * @param re real parts
+     * @param im imaginary parts
+     * @param roots the table returned by {@link #getRoots(int)}
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     */
+    private static void inverseTransform(final double[] re, final double[] im, double[][] roots, int numThreads) {
+        int len = re.length;
+        final double[] cos = roots[0];
+        final double[] sin = roots[1];
+        final int tableStep = 2 * cos.length / len;
+        int numBlocks = getNumBlocks(len, numThreads);
+        final int blockLen = len / numBlocks;
+
+        final int blockStep = tableStep * len / 2;
+        BigInteger.parallelFor(0, numBlocks, numThreads, new BigInteger.RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int half=1, step=blockStep; half<blockLen; half*=2, step/=2)
+                    inverseTransformLevel(re, im, cos, sin, half, step, fromIdx*blockLen/2, toIdx*blockLen/2);
+            }
+        });
+
+        for (int half=blockLen; half<len; half*=2) {
+            final int levelHalf = half;
+            final int step = tableStep * len / (2*half);
+            BigInteger.parallelFor(0, len/2, numThreads, new BigInteger.RangeTask() {
+                @Override
+                public void run(int fromIdx, int toIdx) {
+                    inverseTransformLevel(re, im, cos, sin, levelHalf, step, fromIdx, toIdx);
+                }
+            });
+        }
+    }
+
+    /**
+     * Performs the butterflies of one level of {@link #inverseTransform(double[], double[], double[][], int)}.
+     * @see #transformLevel(double[], double[], double[], double[], int, int, int, int)
+     */
+    private static void inverseTransformLevel(double[] re, double[] im, double[] cos, double[] sin, int half, int step, int fromK, int toK) {
+        for (int k=fromK; k<toK; k++) {
+            int j = k & (half-1);
+            int idx0 = 2*k - j;
+            int idx1 = idx0 + half;
+            double wr = cos[j*step];
+            double wi = sin[j*step];
+            double xr = re[idx1];
+            double xi = im[idx1];
+            double vr = xr*wr - xi*wi;
+            double vi = xr*wi + xi*wr;
+            double ur = re[idx0];
+            double ui = im[idx0];
+            re[idx0] = ur + vr;
+            im[idx0] = ui + vi;
+            re[idx1] = ur - vr;
+            im[idx1] = ui - vi;
+        }
+    }
+}
@@ -93,6 +93,16 @@ class MutableBigInteger {
      */
     static final int KNUTH_POW2_THRESH_ZEROS = 3;
 
+    /**
+     * The minimum {@code intLen} of both factors for multiplying with the
+     * algorithms of {@link BigInteger#multiply(BigInteger)}.
+     * If either factor is shorter than this threshold, {@code multiply}
+     * uses the schoolbook algorithm, which processes two ints of {@code this}
+     * per pass and is faster than Karatsuba at these lengths.  This value is
+     * found experimentally to work well.
+     */
+    static final int FAST_MULTIPLY_THRESHOLD = 100;
+
     // Constructors
 
     /**
@@ -700,25 +710,6 @@ class MutableBigInteger {
         val[offset+intLen-1] <<= n;
     }
 
-    /**
-     * Returns a {@code BigInteger} equal to the {@code n}
-     * low ints of this number.
-     */
-    private BigInteger getLower(int n) {
-        if (isZero()) {
-            return BigInteger.ZERO;
-        } else if (intLen < n) {
-            return toBigInteger(1);
-        } else {
-            // strip zeros
-            int len = n;
-            while (len > 0 && value[offset+intLen-len] == 0)
-                len--;
-            int sign = len > 0 ? 1 : 0;
-            return new BigInteger(Arrays.copyOfRange(value, offset+intLen-len, offset+intLen), sign);
-        }
-    }
-
     /**
      * Discards all ints whose index is greater than {@code n}.
      */
@@ -997,11 +988,28 @@ class MutableBigInteger {
 
     /**
      * Multiply the contents of two MutableBigInteger objects. The result is
-     * placed into MutableBigInteger z. The contents of y are not changed.
+     * placed into MutableBigInteger z. The contents of y are not changed.<br/>
+     * Factors of at least {@link #FAST_MULTIPLY_THRESHOLD} ints are multiplied
+     * with the algorithms {@code BigInteger} uses, which write the product
+     * into {@code z.value} directly.
      */
     void multiply(MutableBigInteger y, MutableBigInteger z) {
         int xLen = intLen;
         int yLen = y.intLen;
+        if (xLen>=FAST_MULTIPLY_THRESHOLD && yLen>=FAST_MULTIPLY_THRESHOLD) {
+            int newLen = xLen + yLen;
+            if (z.value.length < newLen)
+                z.value = new int[newLen];
+            BigInteger.multiplyRange(value, offset+xLen, xLen, y.value, y.offset+yLen, yLen, z.value, newLen);
+            z.offset = 0;
+            z.intLen = newLen;
+            z.normalize();
+            return;
+        }
+        if (xLen == 0) {
+            z.offset = z.intLen = 0;
+            return;
+        }
         int newLen = xLen + yLen;
 
         // Put z into an appropriate state to receive product
@@ -1020,8 +1028,17 @@ class MutableBigInteger {
         }
         z.value[xLen-1] = (int)carry;
 
+        // Perform the multiplication two words at a time
+        int i = xLen - 2;
+        if (BigInteger.IS64BIT && yLen>0)
+            for (; i >= 1; i-=2) {
+                long top = BigInteger.mulAdd2(z.value, yLen+i, y.value, y.offset, yLen, value[i+offset], value[i-1+offset], 0);
+                z.value[i] = (int)top;
+                z.value[i-1] = (int)(top >>> 32);
+            }
+
         // Perform the multiplication word by word
-        for (int i = xLen-2; i >= 0; i--) {
+        for (; i >= 0; i--) {
             carry = 0;
             for (int j=yLen-1, k=yLen+i; j >= 0; j--, k--) {
                 long product = (y.value[j+y.offset] & LONG_MASK) *
@@ -1284,6 +1301,7 @@ class MutableBigInteger {
             // step 7: z[t-2] = [a[t-1], a[t-2]]
             MutableBigInteger z = aShifted.getBlock(t-2, t, n);    // the second to most significant block
             z.addDisjoint(a1, n);   // z[t-2]
+            ScratchArena.release(a1.value);
 
             // do schoolbook division on blocks, dividing 2-block numbers by 1-block numbers
             MutableBigInteger qi = new MutableBigInteger();
@@ -1291,14 +1309,17 @@ class MutableBigInteger {
             for (int i=t-2; i > 0; i--) {
                 // step 8a: compute (qi,ri) such that z=b*qi+ri
                 ri = z.divide2n1n(bShifted, qi);
+                ScratchArena.release(z.value);
 
                 // step 8b: z = [ri, a[i-1]]
                 z = aShifted.getBlock(i-1, t, n);   // a[i-1]
                 z.addDisjoint(ri, n);
+                ScratchArena.release(ri.value);
                 quotient.addShifted(qi, i*n);   // update q (part of step 9)
             }
             // final iteration of step 8: do the loop one more time for i=0 but leave z unchanged
             ri = z.divide2n1n(bShifted, qi);
+            ScratchArena.release(z.value);
             quotient.add(qi);
 
             ri.rightShift(sigma);   // step 9: a and b were shifted, so shift back
@@ -1325,16 +1346,18 @@ class MutableBigInteger {
         }
 
         // step 2: view this as [a1,a2,a3,a4] where each ai is n/2 ints or less
-        MutableBigInteger aUpper = new MutableBigInteger(this);
+        MutableBigInteger aUpper = borrowCopy(this);
         aUpper.safeRightShift(32*(n/2));   // aUpper = [a1,a2,a3]
         keepLower(n/2);   // this = a4
 
         // step 3: q1=aUpper/b, r1=aUpper%b
         MutableBigInteger q1 = new MutableBigInteger();
         MutableBigInteger r1 = aUpper.divide3n2n(b, q1);
+        ScratchArena.release(aUpper.value);
 
         // step 4: quotient=[r1,this]/b, r2=[r1,this]%b
         addDisjoint(r1, n/2);   // this = [r1,this]
+        ScratchArena.release(r1.value);
         MutableBigInteger r2 = divide3n2n(b, quotient);
 
         // step 5: let quotient=[q1,quotient] and return r2
@@ -1355,22 +1378,27 @@ class MutableBigInteger {
         int n = b.intLen / 2;   // half the length of b in ints
 
         // step 1: view this as [a1,a2,a3] where each ai is n ints or less; let a12=[a1,a2]
-        MutableBigInteger a12 = new MutableBigInteger(this);
+        MutableBigInteger a12 = borrowCopy(this);
         a12.safeRightShift(32*n);
 
         // step 2: view b as [b1,b2] where each bi is n ints or less
-        MutableBigInteger b1 = new MutableBigInteger(b);
+        MutableBigInteger b1 = borrowCopy(b);
         b1.safeRightShift(n * 32);
-        BigInteger b2 = b.getLower(n);
+        MutableBigInteger b2 = new MutableBigInteger(b.value);   // shares b's array and is only read
+        b2.offset = b.offset + b.intLen - n;
+        b2.intLen = n;
+        b2.normalize();
 
         MutableBigInteger r;
         MutableBigInteger d;
         if (compareShifted(b, n) < 0) {
             // step 3a: if a1<b1, let quotient=a12/b1 and r=a12%b1
             r = a12.divide2n1n(b1, quotient);
+            ScratchArena.release(a12.value);
 
             // step 4: d=quotient*b2
-            d = new MutableBigInteger(quotient.toBigInteger().multiply(b2));
+            d = new MutableBigInteger();
+            quotient.multiply(b2, d);
         } else {
             // step 3b: if a1>=b1, let quotient=beta^n-1 and r=a12-b1*2^n+b1
             quotient.ones(n);
@@ -1382,8 +1410,9 @@ class MutableBigInteger {
             // step 4: d=quotient*b2=(b2 << 32*n) - b2
             d = new MutableBigInteger(b2);
             d.leftShift(32 * n);
-            d.subtract(new MutableBigInteger(b2));
+            d.subtract(b2);
         }
+        ScratchArena.release(b1.value);
 
         // step 5: r = r*beta^n + a3 - d (paper says a4)
         // However, don't subtract d until after the while loop so r doesn't become negative
@@ -1425,8 +1454,29 @@ class MutableBigInteger {
             return new MutableBigInteger();
         }
 
-        int[] newVal = Arrays.copyOfRange(value, offset+intLen-blockEnd, offset+intLen-blockStart);
-        return new MutableBigInteger(newVal);
+        // leave room for the other half when the block is turned into a 2-block number
+        int len = blockEnd - blockStart;
+        int[] newVal = ScratchArena.borrowInts(2*blockLength);
+        System.arraycopy(value, offset+intLen-blockEnd, newVal, newVal.length-len, len);
+        MutableBigInteger block = new MutableBigInteger(newVal);
+        block.offset = newVal.length - len;
+        block.intLen = len;
+        return block;
+    }
+
+    /**
+     * Returns a copy of {@code val} whose {@code value} array is borrowed from the
+     * {@link ScratchArena}. The number is stored at the end of the array.<br/>
+     * Used by Burnikel-Ziegler division for temporary values.
+     */
+    private static MutableBigInteger borrowCopy(MutableBigInteger val) {
+        int len = val.intLen;
+        int[] newVal = ScratchArena.borrowInts(len);
+        System.arraycopy(val.value, val.offset, newVal, newVal.length-len, len);
+        MutableBigInteger copy = new MutableBigInteger(newVal);
+        copy.offset = newVal.length - len;
+        copy.intLen = len;
+        return copy;
     }
 
     /** @see BigInteger#bitLength() */
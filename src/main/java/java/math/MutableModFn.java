@@ -36,13 +36,48 @@ import java.util.Arrays;
  * The value is stored in the {@code digits} array as a number in base 2<sup>64</sup>
  * starting with the highest digit (same format as {@link BigInteger#mag} except
  * it is a {@code long[]}, not an {@code int[]}).
- * The length of the array is 2<sup>n-6</sup>+1 which implicitly determines n.
+ * The number occupies {@code length} elements starting at {@code offset}, which allows all
+ * coefficients of a Schoenhage-Strassen vector to share one contiguous array
+ * (see {@link #newVector(int, int)}).
+ * The length is 2<sup>n-6</sup>+1 which implicitly determines n.
  *
  * @see BigInteger#multiplySchoenhageStrassen(BigInteger, BigInteger, int)
  * @author Timothy Buktu
  */
 class MutableModFn {
-    long[] digits;
+    /**
+     * The number of 64-bit digits below which Karatsuba squaring is no faster than
+     * the schoolbook method in {@link #square()}.
+     */
+    private static final int KARATSUBA_SQUARE_THRESHOLD = 60;
+
+    /**
+     * The number of 64-bit digits at which {@link #multiply(MutableModFn)} switches from the
+     * schoolbook method on 64-bit digits to {@link BigInteger#multiply(BigInteger)}. Java 8 has
+     * no intrinsic for the upper half of a 64-bit product, so the 32-bit kernels behind
+     * {@code BigInteger} are faster from here on even though this is below
+     * {@code BigInteger}'s own Karatsuba threshold. {@code BigInteger} uses Karatsuba and
+     * 3-way Toom-Cook up to its FFT threshold of 1400 ints, i.e. 700 digits.
+     */
+    private static final int BIGINTEGER_MULTIPLY_THRESHOLD = 32;
+
+    /**
+     * The number of 64-bit digits at which {@link #square()} switches from the built-in
+     * Karatsuba code to {@link BigInteger#square()}, which uses 3-way Toom-Cook squaring
+     * from here on up to its FFT squaring threshold of 2600 ints, i.e. 1300 digits.
+     */
+    private static final int BIGINTEGER_SQUARE_THRESHOLD = 128;
+
+    /**
+     * The number of 64-bit digits at which {@link #multiply(MutableModFn)} and {@link #square()}
+     * switch from a full product followed by a reduction to a negacyclic Schoenhage-Strassen
+     * convolution which computes the product modulo F<sub>n</sub> directly.
+     */
+    private static final int SCHOENHAGE_STRASSEN_THRESHOLD = 256;
+
+    final long[] digits;
+    final int offset;
+    final int length;
 
     /**
      * Creates a {@code MutableModFn} number from a {@code long} array whose length
@@ -53,7 +88,20 @@ class MutableModFn {
      * @param digits an long array in the same format as {@link BigInteger#mag}
      */
     MutableModFn(long[] digits) {
+        this(digits, 0, digits.length);
+    }
+
+    /**
+     * Creates a {@code MutableModFn} number from a range of a {@code long} array.
+     * No copy of the array is made.
+     * @param digits the array that holds the number
+     * @param offset the index of the highest digit
+     * @param length the number of digits; must be 2<sup>n-6</sup>+1 for some n
+     */
+    MutableModFn(long[] digits, int offset, int length) {
         this.digits = digits;
+        this.offset = offset;
+        this.length = length;
     }
 
     /**
@@ -61,7 +109,22 @@ class MutableModFn {
      * @param length
      */
     MutableModFn(int length) {
-        digits = new long[length];
+        this(new long[length]);
+    }
+
+    /**
+     * Creates {@code count} zero values of {@code length} digits each which are backed by
+     * a single array.
+     * @param count the number of values
+     * @param length the number of digits in each value; must be 2<sup>n-6</sup>+1 for some n
+     * @return an array of {@code count} {@code MutableModFn}s
+     */
+    static MutableModFn[] newVector(int count, int length) {
+        long[] data = new long[count*length];
+        MutableModFn[] a = new MutableModFn[count];
+        for (int i=0; i<count; i++)
+            a[i] = new MutableModFn(data, i*length, length);
+        return a;
     }
 
     /**
@@ -69,7 +132,7 @@ class MutableModFn {
      * @param b
      */
     void copyTo(MutableModFn b) {
-        System.arraycopy(digits, 0, b.digits, 0, digits.length);
+        System.arraycopy(digits, offset, b.digits, b.offset, length);
     }
 
     /**
@@ -78,20 +141,20 @@ class MutableModFn {
      */
     void add(MutableModFn b) {
         boolean carry = false;
-        for (int i=digits.length-1; i>=0; i--) {
-            long sum = digits[i] + b.digits[i];
+        for (int i=length-1; i>=0; i--) {
+            long sum = digits[offset+i] + b.digits[b.offset+i];
             if (carry)
                 sum++;
-            carry = ((sum>>>63) < (digits[i]>>>63)+(b.digits[i]>>>63));   // carry if signBit(sum) < signBit(digits[i])+signBit(addend[i])
-            digits[i] = sum;
+            carry = ((sum>>>63) < (digits[offset+i]>>>63)+(b.digits[b.offset+i]>>>63));   // carry if signBit(sum) < signBit(digits[i])+signBit(addend[i])
+            digits[offset+i] = sum;
         }
 
         // take a mod Fn by adding any remaining carry bit to the lowest bit;
         // since Fn is congruent to 1 (mod 2^n), it suffices to add 1
-        int i = digits.length - 1;
+        int i = length - 1;
         while (carry && i>=0) {
-            long sum = digits[i] + 1;
-            digits[i] = sum;
+            long sum = digits[offset+i] + 1;
+            digits[offset+i] = sum;
             carry = sum == 0;
             i--;
         }
@@ -105,22 +168,22 @@ class MutableModFn {
      */
     void subtract(MutableModFn b) {
         boolean borrow = false;
-        for (int i=digits.length-1; i>=0; i--) {
-            long diff = digits[i] - b.digits[i];
+        for (int i=length-1; i>=0; i--) {
+            long diff = digits[offset+i] - b.digits[b.offset+i];
             if (borrow)
                 diff--;
-            borrow = ((diff>>>63) > (digits[i]>>>63)-(b.digits[i]>>>63));   // borrow if signBit(diff) > signBit(digits[i])-signBit(b.digits[i])
-            digits[i] = diff;
+            borrow = ((diff>>>63) > (digits[offset+i]>>>63)-(b.digits[b.offset+i]>>>63));   // borrow if signBit(diff) > signBit(digits[i])-signBit(b.digits[i])
+            digits[offset+i] = diff;
         }
 
         // if we borrowed from the most significant long, subtract 2^2^n which is the same as adding 1 (mod Fn)
         if (borrow) {
-            digits[0]++;   // undo borrow
-            int i = digits.length - 1;
+            digits[offset]++;   // undo borrow
+            int i = length - 1;
             boolean carry = true;
             while (carry && i>=0) {
-                long sum = digits[i] + 1;
-                digits[i] = sum;
+                long sum = digits[offset+i] + 1;
+                digits[offset+i] = sum;
                 carry = sum == 0;
                 i--;
             }
@@ -128,29 +191,88 @@ class MutableModFn {
     }
 
     /**
-     * Multiplies this number by another {@code MutableModFn}.
+     * Sets this number to <code>this+b</code> and {@code c} to <code>this-b</code> in a single pass
+     * over the digits. This is the add/subtract part of a DFT butterfly.<br/>
+     * Unlike {@link #add(MutableModFn)} and {@link #subtract(MutableModFn)}, this method does not
+     * reduce the results modulo F<sub>n</sub>: carries and borrows out of the lower digits go into
+     * {@code digits[0]} which becomes a small signed value. The inputs may be unreduced as well.
+     * {@link #reduceSigned()} must be called before a result is used in any other operation.
+     * @param b
+     * @param c the return value for the difference; must not be the same object as {@code this}
+     */
+    void addSubtractLazy(MutableModFn b, MutableModFn c) {
+        boolean carry = false;
+        boolean borrow = false;
+        for (int i=length-1; i>0; i--) {
+            long ai = digits[offset+i];
+            long bi = b.digits[b.offset+i];
+            long sum = ai + bi;
+            if (carry)
+                sum++;
+            carry = ((sum>>>63) < (ai>>>63)+(bi>>>63));   // carry if signBit(sum) < signBit(a)+signBit(b)
+            long diff = ai - bi;
+            if (borrow)
+                diff--;
+            borrow = ((diff>>>63) > (ai>>>63)-(bi>>>63));   // borrow if signBit(diff) > signBit(a)-signBit(b)
+            digits[offset+i] = sum;
+            c.digits[c.offset+i] = diff;
+        }
+
+        long a0 = digits[offset];
+        long b0 = b.digits[b.offset];
+        digits[offset] = carry ? a0+b0+1 : a0+b0;
+        c.digits[c.offset] = borrow ? a0-b0-1 : a0-b0;
+    }
+
+    /**
+     * Multiplies this number by another {@code MutableModFn}.<br/>
+     * Short numbers are multiplied directly on the 64-bit digits, and the product is reduced
+     * modulo F<sub>n</sub> as it is copied back. Longer ones are multiplied with
+     * {@link BigInteger#multiply(BigInteger)} which has asymptotically faster algorithms.
      * @param b
      */
     void multiply(MutableModFn b) {
-        // if a=b=2^n, a*b=1 (mod Fn)
-        if (digits[0]==1 && b.digits[0]==1) {
-            Arrays.fill(digits, 0);
-            digits[digits.length-1] = 1;
+        multiply(b, 1);
+    }
+
+    /**
+     * Multiplies this number by another {@code MutableModFn} using a specified number of threads
+     * if the numbers are long enough.
+     * @param b
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @see #multiply(MutableModFn)
+     */
+    void multiply(MutableModFn b, int numThreads) {
+        // if a=2^n, a*b=-b (mod Fn); if b=2^n, a*b=-a (mod Fn)
+        if (digits[offset] == 1) {
+            if (b.digits[b.offset] == 1) {   // (-1)*(-1) = 1
+                Arrays.fill(digits, offset, offset+length, 0);
+                digits[offset+length-1] = 1;
+            }
+            else {
+                b.copyTo(this);
+                negate();
+            }
+            return;
+        }
+        if (b.digits[b.offset] == 1) {
+            negate();
+            return;
         }
+
         // otherwise, a*b will fit into 2*2^n bits
+        int n = length - 1;
+        if (n < BIGINTEGER_MULTIPLY_THRESHOLD) {
+            long[] c = new long[2*n];
+            multiplySchoolbook(digits, offset+length, b.digits, b.offset+b.length, n, c, 2*n);
+            reduceProduct(c);
+        }
+        else if (n>=SCHOENHAGE_STRASSEN_THRESHOLD && getSchoenhageStrassenParams(n)!=null)
+            multiplySchoenhageStrassen(b, numThreads);
         else {
-            int[] intDigits = toIntArrayOdd(digits);
-            BigInteger aBigInt = new BigInteger(1, intDigits);
-            int[] intBDigits = toIntArrayOdd(b.digits);
-            BigInteger bBigInt = new BigInteger(1, intBDigits);
-            int[] cInt = aBigInt.multiply(bBigInt).mag;
-            // zero-pad c to make it 2*2^n in length, and convert it to long[]
-            int[] cIntPad = new int[intDigits.length-1+intBDigits.length-1];
-            System.arraycopy(cInt, 0, cIntPad, cIntPad.length-cInt.length, cInt.length);
-            long[] c = toLongArrayEven(cIntPad);
-            // reduce c mod Fn which makes the first c.length/2-1 longs zero; return the others
-            reduceWide(c);
-            System.arraycopy(c, c.length/2-1, digits, 0, c.length/2+1);
+            BigInteger aBigInt = toBigInteger();
+            BigInteger bBigInt = b.toBigInteger();
+            reduceProduct(aBigInt.multiply(bBigInt, numThreads).mag);
         }
     }
 
@@ -159,118 +281,521 @@ class MutableModFn {
      * @see #multiply(MutableModFn)
      */
     void square() {
+        square(1);
+    }
+
+    /**
+     * Squares this number using a specified number of threads if the number is long enough.
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @see #multiply(MutableModFn, int)
+     */
+    void square(int numThreads) {
         // if a=2^n, a^2=1 (mod Fn)
-        if (digits[0] == 1) {
-            Arrays.fill(digits, 0);
-            digits[digits.length-1] = 1;
+        if (digits[offset] == 1) {
+            Arrays.fill(digits, offset, offset+length, 0);
+            digits[offset+length-1] = 1;
+            return;
         }
+
         // otherwise, a^2 will fit into 2*2^n bits
-        else {
-            int[] intDigits = toIntArrayOdd(digits);
-            BigInteger aBigInt = new BigInteger(1, intDigits);
-            int[] cInt = aBigInt.square().mag;
-            // zero-pad cInt to make it 2*2^n bits in length, and convert it to long[]
-            int[] cIntPad = new int[2*intDigits.length-2];
-            System.arraycopy(cInt, 0, cIntPad, cIntPad.length-cInt.length, cInt.length);
-            long[] c = toLongArrayEven(cIntPad);
-            // reduce c mod Fn which makes the first c.length/2-1 longs zero; return the others
-            reduceWide(c);
-            System.arraycopy(c, c.length/2-1, digits, 0, c.length/2+1);
+        int n = length - 1;
+        if (n < BIGINTEGER_SQUARE_THRESHOLD) {
+            long[] c = new long[2*n];
+            long[] scratch = new long[getKaratsubaScratchSize(n)];
+            squareKaratsuba(digits, offset+length, n, c, 2*n, scratch, 0);
+            reduceProduct(c);
         }
+        else if (n>=SCHOENHAGE_STRASSEN_THRESHOLD && getSchoenhageStrassenParams(n)!=null)
+            multiplySchoenhageStrassen(null, numThreads);
+        else
+            reduceProduct(toBigInteger().square(numThreads).mag);
     }
 
     /**
-     * Reduces this number modulo F<sub>n</sub>.<br/>
-     * {@code digits[0]} will be 0 or 1.
+     * Multiplies this number by another {@code MutableModFn} using a negacyclic Schoenhage-Strassen
+     * convolution, i.e. without computing the full product.<br/>
+     * Both numbers are split into K=2<sup>k</sup> pieces of M bits each. Since 2<sup>KM</sup> is
+     * congruent to -1 modulo F<sub>n</sub>, the product is the negacyclic convolution of the pieces
+     * evaluated at 2<sup>M</sup>. The convolution is computed modulo 2<sup>N'</sup>+1 with
+     * N'&gt;2M+k+1, which is large enough to recover the coefficients including their signs. The
+     * pointwise products modulo 2<sup>N'</sup>+1 use {@link #multiply(MutableModFn)}, so this
+     * method recurses if they are long enough.
+     * Neither number may be 2<sup>2<sup>n</sup></sup>.
+     * @param b the other factor, or {@code null} to square this number
+     * @param numThreads number of threads to use; 1 means run on the current thread
      */
-    private void reduce() {
-        // Reduction modulo Fn is done by subtracting the most significant long from the least significant long
-        int len = digits.length;
-        long bi = digits[0];
-        long diff = digits[len-1] - bi;
-        boolean borrow = ((diff>>>63) > (digits[len-1]>>>63)-(bi>>>63));   // borrow if signBit(diff) > signBit(digits[len-1])-signBit(digits[0])
-        digits[len-1] = diff;
-        digits[0] = 0;   // because we subtracted digits[0] from digits[len-1]
-        if (borrow) {
-            int i = len - 2;
-            do {
-                diff = digits[i] - 1;
-                digits[i] = diff;
-                borrow = diff == -1;
-                i--;
-            } while (borrow && i>=0);
+    private void multiplySchoenhageStrassen(MutableModFn b, int numThreads) {
+        int n = length - 1;
+        int[] params = getSchoenhageStrassenParams(n);
+        int k = params[0];
+        int innerLength = params[1];   // N'/64
+        int numPieces = 1 << k;
+        int pieceLength = n / numPieces;   // M/64
+
+        MutableModFn[] a = splitPieces(numPieces, innerLength+1);
+        MutableModFn[] c = BigInteger.multiplyTruncated(a, b==null ? null : b.splitPieces(numPieces, innerLength+1), k, 1, 64*innerLength, numThreads);
+
+        // Add up the coefficients shifted by multiples of M bits. Negative coefficients are negated
+        // and added to a separate sum, so the result is pos-neg. Coefficients are less than
+        // 2^(2M+k) in absolute value.
+        long[] pos = new long[2*n];
+        long[] neg = null;
+        int coeffLength = 2*pieceLength + 1;   // in longs
+        for (int j=0; j<numPieces; j++) {
+            MutableModFn cj = c[j];
+            long[] sum = pos;
+            if (cj.digits[cj.offset]==1 || cj.digits[cj.offset+1]<0) {   // cj > (2^N'+1)/2 means it is negative
+                cj.negate();
+                if (neg == null)
+                    neg = new long[2*n];
+                sum = neg;
+            }
+            int sumEnd = 2*n - j*pieceLength;
+            addTo(sum, sumEnd, sumEnd, cj.digits, cj.offset+cj.length, Math.min(coeffLength, sumEnd));
         }
 
-        // if we borrowed from the most significant long, subtract 2^2^n which is the same as adding 1 (mod Fn)
+        reduceProduct(pos);
+        if (neg != null) {
+            MutableModFn negReduced = new MutableModFn(length);
+            negReduced.reduceProduct(neg);
+            subtract(negReduced);
+        }
+    }
+
+    /**
+     * Chooses the parameters for {@link #multiplySchoenhageStrassen(MutableModFn, int)}: the number of
+     * pieces K=2<sup>k</sup>, which must divide {@code n}, and the inner modulus N', which must be
+     * a multiple of 64 and of K. The combination with the lowest estimated cost is chosen.
+     * @param n the number of 64-bit digits of the outer modulus, not counting {@code digits[0]}
+     * @return an array containing {@code k} and N'/64, or {@code null} if {@code n} does not allow
+     *         at least 16 pieces
+     */
+    private static int[] getSchoenhageStrassenParams(int n) {
+        int maxK = Integer.numberOfTrailingZeros(n);
+        int bestK = 0;
+        int bestInnerLength = 0;
+        double bestCost = Double.MAX_VALUE;
+        for (int k=4; k<=maxK; k++) {
+            int numPieces = 1 << k;
+            int pieceLength = n / numPieces;
+            int unit = Math.max(1, numPieces/64);
+            int innerLength = (2*pieceLength + 1 + unit - 1) / unit * unit;   // at least 2M+k+2 bits
+            if (innerLength >= n)
+                continue;
+
+            // pointwise products, which are mostly done with Karatsuba, plus the transforms;
+            // the weight of the transforms was determined experimentally
+            double cost = Math.pow(innerLength, 1.585);
+            cost += 1.2 * k * innerLength;
+            cost *= numPieces;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestK = k;
+                bestInnerLength = innerLength;
+            }
+        }
+        return bestK==0 ? null : new int[] {bestK, bestInnerLength};
+    }
+
+    /**
+     * Splits this number into {@code numPieces} pieces of equal length, lowest first, and pads
+     * each one to {@code pieceLength} digits. {@code digits[0]} must be 0.
+     * @param numPieces the number of pieces; must divide <code>length-1</code>
+     * @param pieceLength the length of the {@code MutableModFn}s to return
+     * @return the pieces, backed by a single array
+     */
+    private MutableModFn[] splitPieces(int numPieces, int pieceLength) {
+        MutableModFn[] pieces = newVector(numPieces, pieceLength);
+        long[] data = pieces[0].digits;
+        int sourceLength = (length-1) / numPieces;
+        for (int i=0; i<numPieces; i++)
+            System.arraycopy(digits, offset+length-(i+1)*sourceLength, data, (i+1)*pieceLength-sourceLength, sourceLength);
+        return pieces;
+    }
+
+    /**
+     * Replaces this number with F<sub>n</sub> minus this number, i.e. negates it modulo F<sub>n</sub>.
+     */
+    private void negate() {
+        int end = offset + length;
+        if (digits[offset] == 1) {   // Fn - 2^n = 1
+            digits[offset] = 0;
+            digits[end-1] = 1;
+            return;
+        }
+        int i = end - 1;
+        while (i>offset && digits[i]==0)
+            i--;
+        if (i == offset)   // zero stays zero
+            return;
+        // Fn - a = (2^n-a) + 1 where 2^n-a is the two's complement of a; digits below i stay zero
+        for (int j=offset+1; j<i; j++)
+            digits[j] = ~digits[j];
+        digits[i] = -digits[i];
+        // add 1
+        boolean carry = true;
+        for (int j=end-1; carry && j>offset; j--) {
+            digits[j]++;
+            carry = digits[j] == 0;
+        }
+        if (carry)
+            digits[offset] = 1;
+    }
+
+    /**
+     * Sets this number to a product modulo F<sub>n</sub>, where the product is given as the
+     * 64-bit digits of a number of up to <code>2*(length-1)</code> digits, highest digit first.
+     * Since 2<sup>2<sup>n</sup></sup> is congruent to -1, the result is the lower half minus
+     * the upper half.
+     * @param c the product
+     */
+    private void reduceProduct(long[] c) {
+        int n = length - 1;
+        int end = offset + length;
+        boolean borrow = false;
+        for (int i=0; i<n; i++) {
+            int lowIdx = c.length - 1 - i;
+            long lo = lowIdx>=0 ? c[lowIdx] : 0;
+            long hi = lowIdx-n>=0 ? c[lowIdx-n] : 0;
+            long diff = lo - hi;
+            if (borrow)
+                diff--;
+            borrow = ((diff>>>63) > (lo>>>63)-(hi>>>63));   // borrow if signBit(diff) > signBit(lo)-signBit(hi)
+            digits[end-1-i] = diff;
+        }
+        finishReduction(borrow);
+    }
+
+    /**
+     * Like {@link #reduceProduct(long[])} but the product is given as an {@code int} array in the
+     * format of {@link BigInteger#mag}.
+     * @param c the product
+     */
+    private void reduceProduct(int[] c) {
+        int n = length - 1;
+        int end = offset + length;
+        boolean borrow = false;
+        for (int i=0; i<n; i++) {
+            long lo = getLong(c, i);
+            long hi = getLong(c, i+n);
+            long diff = lo - hi;
+            if (borrow)
+                diff--;
+            borrow = ((diff>>>63) > (lo>>>63)-(hi>>>63));   // borrow if signBit(diff) > signBit(lo)-signBit(hi)
+            digits[end-1-i] = diff;
+        }
+        finishReduction(borrow);
+    }
+
+    /** Returns the {@code i}-th lowest 64-bit digit of a number in the format of {@link BigInteger#mag}. */
+    private static long getLong(int[] c, int i) {
+        int lowIdx = c.length - 1 - 2*i;
+        long lo = lowIdx>=0 ? c[lowIdx]&0xFFFFFFFFL : 0;
+        long hi = lowIdx>=1 ? c[lowIdx-1] : 0;
+        return (hi<<32) | lo;
+    }
+
+    /**
+     * Sets {@code digits[0]} after the low digits have been set to the lower half of a product
+     * minus the upper half. If the difference is negative, F<sub>n</sub> is added.
+     * @param borrow whether the difference is negative
+     */
+    private void finishReduction(boolean borrow) {
+        digits[offset] = 0;
+        // the difference wrapped around to 2^n plus a negative number; add Fn-2^n=1
         if (borrow) {
-            int i = digits.length - 1;
             boolean carry = true;
-            digits[0] = 0;   // increment digits[0] by 1 to make it 0
-            while (carry && i>=0) {
-                long sum = digits[i] + 1;
-                digits[i] = sum;
-                carry = sum == 0;
-                i--;
+            for (int j=offset+length-1; carry && j>offset; j--) {
+                digits[j]++;
+                carry = digits[j] == 0;
+            }
+            if (carry)
+                digits[offset] = 1;
+        }
+    }
+
+    /** Returns this number as a positive {@code BigInteger}; {@code digits[0]} must be 0. */
+    private BigInteger toBigInteger() {
+        int i = offset + 1;
+        int end = offset + length;
+        while (i<end && digits[i]==0)
+            i++;
+        if (i == end)
+            return BigInteger.ZERO;
+        boolean odd = digits[i] >>> 32 == 0;   // whether the highest int is zero
+        int[] mag = new int[2*(end-i) - (odd?1:0)];
+        int k = mag.length - 1;
+        for (int j=end-1; j>=i; j--) {
+            mag[k--] = (int)digits[j];
+            if (k >= 0)
+                mag[k--] = (int)(digits[j] >>> 32);
+        }
+        return new BigInteger(mag, 1);
+    }
+
+    /**
+     * Returns the number of scratch digits {@link #squareKaratsuba(long[], int, int, long[], int, long[], int)}
+     * needs for numbers of {@code n} digits, including the scratch space for the recursive calls.
+     */
+    private static int getKaratsubaScratchSize(int n) {
+        if (n < KARATSUBA_SQUARE_THRESHOLD)
+            return 0;
+        int hh = n - n/2;
+        // xs of hh+1 digits plus t of 2*hh+2 digits
+        return 3*hh + 3 + getKaratsubaScratchSize(hh+1);
+    }
+
+    /**
+     * Squares a number of {@code n} 64-bit digits, given highest digit first, using
+     * Karatsuba squaring if it is long enough.
+     * Array regions are specified by the index following the lowest digit.
+     * @param x the number to square
+     * @param xEnd the index after the last (lowest) digit of {@code x}
+     * @param n the number of digits in {@code x}
+     * @param z the array to store the square in; the {@code 2*n} digits before {@code zEnd} must be 0
+     * @param zEnd the index after the last (lowest) digit of the square
+     * @param scratch temporary storage for the intermediate sums and products
+     * @param scratchOff the first index of {@code scratch} that may be used; at least
+     *        {@link #getKaratsubaScratchSize(int) getKaratsubaScratchSize(n)} digits must follow it
+     */
+    private static void squareKaratsuba(long[] x, int xEnd, int n, long[] z, int zEnd, long[] scratch, int scratchOff) {
+        if (n < KARATSUBA_SQUARE_THRESHOLD) {
+            squareSchoolbook(x, xEnd, n, z, zEnd);
+            return;
+        }
+
+        int h = n / 2;
+        int hh = n - h;
+        int xsEnd = scratchOff + hh + 1;
+        int tEnd = xsEnd + 2*hh + 2;
+        squareKaratsuba(x, xEnd, h, z, zEnd, scratch, tEnd);
+        squareKaratsuba(x, xEnd-h, hh, z, zEnd-2*h, scratch, tEnd);
+
+        // t = (x0+x1)^2 - x0^2 - x1^2
+        Arrays.fill(scratch, scratchOff, tEnd, 0);
+        addTo(scratch, xsEnd, hh+1, x, xEnd-h, hh);
+        addTo(scratch, xsEnd, hh+1, x, xEnd, h);
+        squareKaratsuba(scratch, xsEnd, hh+1, scratch, tEnd, scratch, tEnd);
+        subtractFrom(scratch, tEnd, 2*hh+2, z, zEnd, 2*h);
+        subtractFrom(scratch, tEnd, 2*hh+2, z, zEnd-2*h, 2*hh);
+
+        addTo(z, zEnd-h, 2*n-h, scratch, tEnd, 2*hh+1);
+    }
+
+    /**
+     * Multiplies two numbers of {@code n} 64-bit digits each, given highest digit first,
+     * using the schoolbook method.
+     * Array regions are specified by the index following the lowest digit.
+     * @param x the first factor
+     * @param xEnd the index after the last (lowest) digit of {@code x}
+     * @param y the second factor
+     * @param yEnd the index after the last (lowest) digit of {@code y}
+     * @param n the number of digits in each factor
+     * @param z the array to store the product in; the {@code 2*n} digits before {@code zEnd} must be 0
+     * @param zEnd the index after the last (lowest) digit of the product
+     */
+    private static void multiplySchoolbook(long[] x, int xEnd, long[] y, int yEnd, int n, long[] z, int zEnd) {
+        for (int i=1; i<=n; i++) {
+            long xi = x[xEnd-i];
+            long xh = xi >>> 32;
+            long xl = xi & 0xFFFFFFFFL;
+            long carry = 0;
+            int k = zEnd - i;
+            for (int j=1; j<=n; j++, k--) {
+                long yj = y[yEnd-j];
+                long yh = yj >>> 32;
+                long yl = yj & 0xFFFFFFFFL;
+
+                // 128-bit product xi*yj
+                long ll = xl * yl;
+                long mid = (ll>>>32) + (xl*yh & 0xFFFFFFFFL) + (xh*yl & 0xFFFFFFFFL);
+                long lo = (mid<<32) | (ll&0xFFFFFFFFL);
+                long hi = xh*yh + (xl*yh>>>32) + (xh*yl>>>32) + (mid>>>32);
+
+                // add z[k] and the carry
+                lo += carry;
+                if (lo+Long.MIN_VALUE < carry+Long.MIN_VALUE)
+                    hi++;
+                long zk = z[k];
+                lo += zk;
+                if (lo+Long.MIN_VALUE < zk+Long.MIN_VALUE)
+                    hi++;
+                z[k] = lo;
+                carry = hi;
             }
+            z[k] = carry;
         }
     }
 
-    /** Like {@link #reduce()} but works on an array of length 2^(n+1). */
-    private static void reduceWide(long[] a) {
-        // Reduction modulo Fn is done by subtracting the upper half from the lower half
-        int len = a.length;
+    /**
+     * Squares a number of {@code n} 64-bit digits using the schoolbook method. Each product of two
+     * different digits is computed once and doubled.
+     * @see #squareKaratsuba(long[], int, int, long[], int, long[], int)
+     */
+    private static void squareSchoolbook(long[] x, int xEnd, int n, long[] z, int zEnd) {
+        // sum of x[i]*x[j] for i<j
+        for (int i=1; i<n; i++) {
+            long xi = x[xEnd-i];
+            long xh = xi >>> 32;
+            long xl = xi & 0xFFFFFFFFL;
+            long carry = 0;
+            int k = zEnd - 2*i;
+            for (int j=i+1; j<=n; j++, k--) {
+                long yj = x[xEnd-j];
+                long yh = yj >>> 32;
+                long yl = yj & 0xFFFFFFFFL;
+
+                long ll = xl * yl;
+                long mid = (ll>>>32) + (xl*yh & 0xFFFFFFFFL) + (xh*yl & 0xFFFFFFFFL);
+                long lo = (mid<<32) | (ll&0xFFFFFFFFL);
+                long hi = xh*yh + (xl*yh>>>32) + (xh*yl>>>32) + (mid>>>32);
+
+                lo += carry;
+                if (lo+Long.MIN_VALUE < carry+Long.MIN_VALUE)
+                    hi++;
+                long zk = z[k];
+                lo += zk;
+                if (lo+Long.MIN_VALUE < zk+Long.MIN_VALUE)
+                    hi++;
+                z[k] = lo;
+                carry = hi;
+            }
+            z[k] = carry;
+        }
+
+        // double it and add the squares x[i]^2
+        long shifted = 0;   // the bit shifted out of the previous digit
+        long carry = 0;
+        for (int i=1; i<=n; i++) {
+            long xi = x[xEnd-i];
+            long xh = xi >>> 32;
+            long xl = xi & 0xFFFFFFFFL;
+            long ll = xl * xl;
+            long mid = (ll>>>32) + 2*(xl*xh & 0xFFFFFFFFL);
+            long lo = (mid<<32) | (ll&0xFFFFFFFFL);
+            long hi = xh*xh + 2*(xl*xh>>>32) + (mid>>>32);
+
+            int k = zEnd - 2*i + 1;
+            long z0 = z[k];
+            long z1 = z[k-1];
+            long d0 = (z0<<1) | shifted;
+            long d1 = (z1<<1) | (z0>>>63);
+            shifted = z1 >>> 63;
+
+            // (d1,d0) + (hi,lo) + carry
+            long s0 = d0 + lo;
+            long c0 = (s0+Long.MIN_VALUE < lo+Long.MIN_VALUE) ? 1 : 0;
+            s0 += carry;
+            if (s0+Long.MIN_VALUE < carry+Long.MIN_VALUE)
+                c0++;
+            long s1 = d1 + hi;
+            long c1 = (s1+Long.MIN_VALUE < hi+Long.MIN_VALUE) ? 1 : 0;
+            s1 += c0;
+            if (s1+Long.MIN_VALUE < c0+Long.MIN_VALUE)
+                c1++;
+            z[k] = s0;
+            z[k-1] = s1;
+            carry = c1;
+        }
+    }
+
+    /**
+     * Adds the {@code xLen} digits of {@code x} that end at {@code xEnd} to the {@code zLen}
+     * digits of {@code z} that end at {@code zEnd}. A carry out of the highest digit of
+     * {@code z} is dropped.
+     */
+    private static void addTo(long[] z, int zEnd, int zLen, long[] x, int xEnd, int xLen) {
         boolean carry = false;
-        for (int i=len-1; i>=len/2; i--) {
-            long bi = a[i-len/2];
-            long diff = a[i] - bi;
+        int i = 1;
+        for (; i<=xLen; i++) {
+            long zi = z[zEnd-i];
+            long xi = x[xEnd-i];
+            long sum = zi + xi;
             if (carry)
+                sum++;
+            carry = ((sum>>>63) < (zi>>>63)+(xi>>>63));   // carry if signBit(sum) < signBit(zi)+signBit(xi)
+            z[zEnd-i] = sum;
+        }
+        for (; carry && i<=zLen; i++)
+            carry = ++z[zEnd-i] == 0;
+    }
+
+    /**
+     * Subtracts the {@code xLen} digits of {@code x} that end at {@code xEnd} from the
+     * {@code zLen} digits of {@code z} that end at {@code zEnd}. The result must not be negative.
+     */
+    private static void subtractFrom(long[] z, int zEnd, int zLen, long[] x, int xEnd, int xLen) {
+        boolean borrow = false;
+        int i = 1;
+        for (; i<=xLen; i++) {
+            long zi = z[zEnd-i];
+            long xi = x[xEnd-i];
+            long diff = zi - xi;
+            if (borrow)
                 diff--;
-            carry = ((diff>>>63) > (a[i]>>>63)-(bi>>>63));   // carry if signBit(diff) > signBit(a)-signBit(b)
-            a[i] = diff;
-        }
-        for (int i=len/2-1; i>=0; i--)
-            a[i] = 0;
-        // if result is negative, add Fn; since Fn is congruent to 1 (mod 2^n), it suffices to add 1
-        if (carry) {
-            int j = len - 1;
-            do {
-                long sum = a[j] + 1;
-                a[j] = sum;
+            borrow = ((diff>>>63) > (zi>>>63)-(xi>>>63));   // borrow if signBit(diff) > signBit(zi)-signBit(xi)
+            z[zEnd-i] = diff;
+        }
+        for (; borrow && i<=zLen; i++)
+            borrow = z[zEnd-i]-- == 0;
+    }
+
+    /**
+     * Like {@link #reduce()} but treats {@code digits[0]} as a signed number, so this method can be
+     * used on the results of {@link #addSubtractLazy(MutableModFn, MutableModFn)}.
+     * {@code digits[0]} will be 0 or 1.
+     */
+    void reduceSigned() {
+        long hi = digits[offset];
+        if (hi < 0) {
+            // since 2^2^n = -1 (mod Fn), add -hi to the least significant long
+            int i = length - 1;
+            long ai = digits[offset+i];
+            long sum = ai - hi;
+            boolean carry = ((sum>>>63) < (ai>>>63));   // -hi is positive, so carry if signBit(sum) < signBit(ai)
+            digits[offset+i] = sum;
+            i--;
+            while (carry && i>0) {
+                sum = digits[offset+i] + 1;
+                digits[offset+i] = sum;
                 carry = sum == 0;
-                j--;
-                if (j <= 0)
-                    break;
-            } while (carry);
+                i--;
+            }
+            digits[offset] = carry ? 1 : 0;
         }
+        reduce();
     }
 
-    /** Like {@link #reduceWide(long[])} but works on an int array. */
-    static void reduce(int[] digits) {
-        // Reduction modulo Fn is done by subtracting the most significant int from the least significant int
-        int len = digits.length;
-        int bi = digits[0];
-        int diff = digits[len-1] - bi;
-        boolean borrow = ((diff>>>31) > (digits[len-1]>>>31)-(bi>>>31));   // borrow if signBit(diff) > signBit(digits[len-1])-signBit(digits[0])
-        digits[len-1] = diff;
-        digits[0] = 0;   // because we subtracted digits[0] from digits[len-1]
+    /**
+     * Reduces this number modulo F<sub>n</sub>.<br/>
+     * {@code digits[0]} will be 0 or 1.
+     */
+    private void reduce() {
+        // Reduction modulo Fn is done by subtracting the most significant long from the least significant long
+        int len = length;
+        long bi = digits[offset];
+        long diff = digits[offset+len-1] - bi;
+        boolean borrow = ((diff>>>63) > (digits[offset+len-1]>>>63)-(bi>>>63));   // borrow if signBit(diff) > signBit(digits[len-1])-signBit(digits[0])
+        digits[offset+len-1] = diff;
+        digits[offset] = 0;   // because we subtracted digits[0] from digits[len-1]
         if (borrow) {
             int i = len - 2;
             do {
-                diff = digits[i] - 1;
-                digits[i] = diff;
+                diff = digits[offset+i] - 1;
+                digits[offset+i] = diff;
                 borrow = diff == -1;
                 i--;
             } while (borrow && i>=0);
         }
 
-        // if we borrowed from the most significant int, subtract 2^2^n which is the same as adding 1 (mod Fn)
+        // if we borrowed from the most significant long, subtract 2^2^n which is the same as adding 1 (mod Fn)
         if (borrow) {
-            int i = digits.length - 1;
+            int i = length - 1;
             boolean carry = true;
-            digits[0] = 0;   // increment digits[0] by 1 to make it 0
+            digits[offset] = 0;   // increment digits[0] by 1 to make it 0
             while (carry && i>=0) {
-                int sum = digits[i] + 1;
-                digits[i] = sum;
+                long sum = digits[offset+i] + 1;
+                digits[offset+i] = sum;
                 carry = sum == 0;
                 i--;
             }
@@ -288,7 +813,7 @@ class MutableModFn {
      * @param b the return value; must have room for at least as many digits as <code>this</code>
      */
     void shiftRight(int shiftAmtBits, MutableModFn b) {
-        int len = digits.length;
+        int len = length;
         if (shiftAmtBits > 64*(len-1)) {
             shiftLeft(64*2*(len-1)-shiftAmtBits, b);
             return;
@@ -300,82 +825,82 @@ class MutableModFn {
 
             // shift the digits that stay positive, except a[len-1] which is special
             for (int i=1; i<len-shiftAmtLongs; i++) {
-                long diff = digits[i];
+                long diff = digits[offset+i];
                 if (borrow)
                     diff--;
-                b.digits[shiftAmtLongs+i] = diff;
+                b.digits[b.offset+shiftAmtLongs+i] = diff;
                 borrow = diff==-1 && borrow;
             }
 
             // subtract a[len-1] from a[0]
-            long diff = digits[0] - digits[len-1];
+            long diff = digits[offset] - digits[offset+len-1];
             if (borrow) {
                 diff--;
                 borrow = diff == -1;
             }
             else
-                borrow = digits[0]==0 && digits[len-1]!=0;   // a[0] can only be 0 or 1; if digits[0]!=0, digits[len-1]==0
-            b.digits[shiftAmtLongs] = diff;
+                borrow = digits[offset]==0 && digits[offset+len-1]!=0;   // a[0] can only be 0 or 1; if digits[0]!=0, digits[len-1]==0
+            b.digits[b.offset+shiftAmtLongs] = diff;
 
             // using the fact that adding x*(Fn-1) is the same as subtracting x,
             // subtract digits shifted off the right, except for a[0] which is special
             for (int i=1; i<shiftAmtLongs; i++) {
-                b.digits[shiftAmtLongs-i] = -digits[len-1-i];
+                b.digits[b.offset+shiftAmtLongs-i] = -digits[offset+len-1-i];
                 if (borrow)
-                    b.digits[shiftAmtLongs-i]--;
-                borrow = b.digits[shiftAmtLongs-i]!=0 || borrow;
+                    b.digits[b.offset+shiftAmtLongs-i]--;
+                borrow = b.digits[b.offset+shiftAmtLongs-i]!=0 || borrow;
             }
 
             // if we borrowed from the most significant long, add 1 to the overall number
             boolean carry = borrow;
             if (carry) {
                 // increment b[0] and decrement b[len-1]
-                b.digits[0] = 0;
+                b.digits[b.offset] = 0;
                 int i = len - 1;
                 do {
-                    long sum = b.digits[i] + 1;
-                    b.digits[i] = sum;
+                    long sum = b.digits[b.offset+i] + 1;
+                    b.digits[b.offset+i] = sum;
                     carry = sum == 0;
                     i--;
                 } while (carry && i>=0);
             }
             else
-                b.digits[0] = 0;
+                b.digits[b.offset] = 0;
         }
         else
-            System.arraycopy(digits, 0, b.digits, 0, len);
+            System.arraycopy(digits, offset, b.digits, b.offset, len);
 
         int shiftAmtFrac = shiftAmtBits % 64;
         if (shiftAmtFrac != 0) {
-            long bhi = b.digits[len-1] << (64-shiftAmtFrac);
+            long bhi = b.digits[b.offset+len-1] << (64-shiftAmtFrac);
 
             // do remaining digits
-            b.digits[len-1] >>>= shiftAmtFrac;
+            b.digits[b.offset+len-1] >>>= shiftAmtFrac;
             for (int i=len-1; i>0; i--) {
-                b.digits[i] |= b.digits[i-1] << (64-shiftAmtFrac);
-                b.digits[i-1] >>>= shiftAmtFrac;
+                b.digits[b.offset+i] |= b.digits[b.offset+i-1] << (64-shiftAmtFrac);
+                b.digits[b.offset+i-1] >>>= shiftAmtFrac;
             }
 
             // b[len-1] spills over into b[1]
-            long diff = b.digits[1] - bhi;
-            boolean borrow = ((diff>>>63) > (b.digits[1]>>>63)-(bhi>>>63));   // borrow if signBit(diff) > signBit(a)-signBit(b)
-            b.digits[1] = diff;
+            long diff = b.digits[b.offset+1] - bhi;
+            boolean borrow = ((diff>>>63) > (b.digits[b.offset+1]>>>63)-(bhi>>>63));   // borrow if signBit(diff) > signBit(a)-signBit(b)
+            b.digits[b.offset+1] = diff;
 
             // if we borrowed from b[0], add 1 to the overall number
             boolean carry = borrow;
             if (carry) {
                 // increment b[0] and decrement b[len-1]
-                b.digits[0] = 0;
+                b.digits[b.offset] = 0;
                 int i = len - 1;
                 do {
-                    long sum = b.digits[i] + 1;
-                    b.digits[i] = sum;
+                    long sum = b.digits[b.offset+i] + 1;
+                    b.digits[b.offset+i] = sum;
                     carry = sum == 0;
                     i--;
                 } while (carry && i>=0);
             }
             else
-                b.digits[0] = 0;
+                b.digits[b.offset] = 0;
         }
     }
 
@@ -390,7 +915,7 @@ class MutableModFn {
      * @param b the return value; must have room for at least as many digits as <code>this</code>
      */
     void shiftLeft(int shiftAmtBits, MutableModFn b) {
-        int len = digits.length;
+        int len = length;
 
         if (shiftAmtBits > 64*(len-1)) {
             shiftRight(64*2*(len-1)-shiftAmtBits, b);
@@ -403,32 +928,32 @@ class MutableModFn {
             // using the fact that adding x*(Fn-1) is the same as subtracting x,
             // subtract digits shifted outside the [0..Fn-2] range, except for digits[0] which is special
             for (int i=0; i<shiftAmtLongs; i++) {
-                b.digits[len-1-i] = -digits[shiftAmtLongs-i];
+                b.digits[b.offset+len-1-i] = -digits[offset+shiftAmtLongs-i];
                 if (borrow)
-                    b.digits[len-1-i]--;
-                borrow = b.digits[len-1-i]!=0 || borrow;
+                    b.digits[b.offset+len-1-i]--;
+                borrow = b.digits[b.offset+len-1-i]!=0 || borrow;
             }
 
             // subtract digits[0] from digits[len-1] (they overlap unless numElements=len-1)
             long diff;
             if (shiftAmtLongs < len-1)
-                diff = digits[len-1] - digits[0];
+                diff = digits[offset+len-1] - digits[offset];
             else   // no overlap
-                diff = -digits[0];
+                diff = -digits[offset];
             if (borrow) {
                 diff--;
                 borrow = diff == -1;
             }
             else
-                borrow = digits[0]==1 && diff==-1;   // digits[0] can only be 0 or 1
-            b.digits[len-1-shiftAmtLongs] = diff;
+                borrow = digits[offset]==1 && diff==-1;   // digits[0] can only be 0 or 1
+            b.digits[b.offset+len-1-shiftAmtLongs] = diff;
 
             // finally, shift the digits that stay in the [0..Fn-2] range
             for (int i=1; i<len-shiftAmtLongs-1; i++) {
-                diff = digits[len-1-i];
+                diff = digits[offset+len-1-i];
                 if (borrow)
                     diff--;
-                b.digits[len-1-shiftAmtLongs-i] = diff;
+                b.digits[b.offset+len-1-shiftAmtLongs-i] = diff;
                 borrow = diff==-1 && borrow;
             }
 
@@ -436,49 +961,30 @@ class MutableModFn {
             boolean carry = borrow;
             if (carry) {
                 // increment b[0] and decrement b[len-1]
-                b.digits[0] = 0;
+                b.digits[b.offset] = 0;
                 int i = len - 1;
                 do {
-                    long sum = b.digits[i] + 1;
-                    b.digits[i] = sum;
+                    long sum = b.digits[b.offset+i] + 1;
+                    b.digits[b.offset+i] = sum;
                     carry = sum == 0;
                     i--;
                 } while (carry && i>=0);
             }
             else
-                b.digits[0] = 0;
+                b.digits[b.offset] = 0;
         }
         else
-            System.arraycopy(digits, 0, b.digits, 0, len);
+            System.arraycopy(digits, offset, b.digits, b.offset, len);
 
         int shiftAmtFrac = shiftAmtBits % 64;
         if (shiftAmtFrac != 0) {
-            b.digits[0] <<= shiftAmtFrac;   // no spill-over because 0<=digits[0]<=1 and shiftAmtFrac<=63
+            b.digits[b.offset] <<= shiftAmtFrac;   // no spill-over because 0<=digits[0]<=1 and shiftAmtFrac<=63
             for (int i=1; i<len; i++) {
-                b.digits[i-1] |= b.digits[i] >>> (64-shiftAmtFrac);
-                b.digits[i] <<= shiftAmtFrac;
+                b.digits[b.offset+i-1] |= b.digits[b.offset+i] >>> (64-shiftAmtFrac);
+                b.digits[b.offset+i] <<= shiftAmtFrac;
             }
         }
 
         b.reduce();
     }
-
-    /** digits.length must be an even number */
-    private static long[] toLongArrayEven(int[] digits) {
-        long[] longDigits = new long[digits.length/2];
-        for (int i=0; i<longDigits.length; i++)
-            longDigits[i] = (((long)digits[2*i])<<32) | (digits[2*i+1]&0xFFFFFFFFL);
-        return longDigits;
-    }
-
-    /** digits.length must be an odd number */
-    static int[] toIntArrayOdd(long[] digits) {
-        int[] intDigits = new int[digits.length*2-1];
-        intDigits[0] = (int)digits[0];
-        for (int i=1; i<digits.length; i++) {
-            intDigits[2*i-1] = (int)(digits[i] >>> 32);
-            intDigits[2*i] = (int)(digits[i] & -1);
-        }
-        return intDigits;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 1996, 2014, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package java.math;
+
+/**
+ * Multiplies large numbers using
+ * <a href="http://en.wikipedia.org/wiki/Discrete_Fourier_transform_%28general%29#Number-theoretic_transform">
+ * number-theoretic transforms</a> (NTTs) modulo three primes just below 2<sup>62</sup>.
+ * <p>
+ * Each factor is split into 64-bit pieces which are viewed as the coefficients of a polynomial.
+ * The product polynomial is computed modulo each of the three primes with a cyclic convolution
+ * of length 2<sup>k</sup>, and the coefficients are then recovered with the
+ * <a href="http://en.wikipedia.org/wiki/Chinese_remainder_theorem">Chinese remainder theorem</a>.
+ * A coefficient of the product is a sum of at most 2<sup>26</sup> products of two 64-bit
+ * pieces (a {@code BigInteger} has at most 2<sup>26</sup> ints), so it is less than
+ * 2<sup>26+128</sup>=2<sup>154</sup>, while the product of the primes is greater than
+ * 2<sup>185</sup>. This guarantees that the result is exact.
+ * <p>
+ * Modular multiplications use Montgomery reduction with R=2<sup>64</sup>. Numbers being
+ * transformed are kept in the range [0, p) in ordinary (not Montgomery) form; only the roots of
+ * unity and other constants are stored in Montgomery form, so multiplying by them needs no
+ * conversion.
+ *
+ * @see BigInteger#multiplyNtt(BigInteger, BigInteger, int)
+ */
+class NttMultiplier {
+    /** The primes; each is c*2<sup>41</sup>+1 for some c, so transforms up to length 2<sup>41</sup> are possible. */
+    private static final long[] PRIMES = {0x3FFFC00000000001L, 0x3FFFBE0000000001L, 0x3FFF840000000001L};
+
+    /** A primitive root modulo each prime */
+    private static final int[] PRIMITIVE_ROOTS = {11, 3, 19};
+
+    /** The base-2 logarithm of the longest possible transform */
+    static final int MAX_LOG_LENGTH = 41;
+
+    /** The three moduli with their Montgomery constants */
+    private static final Modulus[] MODULI = {new Modulus(0), new Modulus(1), new Modulus(2)};
+
+    /** Constants for the Chinese remainder theorem */
+    private static final long P1_MOD_P3;
+    private static final long P1_INV_MOD_P2_MONT;     // p1^-1 mod p2, in Montgomery form
+    private static final long P1P2_INV_MOD_P3_MONT;   // (p1*p2)^-1 mod p3, in Montgomery form
+    private static final long P1P2_LOW;
+    private static final long P1P2_HIGH;
+
+    static {
+        BigInteger p1 = BigInteger.valueOf(PRIMES[0]);
+        BigInteger p2 = BigInteger.valueOf(PRIMES[1]);
+        BigInteger p3 = BigInteger.valueOf(PRIMES[2]);
+        BigInteger p1p2 = p1.multiply(p2);
+        P1_MOD_P3 = p1.mod(p3).longValue();
+        P1_INV_MOD_P2_MONT = MODULI[1].toMontgomery(p1.modInverse(p2));
+        P1P2_INV_MOD_P3_MONT = MODULI[2].toMontgomery(p1p2.modInverse(p3));
+        P1P2_LOW = p1p2.longValue();
+        P1P2_HIGH = p1p2.shiftRight(64).longValue();
+    }
+
+    private NttMultiplier() {
+    }
+
+    /**
+     * Multiplies two <b>positive</b> numbers given as int arrays in the same format as
+     * {@link BigInteger#mag}. If {@code a==b}, only one forward transform is done per prime.
+     * @param a
+     * @param b
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b as an array of length {@code a.length+b.length}, possibly with leading zeros
+     */
+    static int[] multiply(int[] a, int[] b, int numThreads) {
+        int logLength = getLogLength(a.length, b.length);
+        long[][] aHat = transform(a, logLength, numThreads);
+        long[][] bHat = a==b ? null : transform(b, logLength, numThreads);
+        return multiplyTransformed(aHat, bHat, getNumCoeffs(a.length, b.length), a.length+b.length, numThreads);
+    }
+
+    /**
+     * Multiplies two <b>positive</b> numbers modulo 2<sup>64*2<sup>k</sup></sup>-1 using a cyclic
+     * convolution of length 2<sup>k</sup>, which is half as long as (or shorter than) the transform
+     * needed for the full product if the product has more than 64*2<sup>k</sup> bits. The factors can
+     * have any length; coefficients are wrapped around modulo x<sup>2<sup>k</sup></sup>-1.<br/>
+     * The coefficients of the convolution stay below 2<sup>180</sup> for factors of up to
+     * 2<sup>26</sup> ints each, so the result is exact.
+     * @param a
+     * @param b
+     * @param logLength k, the base-2 logarithm of the number of 64-bit pieces
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a number congruent to a*b modulo 2<sup>64*2<sup>k</sup></sup>-1, in {@link BigInteger#mag}
+     *         format and not necessarily reduced
+     */
+    static int[] multiplyCyclic(int[] a, int[] b, int logLength, int numThreads) {
+        long[][] aHat = transform(a, logLength, numThreads);
+        long[][] bHat = a==b ? null : transform(b, logLength, numThreads);
+        int len = 1 << logLength;
+        return multiplyTransformed(aHat, bHat, len, 2*len+4, numThreads);   // 4 extra ints for the carry
+    }
+
+    /**
+     * Multiplies a <b>positive</b> number by a number that has already been transformed.
+     * @param a a number in the same format as {@link BigInteger#mag}
+     * @param bHat the result of {@link #transform(int[], int, int)} for the second factor and a
+     *             transform length of {@link #getLogLength(int, int) getLogLength(a.length, blen)}
+     * @param blen length of the second factor in ints
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return a*b as an array of length {@code a.length+blen}, possibly with leading zeros
+     */
+    static int[] multiply(int[] a, long[][] bHat, int blen, int numThreads) {
+        long[][] aHat = transform(a, getLogLength(a.length, blen), numThreads);
+        return multiplyTransformed(aHat, bHat, getNumCoeffs(a.length, blen), a.length+blen, numThreads);
+    }
+
+    /**
+     * Returns the base-2 logarithm of the transform length for multiplying two numbers.
+     * @param alen length of the first factor in ints
+     * @param blen length of the second factor in ints
+     * @return the smallest k such that 2<sup>k</sup> coefficients can hold the product
+     */
+    static int getLogLength(int alen, int blen) {
+        return 32 - Integer.numberOfLeadingZeros(getNumCoeffs(alen, blen)-1);
+    }
+
+    /** Returns the number of 64-bit pieces in the product of two numbers of the given lengths in ints. */
+    static int getNumCoeffs(int alen, int blen) {
+        return (alen+1)/2 + (blen+1)/2 - 1;
+    }
+
+    /**
+     * Computes the forward transforms of a number modulo each of the three primes.
+     * @param a a <b>positive</b> number in the same format as {@link BigInteger#mag}
+     * @param logLength base-2 logarithm of the transform length
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the three transforms
+     */
+    static long[][] transform(int[] a, final int logLength, int numThreads) {
+        final long[] pieces = toPieces(a);
+        final long[][] aHat = new long[3][];
+        BigInteger.parallelFor(0, 3, numThreads, new BigInteger.RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int i=fromIdx; i<toIdx; i++)
+                    aHat[i] = MODULI[i].reduceAndTransform(pieces, logLength);
+            }
+        });
+        return aHat;
+    }
+
+    /**
+     * Multiplies two transformed numbers pointwise, transforms the products back, and recovers the
+     * product with the Chinese remainder theorem. {@code aHat} is overwritten.
+     * @param aHat the transforms of the first factor
+     * @param bHat the transforms of the second factor, or {@code null} to square the first factor
+     * @param numCoeffs the number of coefficients to recover
+     * @param resultLength length of the result in ints
+     * @param numThreads number of threads to use; 1 means run on the current thread
+     * @return the product in {@link BigInteger#mag} format, possibly with leading zeros
+     */
+    private static int[] multiplyTransformed(final long[][] aHat, final long[][] bHat, int numCoeffs, int resultLength, int numThreads) {
+        // the convolutions modulo the three primes are independent
+        BigInteger.parallelFor(0, 3, numThreads, new BigInteger.RangeTask() {
+            @Override
+            public void run(int fromIdx, int toIdx) {
+                for (int i=fromIdx; i<toIdx; i++)
+                    MODULI[i].convolveTransformed(aHat[i], bHat==null ? null : bHat[i]);
+            }
+        });
+
+        return combine(aHat, numCoeffs, resultLength);
+    }
+
+    /**
+     * Returns the length of the longest numbers that can be multiplied.
+     * @return the maximum value of {@code a.length+b.length}, in ints
+     */
+    static int maxLength() {
+        return 1 << Math.min(30, MAX_LOG_LENGTH);
+    }
+
+    /** Splits a number in {@link BigInteger#mag} format into 64-bit pieces, least significant first. */
+    private static long[] toPieces(int[] a) {
+        int len = a.length;
+        long[] pieces = new long[(len+1)/2];
+        for (int i=0; i<len/2; i++)
+            pieces[i] = ((long)a[len-2-2*i] << 32) | (a[len-1-2*i] & 0xFFFFFFFFL);
+        if (len%2 != 0)
+            pieces[len/2] = a[0] & 0xFFFFFFFFL;
+        return pieces;
+    }
+
+    /**
+     * Recovers the coefficients of the product from their residues modulo the three primes using
+     * Garner's algorithm, and adds them up.
+     * @param residues the coefficients modulo each prime
+     * @param numCoeffs number of coefficients
+     * @param resultLength length of the result in ints
+     * @return the product in {@link BigInteger#mag} format
+     */
+    private static int[] combine(long[][] residues, int numCoeffs, int resultLength) {
+        Modulus m2 = MODULI[1];
+        Modulus m3 = MODULI[2];
+        long p1 = PRIMES[0];
+        long p2 = PRIMES[1];
+        long p3 = PRIMES[2];
+        int[] result = new int[resultLength];
+        int resultIdx = resultLength - 1;
+
+        // carry holds the part of the sum that has not been written to the result yet
+        long carry0 = 0;
+        long carry1 = 0;
+        long carry2 = 0;
+        for (int i=0; i<numCoeffs; i++) {
+            long r1 = residues[0][i];
+            long r2 = residues[1][i];
+            long r3 = residues[2][i];
+
+            // x = r1 + p1*t2 where t2 = (r2-r1) / p1 mod p2
+            long r1ModP2 = r1>=p2 ? r1-p2 : r1;
+            long t2 = m2.multiply(m2.subtract(r2, r1ModP2), P1_INV_MOD_P2_MONT);
+            long y0 = p1 * t2;
+            long y1 = multiplyHighUnsigned(p1, t2);
+            y0 += r1;
+            if (Long.compareUnsigned(y0, r1) < 0)
+                y1++;
+
+            // x = y + p1*p2*t3 where t3 = (r3-y) / (p1*p2) mod p3
+            long t2ModP3 = t2>=p3 ? t2-p3 : t2;
+            long yModP3 = m3.add(m3.multiplyPlain(P1_MOD_P3, t2ModP3), r1>=p3 ? r1-p3 : r1);
+            long t3 = m3.multiply(m3.subtract(r3, yModP3), P1P2_INV_MOD_P3_MONT);
+            long x0 = P1P2_LOW * t3;
+            long x1 = multiplyHighUnsigned(P1P2_LOW, t3);
+            long x2 = multiplyHighUnsigned(P1P2_HIGH, t3);
+            long mid = P1P2_HIGH * t3;
+            x1 += mid;
+            if (Long.compareUnsigned(x1, mid) < 0)
+                x2++;
+            x0 += y0;
+            if (Long.compareUnsigned(x0, y0) < 0) {
+                x1++;
+                if (x1 == 0)
+                    x2++;
+            }
+            x1 += y1;
+            if (Long.compareUnsigned(x1, y1) < 0)
+                x2++;
+
+            // add x to the carry and write out the lowest 64 bits
+            carry0 += x0;
+            if (Long.compareUnsigned(carry0, x0) < 0) {
+                carry1++;
+                if (carry1 == 0)
+                    carry2++;
+            }
+            carry1 += x1;
+            if (Long.compareUnsigned(carry1, x1) < 0)
+                carry2++;
+            carry2 += x2;
+
+            if (resultIdx >= 0)
+                result[resultIdx--] = (int)carry0;
+            if (resultIdx >= 0)
+                result[resultIdx--] = (int)(carry0 >>> 32);
+            carry0 = carry1;
+            carry1 = carry2;
+            carry2 = 0;
+        }
+        while (resultIdx >= 0) {
+            result[resultIdx--] = (int)carry0;
+            if (resultIdx >= 0)
+                result[resultIdx--] = (int)(carry0 >>> 32);
+            carry0 = carry1;
+            carry1 = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the high 64 bits of the unsigned 128-bit product of two longs.
+     * This is {@code Math.multiplyHigh()} (available as of Java 9) adjusted for unsigned inputs.
+     */
+    static long multiplyHighUnsigned(long x, long y) {
+        // Use technique from section 8-2 of Henry S. Warren, Jr.,
+        // Hacker's Delight (2nd ed.) (Addison Wesley, 2013), 173-174.
+        long x1 = x >>> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1*y2 + (z2>>>32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >>> 32;
+        z1 += x2 * y1;
+        return x1*y1 + z0 + (z1>>>32);
+    }
+
+    /** Arithmetic modulo one of the primes, and NTTs of power-of-two lengths. */
+    private static class Modulus {
+        final long p;
+        final long pInv;   // p^-1 mod 2^64
+        final long r2;     // R^2 mod p where R=2^64
+        final int primitiveRoot;
+
+        Modulus(int idx) {
+            p = PRIMES[idx];
+            primitiveRoot = PRIMITIVE_ROOTS[idx];
+            // Newton iteration for the inverse mod 2^64; each step doubles the number of correct bits
+            long inv = p;   // correct to 3 bits because p is odd
+            for (int i=0; i<5; i++)
+                inv *= 2 - p*inv;
+            pInv = inv;
+            r2 = BigInteger.ONE.shiftLeft(128).mod(BigInteger.valueOf(p)).longValue();
+        }
+
+        /** Converts a number in [0, p) to Montgomery form. */
+        long toMontgomery(BigInteger a) {
+            return a.shiftLeft(64).mod(BigInteger.valueOf(p)).longValue();
+        }
+
+        long add(long a, long b) {
+            long s = a + b;
+            return s>=p ? s-p : s;
+        }
+
+        long subtract(long a, long b) {
+            long d = a - b;
+            return d<0 ? d+p : d;
+        }
+
+        /**
+         * Returns a*b/R mod p using Montgomery reduction. If {@code b} is in Montgomery form,
+         * the result is a*b in ordinary form.
+         * @param a a number in [0, p)
+         * @param b a number in [0, p)
+         * @return a number in [0, p)
+         */
+        long multiply(long a, long b) {
+            long lo = a * b;
+            long hi = multiplyHighUnsigned(a, b);
+            long m = lo * pInv;
+            // (a*b - m*p) / R; the low 64 bits cancel out
+            long r = hi - multiplyHighUnsigned(m, p);
+            return r<0 ? r+p : r;
+        }
+
+        /** Returns a*b mod p where neither number is in Montgomery form. */
+        long multiplyPlain(long a, long b) {
+            return multiply(multiply(a, b), r2);
+        }
+
+        /** Returns a<sup>e</sup> in Montgomery form, given a in Montgomery form. */
+        long pow(long aMont, long e) {
+            long result = multiply(1, r2);   // 1 in Montgomery form
+            while (e > 0) {
+                if ((e&1) != 0)
+                    result = multiply(result, aMont);
+                aMont = multiply(aMont, aMont);
+                e >>>= 1;
+            }
+            return result;
+        }
+
+        /**
+         * Reduces a sequence modulo p and computes its forward transform.
+         * @param a a sequence of unsigned 64-bit numbers
+         * @param logLength base-2 logarithm of the transform length
+         * @return the transform, in bit-reversed order
+         */
+        long[] reduceAndTransform(long[] a, int logLength) {
+            long[] aHat = reduce(a, 1<<logLength);
+            transform(aHat, getRoots(logLength, false));
+            return aHat;
+        }
+
+        /**
+         * Computes the cyclic convolution of two transformed sequences, which equals the product of
+         * the polynomials they represent if the transform length is sufficient. The result replaces
+         * {@code aHat}.
+         * @param aHat the transform of the first sequence
+         * @param bHat the transform of the second sequence, or {@code null} to square the first one
+         */
+        void convolveTransformed(long[] aHat, long[] bHat) {
+            int len = aHat.length;
+            int logLength = 31 - Integer.numberOfLeadingZeros(len);
+            if (bHat == null)
+                for (int i=0; i<len; i++)
+                    aHat[i] = multiply(aHat[i], aHat[i]);
+            else
+                for (int i=0; i<len; i++)
+                    aHat[i] = multiply(aHat[i], bHat[i]);
+
+            // the pointwise products are divided by R, so multiply by R/len in addition to undoing the scaling by len;
+            // Montgomery multiplication by R^2/len does just that
+            long scale = multiply(r2, pow(multiply(len, r2), p-2));
+            inverseTransform(aHat, getRoots(logLength, true));
+            for (int i=0; i<len; i++)
+                aHat[i] = multiply(aHat[i], scale);
+        }
+
+        /**
+         * Reduces a sequence of unsigned 64-bit numbers modulo p and zero-pads it to {@code len} elements.
+         * If the sequence is longer than {@code len}, the polynomial it represents is reduced modulo
+         * x<sup>len</sup>-1, i.e. element i is added to element i mod len.
+         */
+        private long[] reduce(long[] a, int len) {
+            long[] r = new long[len];
+            for (int i=0; i<a.length; i++) {
+                long x = a[i];
+                long rem = ((x>>>1) % p << 1) | (x & 1);   // x mod 2p, which is less than 2^63
+                rem = rem>=p ? rem-p : rem;
+                r[i&(len-1)] = i<len ? rem : add(r[i&(len-1)], rem);
+            }
+            return r;
+        }
+
+        /**
+         * Returns the powers 0..len/2-1 of a primitive len-th root of unity, or its inverse,
+         * in Montgomery form.
+         */
+        private long[] getRoots(int logLength, boolean inverse) {
+            int len = 1 << logLength;
+            long gMont = multiply(primitiveRoot, r2);
+            long omega = pow(gMont, (p-1) >>> logLength);
+            if (inverse)
+                omega = pow(omega, p-2);
+            long[] roots = new long[Math.max(1, len/2)];
+            roots[0] = multiply(1, r2);
+            for (int i=1; i<roots.length; i++)
+                roots[i] = multiply(roots[i-1], omega);
+            return roots;
+        }
+
+        /**
+         * Performs a forward NTT using decimation in frequency (Gentleman-Sande butterflies).
+         * The input is in natural order and the output is in bit-reversed order.
+         */
+        private void transform(long[] a, long[] roots) {
+            int len = a.length;
+            for (int half=len/2, step=1; half>=1; half/=2, step*=2)
+                for (int start=0; start<len; start+=2*half)
+                    for (int j=0; j<half; j++) {
+                        int idx0 = start + j;
+                        int idx1 = idx0 + half;
+                        long u = a[idx0];
+                        long v = a[idx1];
+                        a[idx0] = add(u, v);
+                        a[idx1] = multiply(subtract(u, v), roots[j*step]);
+                    }
+        }
+
+        /**
+         * Performs an inverse NTT, without the division by the length, using decimation in time
+         * (Cooley-Tukey butterflies). The input is in bit-reversed order and the output is in natural
+         * order.
+         */
+        private void inverseTransform(long[] a, long[] roots) {
+            int len = a.length;
+            for (int half=1, step=len/2; half<len; half*=2, step/=2)
+                for (int start=0; start<len; start+=2*half)
+                    for (int j=0; j<half; j++) {
+                        int idx0 = start + j;
+                        int idx1 = idx0 + half;
+                        long u = a[idx0];
+                        long v = multiply(a[idx1], roots[j*step]);
+                        a[idx0] = add(u, v);
+                        a[idx1] = subtract(u, v);
+                    }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package java.math;
+
+/**
+ * Per-thread pools of temporary arrays for the multiplication and division code.
+ * <p>
+ * Code that needs a short-lived array borrows one with {@link #borrowInts(int)} or
+ * {@link #borrowDoubles(int)} and hands it back with {@code release} when it is done, so the next
+ * operation on the same thread can reuse it instead of allocating a new one. This matters when many
+ * medium-sized numbers are multiplied or divided: the temporary arrays are discarded after a few
+ * microseconds and would otherwise make up most of the garbage produced.
+ * <p>
+ * Pooled arrays have power-of-two lengths. A borrowed array is at least as long as requested and
+ * its contents are undefined. Arrays of other lengths, or arrays that are too small to be worth
+ * pooling, are allocated normally and ignored when released, so any array may be released as
+ * long as nothing else refers to it. Each thread keeps at most {@link #MAX_ARRAYS_PER_CLASS}
+ * arrays of each type and length, and at most {@link #MAX_RETAINED_BYTES} bytes in total; arrays
+ * that don't fit are left to the garbage collector.
+ */
+class ScratchArena {
+    /** Arrays shorter than this are not pooled; allocating them is as cheap as pooling them. */
+    private static final int MIN_POOLED_LENGTH = 64;
+
+    /** The maximum number of bytes of pooled arrays each thread keeps */
+    static final int MAX_RETAINED_BYTES = 1 << 20;
+
+    /** The maximum number of pooled arrays of each type and length each thread keeps */
+    static final int MAX_ARRAYS_PER_CLASS = 4;
+
+    private static final ThreadLocal<ScratchArena> ARENAS = new ThreadLocal<ScratchArena>() {
+        @Override
+        protected ScratchArena initialValue() {
+            return new ScratchArena();
+        }
+    };
+
+    /** Pooled int arrays by base-2 logarithm of the length */
+    private final int[][][] ints = new int[32][MAX_ARRAYS_PER_CLASS][];
+    private final int[] numInts = new int[32];
+
+    /** Pooled double arrays by base-2 logarithm of the length */
+    private final double[][][] doubles = new double[32][MAX_ARRAYS_PER_CLASS][];
+    private final int[] numDoubles = new int[32];
+
+    /** The number of bytes in all arrays currently in the pools */
+    private long retainedBytes;
+
+    private ScratchArena() {
+    }
+
+    /**
+     * Returns an int array of at least {@code minLength} elements, reusing one of this thread's
+     * pooled arrays if possible. The contents of the array are undefined.
+     * @param minLength the number of elements needed
+     * @return an array of length {@code minLength} or more
+     */
+    static int[] borrowInts(int minLength) {
+        int logLength = getLogLength(minLength);
+        if (logLength < 0 || 4L<<logLength > MAX_RETAINED_BYTES)
+            return new int[minLength];
+
+        ScratchArena arena = ARENAS.get();
+        int count = arena.numInts[logLength];
+        if (count == 0)
+            return new int[1 << logLength];
+        count--;
+        int[] a = arena.ints[logLength][count];
+        arena.ints[logLength][count] = null;
+        arena.numInts[logLength] = count;
+        arena.retainedBytes -= 4L * a.length;
+        return a;
+    }
+
+    /**
+     * Returns an array to this thread's pool. The caller must not use the array afterwards.
+     * @param a an array obtained from {@link #borrowInts(int)} or any other array that is no longer
+     *        referenced anywhere
+     */
+    static void release(int[] a) {
+        int logLength = getPooledLogLength(a.length);
+        if (logLength < 0)
+            return;
+
+        ScratchArena arena = ARENAS.get();
+        int count = arena.numInts[logLength];
+        long bytes = 4L * a.length;
+        if (count<MAX_ARRAYS_PER_CLASS && arena.retainedBytes+bytes<=MAX_RETAINED_BYTES) {
+            arena.ints[logLength][count] = a;
+            arena.numInts[logLength] = count + 1;
+            arena.retainedBytes += bytes;
+        }
+    }
+
+    /**
+     * Returns a double array of at least {@code minLength} elements, reusing one of this thread's
+     * pooled arrays if possible. The contents of the array are undefined.
+     * @param minLength the number of elements needed
+     * @return an array of length {@code minLength} or more
+     * @see #borrowInts(int)
+     */
+    static double[] borrowDoubles(int minLength) {
+        int logLength = getLogLength(minLength);
+        if (logLength < 0 || 8L<<logLength > MAX_RETAINED_BYTES)
+            return new double[minLength];
+
+        ScratchArena arena = ARENAS.get();
+        int count = arena.numDoubles[logLength];
+        if (count == 0)
+            return new double[1 << logLength];
+        count--;
+        double[] a = arena.doubles[logLength][count];
+        arena.doubles[logLength][count] = null;
+        arena.numDoubles[logLength] = count;
+        arena.retainedBytes -= 8L * a.length;
+        return a;
+    }
+
+    /**
+     * Returns an array to this thread's pool. The caller must not use the array afterwards.
+     * @param a an array obtained from {@link #borrowDoubles(int)} or any other array that is no
+     *        longer referenced anywhere
+     * @see #release(int[])
+     */
+    static void release(double[] a) {
+        int logLength = getPooledLogLength(a.length);
+        if (logLength < 0)
+            return;
+
+        ScratchArena arena = ARENAS.get();
+        int count = arena.numDoubles[logLength];
+        long bytes = 8L * a.length;
+        if (count<MAX_ARRAYS_PER_CLASS && arena.retainedBytes+bytes<=MAX_RETAINED_BYTES) {
+            arena.doubles[logLength][count] = a;
+            arena.numDoubles[logLength] = count + 1;
+            arena.retainedBytes += bytes;
+        }
+    }
+
+    /**
+     * Returns the base-2 logarithm of the shortest pooled array that holds {@code minLength}
+     * elements, or -1 if arrays of that length are not pooled.
+     */
+    private static int getLogLength(int minLength) {
+        if (minLength<MIN_POOLED_LENGTH || minLength>1<<30)
+            return -1;
+        return 32 - Integer.numberOfLeadingZeros(minLength-1);
+    }
+
+    /**
+     * Returns the base-2 logarithm of {@code length} if arrays of that length are pooled,
+     * or -1 otherwise.
+     */
+    private static int getPooledLogLength(int length) {
+        if (length<MIN_POOLED_LENGTH || Integer.bitCount(length)!=1)
+            return -1;
+        return Integer.numberOfTrailingZeros(length);
+    }
+}
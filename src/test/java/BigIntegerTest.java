@@ -43,7 +43,11 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 
 /**
  * This is a simple test class created to ensure that the results
@@ -69,6 +73,10 @@ public class BigIntegerTest {
     // KARATSUBA_SQUARE_THRESHOLD = 90  ints = 2880 bits
     // TOOM_COOK_SQUARE_THRESHOLD = 140 ints = 4480 bits
     //
+    // FFT_THRESHOLD          = 1400 ints = 44800 bits
+    // FFT_SQUARE_THRESHOLD   = 2600 ints = 83200 bits
+    // FFT_UPPER_THRESHOLD    = 28000 ints = 896000 bits
+    //
     // SCHOENHAGE_BASE_CONVERSION_THRESHOLD = 8 ints = 256 bits
     //
     // BURNIKEL_ZIEGLER_THRESHOLD = 50  ints = 1600 bits
@@ -134,6 +142,43 @@ public class BigIntegerTest {
         report("square for " + order + " bits", failCount1);
     }
 
+    /**
+     * Tests the schoolbook multiplication and squaring kernels, which process two words at a
+     * time on 64-bit JVMs, against a product computed one word of the second factor at a time.
+     */
+    public static void schoolbook() {
+        int failCount = 0;
+
+        for (int i=0; i<2000; i++) {
+            int aLen = 1 + rnd.nextInt(80);
+            int bLen = 1 + rnd.nextInt(80);
+            BigInteger a, b;
+            if (rnd.nextInt(4) == 0) {
+                // all ones: long carries
+                a = ONE.shiftLeft(32*aLen).subtract(ONE);
+                b = ONE.shiftLeft(32*bLen).subtract(ONE);
+            }
+            else {
+                a = new BigInteger(32*aLen, rnd).setBit(32*aLen-1);
+                b = new BigInteger(32*bLen, rnd).setBit(32*bLen-1);
+            }
+
+            BigInteger expected = ZERO;
+            for (int j=0; j<bLen; j++) {
+                long bj = b.shiftRight(32*j).intValue() & 0xFFFFFFFFL;
+                expected = expected.add(a.multiply(BigInteger.valueOf(bj)).shiftLeft(32*j));
+            }
+            if (!a.multiply(b).equals(expected))
+                failCount++;
+
+            // a*(a+1)-a is computed with multiplyToLen, a^2 with squareToLen
+            if (!a.pow(2).equals(a.multiply(a.add(ONE)).subtract(a)))
+                failCount++;
+        }
+
+        report("schoolbook", failCount);
+    }
+
     public static void arithmetic(int order) {
         int failCount = 0;
 
@@ -293,6 +338,327 @@ public class BigIntegerTest {
         report("squareLarge Toom-Cook", failCount);
     }
 
+    /**
+     * Tests the exact division by odd numbers used in Toom-Cook interpolation.
+     */
+    public static void exactDivide() throws Exception {
+        int failCount = 0;
+
+        Method exactDivideMethod = BigInteger.class.getDeclaredMethod("exactDivide", int.class);
+        exactDivideMethod.setAccessible(true);
+        for (int i=0; i<SIZE; i++) {
+            BigInteger a = fetchNumber(1 + rnd.nextInt(BITS_TOOM_COOK*10));
+            int d = rnd.nextInt(4)==0 ? Integer.MAX_VALUE : rnd.nextInt(Integer.MAX_VALUE>>rnd.nextInt(31)) | 1;
+            BigInteger product = a.multiply(BigInteger.valueOf(d));
+            if (!exactDivideMethod.invoke(product, d).equals(a))
+                failCount++;
+        }
+
+        report("exactDivide", failCount);
+    }
+
+    /**
+     * Compares Toom-Cook multiplication of factors with different lengths
+     * against 3-way Toom-Cook, which splits both factors into pieces of the
+     * same number of ints.
+     */
+    public static void toomCookUnbalanced() throws Exception {
+        int failCount = 0;
+
+        Method multiplyToomCook3Method = BigInteger.class.getDeclaredMethod("multiplyToomCook3", BigInteger.class, BigInteger.class);
+        multiplyToomCook3Method.setAccessible(true);
+        Method multiplyToomCookUnbalancedMethod = BigInteger.class.getDeclaredMethod("multiplyToomCookUnbalanced", BigInteger.class, BigInteger.class, int.class, int.class, int.class);
+        multiplyToomCookUnbalancedMethod.setAccessible(true);
+        Method multiplyToomCookMethod = BigInteger.class.getDeclaredMethod("multiplyToomCook", BigInteger.class, BigInteger.class);
+        multiplyToomCookMethod.setAccessible(true);
+        for (int i=0; i<SIZE/5; i++) {
+            // Toom-3/2, Toom-4/2 and Toom-4/3
+            int[] split = new int[][] {{3, 2}, {4, 2}, {4, 3}}[rnd.nextInt(3)];
+            int ka = split[0];
+            int kb = split[1];
+            int bBits = BITS_TOOM_COOK + rnd.nextInt(10*BITS_TOOM_COOK);
+            int aBits = bBits*ka/kb - rnd.nextInt(bBits/kb);
+            BigInteger a = fetchNumber(aBits);
+            BigInteger b = fetchNumber(bBits);
+            if (rnd.nextBoolean())
+                a = a.negate();
+            if (rnd.nextBoolean())
+                b = b.negate();
+
+            BigInteger expected = (BigInteger)multiplyToomCook3Method.invoke(null, a, b);
+            BigInteger actual = (BigInteger)multiplyToomCookUnbalancedMethod.invoke(null, a, b, ka, kb, 1);
+            if (!actual.equals(expected))
+                failCount++;
+
+            // the dispatcher, including the chunked multiplication for factors of very different lengths
+            b = fetchNumber(bBits/(1+rnd.nextInt(5)));
+            expected = (BigInteger)multiplyToomCook3Method.invoke(null, a, b);
+            actual = (BigInteger)multiplyToomCookMethod.invoke(null, a, b);
+            if (!actual.equals(expected))
+                failCount++;
+            actual = (BigInteger)multiplyToomCookMethod.invoke(null, b, a);
+            if (!actual.equals(expected))
+                failCount++;
+        }
+
+        report("Toom-Cook unbalanced", failCount);
+    }
+
+    /**
+     * Tests the Karatsuba and 3-way Toom-Cook kernels that work on array ranges against
+     * products computed one int of the second factor at a time. The factors are stored in
+     * the middle of larger arrays, the product and scratch arrays are filled with garbage,
+     * and the ints around the product must not change.
+     */
+    public static void multiplyRange() throws Exception {
+        int failCount = 0;
+
+        Method multiplyRangeMethod = BigInteger.class.getDeclaredMethod("multiplyRange", int[].class, int.class, int.class, int[].class, int.class, int.class, int[].class, int.class, int[].class, int.class);
+        multiplyRangeMethod.setAccessible(true);
+        Method squareRangeMethod = BigInteger.class.getDeclaredMethod("squareRange", int[].class, int.class, int.class, int[].class, int.class, int[].class, int.class);
+        squareRangeMethod.setAccessible(true);
+        Method scratchSizeMethod = BigInteger.class.getDeclaredMethod("getMultiplyScratchSize", int.class, boolean.class);
+        scratchSizeMethod.setAccessible(true);
+        Constructor<BigInteger> bigintCtor = BigInteger.class.getDeclaredConstructor(int.class, int[].class);
+        bigintCtor.setAccessible(true);
+        for (int i=0; i<300; i++) {
+            int aLen = 1 + rnd.nextInt(rnd.nextBoolean() ? 150 : 700);
+            int bLen = rnd.nextInt(3)==0 ? aLen : 1+rnd.nextInt(aLen);
+            BigInteger a, b;
+            if (rnd.nextInt(4) == 0) {
+                // all ones: long carries and negative values at -1 in Toom-Cook
+                a = ONE.shiftLeft(32*aLen).subtract(ONE);
+                b = ONE.shiftLeft(32*bLen).subtract(ONE);
+            }
+            else {
+                a = new BigInteger(32*aLen, rnd).setBit(32*aLen-1);
+                b = new BigInteger(32*bLen, rnd).setBit(32*bLen-1);
+            }
+            int[] aArr = new int[aLen+2];
+            int[] bArr = new int[bLen+2];
+            for (int j=0; j<aLen; j++)
+                aArr[aLen-j] = a.shiftRight(32*j).intValue();
+            for (int j=0; j<bLen; j++)
+                bArr[bLen-j] = b.shiftRight(32*j).intValue();
+
+            BigInteger expected = ZERO;
+            for (int j=0; j<bLen; j++) {
+                long bj = b.shiftRight(32*j).intValue() & 0xFFFFFFFFL;
+                expected = expected.add(a.multiply(BigInteger.valueOf(bj)).shiftLeft(32*j));
+            }
+            int[] z = new int[aLen+bLen+2];
+            for (int j=0; j<z.length; j++)
+                z[j] = rnd.nextInt();
+            int[] zOrig = z.clone();
+            int[] scratch = new int[(Integer)scratchSizeMethod.invoke(null, aLen, false)];
+            for (int j=0; j<scratch.length; j++)
+                scratch[j] = rnd.nextInt();
+            if (rnd.nextBoolean())
+                multiplyRangeMethod.invoke(null, aArr, aLen+1, aLen, bArr, bLen+1, bLen, z, z.length-1, scratch, 0);
+            else
+                multiplyRangeMethod.invoke(null, bArr, bLen+1, bLen, aArr, aLen+1, aLen, z, z.length-1, scratch, 0);
+            if (z[0]!=zOrig[0] || z[z.length-1]!=zOrig[z.length-1] ||
+                    !bigintCtor.newInstance(1, Arrays.copyOfRange(z, 1, z.length-1)).equals(expected))
+                failCount++;
+
+            expected = ZERO;
+            for (int j=0; j<aLen; j++) {
+                long aj = a.shiftRight(32*j).intValue() & 0xFFFFFFFFL;
+                expected = expected.add(a.multiply(BigInteger.valueOf(aj)).shiftLeft(32*j));
+            }
+            z = new int[2*aLen+2];
+            for (int j=0; j<z.length; j++)
+                z[j] = rnd.nextInt();
+            zOrig = z.clone();
+            scratch = new int[(Integer)scratchSizeMethod.invoke(null, aLen, true)];
+            for (int j=0; j<scratch.length; j++)
+                scratch[j] = rnd.nextInt();
+            squareRangeMethod.invoke(null, aArr, aLen+1, aLen, z, z.length-1, scratch, 0);
+            if (z[0]!=zOrig[0] || z[z.length-1]!=zOrig[z.length-1] ||
+                    !bigintCtor.newInstance(1, Arrays.copyOfRange(z, 1, z.length-1)).equals(expected))
+                failCount++;
+        }
+
+        report("multiplyRange", failCount);
+    }
+
+    /**
+     * Tests that the per-thread scratch arrays are reused and that the retention limits hold,
+     * then runs multiplications and Burnikel-Ziegler divisions of many different sizes back to back
+     * so that pooled arrays are handed out again with old contents.
+     */
+    public static void scratchArena() throws Exception {
+        // a new thread starts with empty pools
+        FutureTask<Integer> poolTest = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return scratchArenaPools();
+            }
+        });
+        Thread thread = new Thread(poolTest);
+        thread.start();
+        int failCount = poolTest.get();
+
+        for (int i=0; i<REDUCED_SIZE*10; i++) {
+            int bLen = 50 + rnd.nextInt(rnd.nextBoolean() ? 300 : 3000);
+            int qLen = 1 + rnd.nextInt(5*bLen);
+            BigInteger b = new BigInteger(32*bLen, rnd).setBit(32*bLen-1);
+            BigInteger q = new BigInteger(32*qLen, rnd);
+            BigInteger r = new BigInteger(32*bLen, rnd).mod(b);
+
+            BigInteger product = q.multiply(b);
+            if (!product.equals(b.multiply(q)) || !q.pow(2).equals(q.multiply(new BigInteger(q.toByteArray()))))
+                failCount++;
+            BigInteger[] qr = product.add(r).divideAndRemainder(b);
+            if (!qr[0].equals(q) || !qr[1].equals(r))
+                failCount++;
+        }
+
+        report("scratchArena", failCount);
+    }
+
+    private static int scratchArenaPools() throws Exception {
+        int failCount = 0;
+
+        Class<?> arenaClass = Class.forName("java.math.ScratchArena");
+        Method borrowIntsMethod = arenaClass.getDeclaredMethod("borrowInts", int.class);
+        borrowIntsMethod.setAccessible(true);
+        Method releaseIntsMethod = arenaClass.getDeclaredMethod("release", int[].class);
+        releaseIntsMethod.setAccessible(true);
+        Method borrowDoublesMethod = arenaClass.getDeclaredMethod("borrowDoubles", int.class);
+        borrowDoublesMethod.setAccessible(true);
+        Field maxArraysField = arenaClass.getDeclaredField("MAX_ARRAYS_PER_CLASS");
+        maxArraysField.setAccessible(true);
+        int maxArrays = maxArraysField.getInt(null);
+        Field maxBytesField = arenaClass.getDeclaredField("MAX_RETAINED_BYTES");
+        maxBytesField.setAccessible(true);
+        int maxBytes = maxBytesField.getInt(null);
+
+        // small arrays are not pooled and have the exact length
+        if (((int[])borrowIntsMethod.invoke(null, 10)).length != 10)
+            failCount++;
+        if (((double[])borrowDoublesMethod.invoke(null, 1)).length != 1)
+            failCount++;
+
+        // other arrays are rounded up to a power of two and reused
+        int[] a = (int[])borrowIntsMethod.invoke(null, 1000);
+        if (a.length != 1024)
+            failCount++;
+        releaseIntsMethod.invoke(null, a);
+        if (borrowIntsMethod.invoke(null, 700) != a)
+            failCount++;
+
+        // no more than maxArrays arrays of one length are kept
+        int[][] arrays = new int[maxArrays+1][];
+        for (int i=0; i<arrays.length; i++)
+            arrays[i] = (int[])borrowIntsMethod.invoke(null, 2048);
+        for (int i=0; i<arrays.length; i++)
+            releaseIntsMethod.invoke(null, arrays[i]);
+        Set<int[]> reused = Collections.newSetFromMap(new IdentityHashMap<int[], Boolean>());
+        for (int i=0; i<arrays.length; i++)
+            reused.add((int[])borrowIntsMethod.invoke(null, 2048));
+        int numReused = 0;
+        for (int[] arr: arrays)
+            if (reused.contains(arr))
+                numReused++;
+        if (numReused != maxArrays)
+            failCount++;
+
+        // arrays larger than the byte limit are never kept
+        int[] huge = (int[])borrowIntsMethod.invoke(null, maxBytes/4+1);
+        if (huge.length != maxBytes/4+1)
+            failCount++;
+        releaseIntsMethod.invoke(null, new int[2*maxBytes/4]);
+        if (((int[])borrowIntsMethod.invoke(null, 2*maxBytes/4)).length != 2*maxBytes/4)
+            failCount++;
+
+        return failCount;
+    }
+
+    /**
+     * Tests MutableBigInteger multiplication against BigInteger for balanced and unbalanced
+     * factors from the schoolbook range up to the Schoenhage-Strassen range, including
+     * zero factors and product arrays that are too short or already contain garbage.
+     */
+    public static void mutableMultiply() throws Exception {
+        int failCount = 0;
+
+        Class<?> mbiClass = Class.forName("java.math.MutableBigInteger");
+        Constructor<?> mbiCtor = mbiClass.getDeclaredConstructor(BigInteger.class);
+        mbiCtor.setAccessible(true);
+        Constructor<?> mbiArrayCtor = mbiClass.getDeclaredConstructor(int[].class);
+        mbiArrayCtor.setAccessible(true);
+        Method multiplyMethod = mbiClass.getDeclaredMethod("multiply", mbiClass, mbiClass);
+        multiplyMethod.setAccessible(true);
+        Method toBigIntegerMethod = mbiClass.getDeclaredMethod("toBigInteger");
+        toBigIntegerMethod.setAccessible(true);
+        Field offsetField = mbiClass.getDeclaredField("offset");
+        offsetField.setAccessible(true);
+        Field intLenField = mbiClass.getDeclaredField("intLen");
+        intLenField.setAccessible(true);
+        Field magField = BigInteger.class.getDeclaredField("mag");
+        magField.setAccessible(true);
+
+        int[] maxLens = {10, 100, 300, 3000, 40000, 100000};
+        for (int i=0; i<REDUCED_SIZE*5; i++) {
+            int maxLen = maxLens[rnd.nextInt(maxLens.length)];
+            BigInteger a = new BigInteger(32*(1+rnd.nextInt(maxLen)), rnd);
+            BigInteger b = rnd.nextBoolean() ? new BigInteger(32*(1+rnd.nextInt(maxLen)), rnd) : new BigInteger(a.bitLength(), rnd);
+            if (rnd.nextInt(20) == 0)
+                a = ZERO;
+
+            int[] zArr = new int[rnd.nextInt(a.bitLength()/16+b.bitLength()/16+2)];
+            for (int j=0; j<zArr.length; j++)
+                zArr[j] = rnd.nextInt();
+            Object z = mbiArrayCtor.newInstance(zArr);
+            Object x = mbiCtor.newInstance(a);
+            if (rnd.nextBoolean()) {
+                // square; x is also the second factor
+                multiplyMethod.invoke(x, x, z);
+                if (!toBigIntegerMethod.invoke(z).equals(a.multiply(a)))
+                    failCount++;
+            }
+            else {
+                // put b in the middle of a longer array, so its offset is not 0
+                int[] bArr = new int[b.bitLength()/32 + 1 + 2*rnd.nextInt(10)];
+                Object y = mbiArrayCtor.newInstance(bArr);
+                offsetField.setInt(y, rnd.nextInt(bArr.length-(b.bitLength()+31)/32+1));
+                int[] bMag = b.signum()==0 ? new int[0] : (int[])magField.get(b);
+                System.arraycopy(bMag, 0, bArr, offsetField.getInt(y), bMag.length);
+                intLenField.setInt(y, bMag.length);
+                multiplyMethod.invoke(x, y, z);
+                if (!toBigIntegerMethod.invoke(z).equals(a.multiply(b)))
+                    failCount++;
+            }
+        }
+
+        report("mutableMultiply", failCount);
+    }
+
+    /**
+     * Compares multithreaded multiplication and squaring against the
+     * single-threaded versions for sizes in the Toom-Cook range, where
+     * the Toom-Cook sub-products are evaluated concurrently.
+     */
+    public static void multiplyParallel() {
+        int failCount = 0;
+
+        for (int i=0; i<REDUCED_SIZE*10; i++) {
+            int aBits = 32*(400+rnd.nextInt(8000));
+            int bBits = 32*(400+rnd.nextInt(8000));
+            BigInteger a = fetchNumber(aBits);
+            BigInteger b = fetchNumber(bBits);
+            int numThreads = 2 + rnd.nextInt(10);
+
+            if (!a.multiply(b, numThreads).equals(a.multiply(b)))
+                failCount++;
+            if (!a.multiply(a, numThreads).equals(a.multiply(a)))
+                failCount++;
+        }
+
+        report("multiplyParallel", failCount);
+    }
+
     /**
      * Sanity test for Burnikel-Ziegler division.  The Burnikel-Ziegler division
      * algorithm is used when each of the dividend and the divisor has at least
@@ -344,6 +710,282 @@ public class BigIntegerTest {
         report("divideLarge", failCount);
     }
 
+    /**
+     * Tests Schoenhage-Strassen multiplication and squaring with all supported numbers of
+     * coefficients (K, 3K/2, 7K/4) against Toom-Cook, using random transform lengths.
+     */
+    public static void schoenhageStrassenTruncated() throws Exception {
+        int failCount = 0;
+
+        Method multiplySchoenhageStrassenMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", int[].class, int[].class, int.class, int.class, int.class);
+        multiplySchoenhageStrassenMethod.setAccessible(true);
+        Method multiplyToomCookMethod = BigInteger.class.getDeclaredMethod("multiplyToomCook", BigInteger.class, BigInteger.class);
+        multiplyToomCookMethod.setAccessible(true);
+        Field magField = BigInteger.class.getDeclaredField("mag");
+        magField.setAccessible(true);
+        Constructor<BigInteger> bigintCtor = BigInteger.class.getDeclaredConstructor(int.class, int[].class);
+        bigintCtor.setAccessible(true);
+        for (int i=0; i<SIZE/10; i++) {
+            int k = 4 + rnd.nextInt(6);
+            int numParts = 1 + rnd.nextInt(3);
+            BigInteger a = fetchNumber(BITS_TOOM_COOK + rnd.nextInt(30*BITS_TOOM_COOK)).abs();
+            BigInteger b = rnd.nextInt(4)==0 ? a : fetchNumber(BITS_TOOM_COOK + rnd.nextInt(30*BITS_TOOM_COOK)).abs();
+            if (a.signum()==0 || b.signum()==0)
+                continue;
+
+            int[] product = (int[])multiplySchoenhageStrassenMethod.invoke(null, magField.get(a), magField.get(b), k, numParts, 1);
+            BigInteger expected = (BigInteger)multiplyToomCookMethod.invoke(null, a, b);
+            if (!bigintCtor.newInstance(1, product).equals(expected))
+                failCount++;
+        }
+
+        report("Schoenhage-Strassen truncated", failCount);
+    }
+
+    /**
+     * Tests {@link BigInteger#multiplyLow(BigInteger, int)}, {@link BigInteger#multiplyHigh(BigInteger, int)},
+     * and the wrap-around middle product used by Barrett division and Newton inversion.
+     */
+    public static void multiplyLowHigh() throws Exception {
+        int failCount = 0;
+
+        for (int i=0; i<SIZE; i++) {
+            BigInteger a = fetchNumber(1 + rnd.nextInt(10*BITS_TOOM_COOK));
+            BigInteger b = rnd.nextInt(5)==0 ? a : fetchNumber(1 + rnd.nextInt(10*BITS_TOOM_COOK));
+            if (rnd.nextInt(5) == 0)
+                a = ONE.shiftLeft(1 + rnd.nextInt(10*BITS_TOOM_COOK)).subtract(ONE);   // all ones: long carries
+            int bits = rnd.nextInt(a.bitLength() + b.bitLength() + 100);
+            BigInteger product = a.multiply(b);
+            BigInteger low = product.abs().and(ONE.shiftLeft(bits).subtract(ONE));
+            BigInteger high = product.abs().shiftRight(bits);
+            if (product.signum() < 0) {
+                low = low.negate();
+                high = high.negate();
+            }
+            if (!a.multiplyLow(b, bits).equals(low))
+                failCount++;
+            if (!a.multiplyHigh(b, bits).equals(high))
+                failCount++;
+            if (!a.multiplyHigh(b, bits, 2).equals(high))
+                failCount++;
+        }
+
+        // the short product kernels directly, at lengths around the schoolbook threshold and the
+        // recursive splits, with random factors and with all-ones factors
+        Method lowMethod = BigInteger.class.getDeclaredMethod("multiplyLowShort", BigInteger.class, BigInteger.class, int.class, int.class);
+        lowMethod.setAccessible(true);
+        Method highMethod = BigInteger.class.getDeclaredMethod("multiplyHighShort", BigInteger.class, BigInteger.class, int.class, int.class);
+        highMethod.setAccessible(true);
+        int[] lengths = {1, 2, 3, 99, 100, 101, 133, 399, 400, 401, 533, 1400};
+        for (int n: lengths)
+            for (int i=0; i<4; i++) {
+                BigInteger a = i==0 ? ONE.shiftLeft(32*n).subtract(ONE) : new BigInteger(32*n - rnd.nextInt(32), rnd);
+                BigInteger b = i<=1 ? ONE.shiftLeft(32*n).subtract(ONE) : new BigInteger(32*n - rnd.nextInt(32), rnd);
+                BigInteger product = a.multiply(b);
+                if (!lowMethod.invoke(null, a, b, n, 1).equals(product.and(ONE.shiftLeft(32*n).subtract(ONE))))
+                    failCount++;
+                // the high short product is a lower bound that is off by less than n units of 2^(32n)
+                BigInteger error = product.subtract((BigInteger)highMethod.invoke(null, a, b, n, 1));
+                if (error.signum()<0 || error.compareTo(BigInteger.valueOf(n).shiftLeft(32*n))>=0)
+                    failCount++;
+            }
+
+        Method subtractProductMethod = BigInteger.class.getDeclaredMethod("subtractProduct", BigInteger.class, BigInteger.class, BigInteger.class, int.class, int.class);
+        subtractProductMethod.setAccessible(true);
+        for (int i=0; i<REDUCED_SIZE; i++) {
+            BigInteger a = new BigInteger(ORDER_SS_BARRETT/4 + rnd.nextInt(ORDER_SS_BARRETT/4), rnd).setBit(0);
+            BigInteger b = new BigInteger(ORDER_SS_BARRETT/4 + rnd.nextInt(ORDER_SS_BARRETT/4), rnd).setBit(0);
+            int bits = 2 + rnd.nextInt(Math.min(a.bitLength(), b.bitLength()));
+            BigInteger d = new BigInteger(bits-1, rnd);
+            if (rnd.nextBoolean())
+                d = d.negate();
+            BigInteger c = a.multiply(b).add(d);
+            if (c.signum() < 0)
+                continue;
+            if (!subtractProductMethod.invoke(null, c, a, b, bits, 1).equals(d))
+                failCount++;
+        }
+
+        report("multiplyLow/multiplyHigh", failCount);
+    }
+
+    /**
+     * Tests multiplication by a {@link BigInteger.PreparedMultiplier}, both through the public API
+     * (which uses the NTT for large numbers) and through the Schoenhage-Strassen path, which is only
+     * used for numbers too large for this test.
+     */
+    public static void preparedMultiplier() throws Exception {
+        int failCount = 0;
+
+        int[] orders = {100, BITS_TOOM_COOK, 30*BITS_TOOM_COOK, ORDER_SS_BARRETT};
+        for (int order: orders) {
+            BigInteger c = fetchNumber(order);
+            BigInteger.PreparedMultiplier prepared = BigInteger.prepareMultiplier(c);
+            for (int i=0; i<5; i++) {
+                // lengths close to the one of c so transforms get reused
+                BigInteger x = fetchNumber(order - rnd.nextInt(200));
+                if (!x.multiply(prepared).equals(x.multiply(c)))
+                    failCount++;
+                if (!x.multiply(prepared, 2).equals(x.multiply(c)))
+                    failCount++;
+            }
+            if (!c.multiply(prepared).equals(c.multiply(c)))
+                failCount++;
+            if (prepared.value() != c)
+                failCount++;
+        }
+
+        Method getParamsMethod = BigInteger.class.getDeclaredMethod("getSchoenhageStrassenParams", int.class, int.class);
+        getParamsMethod.setAccessible(true);
+        Method getPieceSizeMethod = BigInteger.class.getDeclaredMethod("getSchoenhageStrassenPieceSize", int.class, int.class, int.class);
+        getPieceSizeMethod.setAccessible(true);
+        Method getNumCoeffsMethod = BigInteger.class.getDeclaredMethod("getSchoenhageStrassenNumCoeffs", int.class, int.class);
+        getNumCoeffsMethod.setAccessible(true);
+        Method getTransformMethod = BigInteger.PreparedMultiplier.class.getDeclaredMethod("getSchoenhageStrassenTransform", int.class, int.class, int.class, int.class);
+        getTransformMethod.setAccessible(true);
+        Class<?> transformClass = getTransformMethod.getReturnType();
+        Field pieceSizeField = transformClass.getDeclaredField("pieceSize");
+        pieceSizeField.setAccessible(true);
+        Field partsField = transformClass.getDeclaredField("parts");
+        partsField.setAccessible(true);
+        Method multiplySchoenhageStrassenMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", int[].class, int[].class, int.class, int.class, int.class, partsField.getType(), int.class);
+        multiplySchoenhageStrassenMethod.setAccessible(true);
+        Field magField = BigInteger.class.getDeclaredField("mag");
+        magField.setAccessible(true);
+        Constructor<BigInteger> bigintCtor = BigInteger.class.getDeclaredConstructor(int.class, int[].class);
+        bigintCtor.setAccessible(true);
+        BigInteger c = fetchNumber(30*BITS_TOOM_COOK).abs();
+        BigInteger.PreparedMultiplier prepared = BigInteger.prepareMultiplier(c);
+        int[] cMag = (int[])magField.get(c);
+        for (int i=0; i<10; i++) {
+            BigInteger x = fetchNumber(30*BITS_TOOM_COOK - rnd.nextInt(20*BITS_TOOM_COOK)).abs();
+            if (x.signum() == 0)
+                continue;
+            int[] xMag = (int[])magField.get(x);
+            int[] params = (int[])getParamsMethod.invoke(null, xMag.length, cMag.length);
+            int numCoeffs = (Integer)getNumCoeffsMethod.invoke(null, params[0], params[1]);
+            int pieceSize = (Integer)getPieceSizeMethod.invoke(null, xMag.length, cMag.length, numCoeffs);
+            Object transform = getTransformMethod.invoke(prepared, params[0], params[1], pieceSize, 1);
+            int[] product = (int[])multiplySchoenhageStrassenMethod.invoke(null, xMag, cMag, params[0], params[1],
+                    pieceSizeField.get(transform), partsField.get(transform), 1);
+            if (!bigintCtor.newInstance(1, product).equals(x.multiply(c)))
+                failCount++;
+        }
+
+        report("preparedMultiplier", failCount);
+    }
+
+    /**
+     * Tests multiplication and squaring via the floating-point FFT against Toom-Cook, including
+     * numbers whose balanced digits are as large as possible, which maximize the round-off error.
+     * The random numbers are multiplied with one to four threads.
+     */
+    public static void fft() throws Exception {
+        int failCount = 0;
+
+        Method multiplyFftMethod = BigInteger.class.getDeclaredMethod("multiplyFft", BigInteger.class, BigInteger.class, int.class);
+        multiplyFftMethod.setAccessible(true);
+        Method multiplyToomCookMethod = BigInteger.class.getDeclaredMethod("multiplyToomCook", BigInteger.class, BigInteger.class);
+        multiplyToomCookMethod.setAccessible(true);
+        for (int i=0; i<SIZE/10; i++) {
+            BigInteger a = fetchNumber(1 + rnd.nextInt(30*BITS_TOOM_COOK));
+            BigInteger b = rnd.nextInt(4)==0 ? a : fetchNumber(1 + rnd.nextInt(30*BITS_TOOM_COOK));
+            if (a.signum()==0 || b.signum()==0)
+                continue;
+
+            int numThreads = 1 + rnd.nextInt(4);
+            BigInteger product = (BigInteger)multiplyFftMethod.invoke(null, a, b, numThreads);
+            BigInteger expected = (BigInteger)multiplyToomCookMethod.invoke(null, a, b);
+            if (!product.equals(expected))
+                failCount++;
+        }
+
+        // numbers whose digits are all 2^(bits-1) in base 2^bits, and numbers with all bits set
+        for (int bits=10; bits<=17; bits++)
+            for (int n: new int[] {32, 1000, 20000, 200000, 500000}) {
+                BigInteger a;
+                if (bits == 17)
+                    a = ONE.shiftLeft(n).subtract(ONE);
+                else {
+                    n -= n % bits;
+                    a = ONE.shiftLeft(n).subtract(ONE).divide(ONE.shiftLeft(bits).subtract(ONE)).shiftLeft(bits-1);
+                }
+                BigInteger b = a.add(ONE).shiftLeft(17).subtract(ONE);
+                if (!multiplyFftMethod.invoke(null, a, a, 1).equals(multiplyToomCookMethod.invoke(null, a, a)))
+                    failCount++;
+                if (!multiplyFftMethod.invoke(null, a, b, 3).equals(multiplyToomCookMethod.invoke(null, a, b)))
+                    failCount++;
+            }
+
+        // the same kind of numbers at the longest length for each digit size, where the error bound is
+        // closest to 1/2
+        Method getDigitBitsMethod = Class.forName("java.math.FftMultiplier").getDeclaredMethod("getDigitBits", int.class, int.class, boolean.class);
+        getDigitBitsMethod.setAccessible(true);
+        int maxLen = 30000;
+        for (boolean square: new boolean[] {false, true}) {
+            int len = 1;
+            while (len < maxLen) {
+                int bits = (Integer)getDigitBitsMethod.invoke(null, len, len, square);
+                // binary search for the last length with the same digit size
+                int lo = len;
+                int hi = maxLen;
+                while (lo < hi) {
+                    int mid = (lo+hi+1) / 2;
+                    if ((Integer)getDigitBitsMethod.invoke(null, mid, mid, square) == bits)
+                        lo = mid;
+                    else
+                        hi = mid - 1;
+                }
+                if (lo < maxLen) {
+                    int n = (32*lo-bits+1) / bits * bits;   // so that a has lo ints
+                    BigInteger a = ONE.shiftLeft(n).subtract(ONE).divide(ONE.shiftLeft(bits).subtract(ONE)).shiftLeft(bits-1);
+                    BigInteger b = square ? a : new BigInteger(a.toByteArray());
+                    if (!multiplyFftMethod.invoke(null, a, b, 1).equals(multiplyToomCookMethod.invoke(null, a, a)))
+                        failCount++;
+                }
+                len = lo + 1;
+            }
+        }
+
+        report("FFT", failCount);
+    }
+
+    /**
+     * Tests multiplication and squaring via the three-prime NTT against Schoenhage-Strassen,
+     * including numbers with all bits set, which produce the largest convolution coefficients.
+     */
+    public static void ntt() throws Exception {
+        int failCount = 0;
+
+        Method multiplyNttMethod = BigInteger.class.getDeclaredMethod("multiplyNtt", BigInteger.class, BigInteger.class, int.class);
+        multiplyNttMethod.setAccessible(true);
+        Method multiplySchoenhageStrassenMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", BigInteger.class, BigInteger.class, int.class);
+        multiplySchoenhageStrassenMethod.setAccessible(true);
+        for (int i=0; i<SIZE/10; i++) {
+            BigInteger a = fetchNumber(1 + rnd.nextInt(30*BITS_TOOM_COOK));
+            BigInteger b = rnd.nextInt(4)==0 ? a : fetchNumber(1 + rnd.nextInt(30*BITS_TOOM_COOK));
+            if (a.signum()==0 || b.signum()==0)
+                continue;
+            int numThreads = 1 + rnd.nextInt(3);
+
+            BigInteger product = (BigInteger)multiplyNttMethod.invoke(null, a, b, numThreads);
+            BigInteger expected = (BigInteger)multiplySchoenhageStrassenMethod.invoke(null, a, b, 1);
+            if (!product.equals(expected))
+                failCount++;
+        }
+
+        for (int n: new int[] {1, 31, 32, 33, 64, 1000, 1<<16, 1<<20}) {
+            BigInteger a = ONE.shiftLeft(n).subtract(ONE);
+            BigInteger b = ONE.shiftLeft(n+17).subtract(ONE);
+            if (!multiplyNttMethod.invoke(null, a, a, 1).equals(multiplySchoenhageStrassenMethod.invoke(null, a, a, 1)))
+                failCount++;
+            if (!multiplyNttMethod.invoke(null, a, b, 1).equals(multiplySchoenhageStrassenMethod.invoke(null, a, b, 1)))
+                failCount++;
+        }
+
+        report("NTT", failCount);
+    }
+
     public static void schoenhageStrassen(int order) throws Exception {
         int failCount = 0;
 
@@ -398,6 +1040,69 @@ public class BigIntegerTest {
                 failCount++;
         }
 
+        // numbers below the NTT upper threshold don't use SS in multiply(), so call it directly, also
+        // with numbers of the form 2^n-1 which cause long carries across the parallel assembly of the product
+        for (int i=0; i<10; i++) {
+            int aBits = 32 * (3000+rnd.nextInt(30000));
+            int bBits = i%2==0 ? aBits : 32 * (3000+rnd.nextInt(30000));
+            BigInteger a = i%3==0 ? ONE.shiftLeft(aBits).subtract(ONE) : new BigInteger(aBits, rnd);
+            BigInteger b = i%3==0 ? ONE.shiftLeft(bBits).subtract(ONE) : new BigInteger(bBits, rnd);
+            if (i%4 == 0)
+                b = a;
+            BigInteger c1 = (BigInteger)multiplySchoenhageStrassenMethod.invoke(null, a, b, 2+rnd.nextInt(15));
+            BigInteger c2 = (BigInteger)multiplySchoenhageStrassenMethod.invoke(null, a, b, 1);
+            if (!c1.equals(c2) || !c1.equals(a.multiply(b)))
+                failCount++;
+        }
+
+        // test unbalanced multiplication against a single SS multiplication, with chunk lengths that
+        // do and do not divide the length of the long factor
+        Method unbalancedMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassenUnbalanced", int[].class, int[].class, int.class, int.class);
+        unbalancedMethod.setAccessible(true);
+        Method balancedMethod = BigInteger.class.getDeclaredMethod("multiplySchoenhageStrassen", int[].class, int[].class, int.class, int.class, int.class);
+        balancedMethod.setAccessible(true);
+        Method getParamsMethod = BigInteger.class.getDeclaredMethod("getSchoenhageStrassenParams", int.class, int.class);
+        getParamsMethod.setAccessible(true);
+        Method getChunkLengthMethod = BigInteger.class.getDeclaredMethod("getSchoenhageStrassenChunkLength", int.class, int.class);
+        getChunkLengthMethod.setAccessible(true);
+        Field magField = BigInteger.class.getDeclaredField("mag");
+        magField.setAccessible(true);
+        for (int i=0; i<10; i++) {
+            int blen = 100 + rnd.nextInt(2000);
+            int alen = blen * (2+rnd.nextInt(10)) + rnd.nextInt(blen);
+            int[] a = (int[])magField.get(new BigInteger(32*alen, rnd).setBit(32*alen-1));
+            int[] b = (int[])magField.get(i%3==0 ? ONE.shiftLeft(32*blen).subtract(ONE) : new BigInteger(32*blen, rnd).setBit(32*blen-1));
+            int chunkLength = i%4==0 ? blen : blen + rnd.nextInt(alen-blen);
+            int[] params = (int[])getParamsMethod.invoke(null, alen, blen);
+            int[] expected = (int[])balancedMethod.invoke(null, a, b, params[0], params[1], 1);
+            int[] product = (int[])unbalancedMethod.invoke(null, a, b, chunkLength, 1+rnd.nextInt(3));
+            if (!Arrays.equals(product, expected))
+                failCount++;
+        }
+
+        // the low-memory mode uses a single transform
+        Method getParamsMaxPartsMethod = BigInteger.class.getDeclaredMethod("getSchoenhageStrassenParams", int.class, int.class, int.class);
+        getParamsMaxPartsMethod.setAccessible(true);
+        for (int i=0; i<10; i++) {
+            int alen = 3000 + rnd.nextInt(30000);
+            int blen = 3000 + rnd.nextInt(30000);
+            int[] params = (int[])getParamsMaxPartsMethod.invoke(null, alen, blen, 1);
+            if (params[1] != 1)
+                failCount++;
+            BigInteger a = new BigInteger(32*alen, rnd).setBit(32*alen-1);
+            BigInteger b = new BigInteger(32*blen, rnd).setBit(32*blen-1);
+            int[] product = (int[])balancedMethod.invoke(null, magField.get(a), magField.get(b), params[0], 1, 1);
+            if (!Arrays.equals(product, (int[])magField.get(a.multiply(b))))
+                failCount++;
+        }
+
+        // factors of similar length are not split
+        for (int len: new int[] {3001, 100000, 5000000})
+            if ((Integer)getChunkLengthMethod.invoke(null, len, len) != len)
+                failCount++;
+        if ((Integer)getChunkLengthMethod.invoke(null, 5000000, 5000) >= 5000000)
+            failCount++;
+
         // verify that idft(dft(a)) = a
         Class<?> mutableModFnClass = Class.forName("java.math.MutableModFn");
         Constructor<?> mutableModFnCtor = mutableModFnClass.getDeclaredConstructor(long[].class);
@@ -415,12 +1120,12 @@ public class BigIntegerTest {
             long[][] aOrig = new long[a.length][];
             for (int i=0; i<a.length; i++)
                 aOrig[i] = a[i].clone();
-            int omega = m%2==0 ? 4 : 2;
+            int omegaLog = m%2==0 ? 2 : 1;
             Object vector = Array.newInstance(mutableModFnClass, a.length);
             for (int i=0; i<a.length; i++)
                 Array.set(vector, i, mutableModFnCtor.newInstance(a[i]));
-            dftMethod.invoke(null, vector, omega, 1);
-            idftMethod.invoke(null, vector, omega, 1);
+            dftMethod.invoke(null, vector, omegaLog, 1);
+            idftMethod.invoke(null, vector, omegaLog, 1);
             for (int i=0; i<aOrig.length; i++) {
                 long[] origDigits = (long[])digitsField.get(Array.get(vector, i));
                 if (!Arrays.equals(origDigits, aOrig[i]))
@@ -428,6 +1133,86 @@ public class BigIntegerTest {
             }
         }
 
+        // same as above, but with all elements stored in one array
+        Constructor<?> mutableModFnRangeCtor = mutableModFnClass.getDeclaredConstructor(long[].class, int.class, int.class);
+        mutableModFnRangeCtor.setAccessible(true);
+        for (int k=0; k<20; k++) {
+            int m = 10 + rnd.nextInt(8);
+            int n = m/2 + 1;
+            long[][] a = createRandomDftArray(m, n);
+            int len = a[0].length;
+            long[] data = new long[a.length*len];
+            for (int i=0; i<a.length; i++)
+                System.arraycopy(a[i], 0, data, i*len, len);
+            long[] dataOrig = data.clone();
+            int omegaLog = m%2==0 ? 2 : 1;
+            Object vector = Array.newInstance(mutableModFnClass, a.length);
+            for (int i=0; i<a.length; i++)
+                Array.set(vector, i, mutableModFnRangeCtor.newInstance(data, i*len, len));
+            dftMethod.invoke(null, vector, omegaLog, 1+rnd.nextInt(3));
+            idftMethod.invoke(null, vector, omegaLog, 1+rnd.nextInt(3));
+            if (!Arrays.equals(data, dataOrig))
+                failCount++;
+        }
+
+        // the six-step (cache-blocked) column transforms against the column transforms done in place.
+        // The vectors are larger than DFT_BLOCK_BYTES, so dft() and idft() use the six-step variant,
+        // and the number of columns is not a multiple of the number of columns per block.
+        Class<?> vectorClass = Array.newInstance(mutableModFnClass, 0).getClass();
+        Method isDftBlockedMethod = BigInteger.class.getDeclaredMethod("isDftBlocked", vectorClass);
+        isDftBlockedMethod.setAccessible(true);
+        Method getDftExponentsMethod = BigInteger.class.getDeclaredMethod("getDftExponents", int.class, int.class, int.class, int.class);
+        getDftExponentsMethod.setAccessible(true);
+        Method dftDirectMethod = BigInteger.class.getDeclaredMethod("dftDirect", vectorClass, int[].class, int.class, int.class, int.class, mutableModFnClass);
+        dftDirectMethod.setAccessible(true);
+        Method idftDirectMethod = BigInteger.class.getDeclaredMethod("idftDirect", vectorClass, int[].class, int.class, int.class, int.class, mutableModFnClass);
+        idftDirectMethod.setAccessible(true);
+        Method applyDftWeightsMethod = BigInteger.class.getDeclaredMethod("applyDftWeights", vectorClass, int.class, int.class, int.class, int.class);
+        applyDftWeightsMethod.setAccessible(true);
+        Method applyIdftWeightsMethod = BigInteger.class.getDeclaredMethod("applyIdftWeights", vectorClass, int.class, int.class, int.class, int.class);
+        applyIdftWeightsMethod.setAccessible(true);
+        for (int m: new int[] {24, 25})
+            for (int numThreads: new int[] {1, 3}) {
+                int n = m/2 + 1;
+                long[][] a = createRandomDftArray(m, n);
+                Object blocked = Array.newInstance(mutableModFnClass, a.length);
+                Object inPlace = Array.newInstance(mutableModFnClass, a.length);
+                for (int i=0; i<a.length; i++) {
+                    Array.set(blocked, i, mutableModFnCtor.newInstance(a[i].clone()));
+                    Array.set(inPlace, i, mutableModFnCtor.newInstance(a[i].clone()));
+                }
+                if (!(Boolean)isDftBlockedMethod.invoke(null, blocked))
+                    failCount++;
+                int omegaLog = m%2==0 ? 2 : 1;
+                int rows = 1 << ((31-Integer.numberOfLeadingZeros(a.length))/2);
+                int cols = a.length / rows;
+                int[] colExps = (int[])getDftExponentsMethod.invoke(null, rows, rows, cols, omegaLog);
+                int[] rowExps = (int[])getDftExponentsMethod.invoke(null, cols, 0, rows, omegaLog);
+                Object temp = mutableModFnCtor.newInstance(new long[a[0].length]);
+
+                dftMethod.invoke(null, blocked, omegaLog, numThreads);
+                for (int i=0; i<cols; i++)
+                    dftDirectMethod.invoke(null, inPlace, colExps, rows, i, cols, temp);
+                applyDftWeightsMethod.invoke(null, inPlace, omegaLog, rows, cols, 1);
+                for (int i=0; i<rows; i++)
+                    dftDirectMethod.invoke(null, inPlace, rowExps, cols, i*cols, 1, temp);
+                for (int i=0; i<a.length; i++)
+                    if (!Arrays.equals((long[])digitsField.get(Array.get(blocked, i)), (long[])digitsField.get(Array.get(inPlace, i))))
+                        failCount++;
+
+                idftMethod.invoke(null, blocked, omegaLog, numThreads);
+                for (int i=0; i<rows; i++)
+                    idftDirectMethod.invoke(null, inPlace, rowExps, cols, i*cols, 1, temp);
+                applyIdftWeightsMethod.invoke(null, inPlace, omegaLog, rows, cols, 1);
+                for (int i=0; i<cols; i++)
+                    idftDirectMethod.invoke(null, inPlace, colExps, rows, i, cols, temp);
+                for (int i=0; i<a.length; i++) {
+                    long[] digits = (long[])digitsField.get(Array.get(blocked, i));
+                    if (!Arrays.equals(digits, (long[])digitsField.get(Array.get(inPlace, i))) || !Arrays.equals(digits, a[i]))
+                        failCount++;
+                }
+            }
+
         // test MutableModFn.multiply()
         Method multiplyMethod = mutableModFnClass.getDeclaredMethod("multiply", mutableModFnClass);
         multiplyMethod.setAccessible(true);
@@ -478,11 +1263,139 @@ public class BigIntegerTest {
                 failCount++;
         }
 
+        // test MutableModFn.multiply() and square() with multiple threads on numbers long enough for SS
+        Method multiplyThreadsMethod = mutableModFnClass.getDeclaredMethod("multiply", mutableModFnClass, int.class);
+        multiplyThreadsMethod.setAccessible(true);
+        Method squareThreadsMethod = mutableModFnClass.getDeclaredMethod("square", int.class);
+        squareThreadsMethod.setAccessible(true);
+        for (int i=0; i<20; i++) {
+            int n = 14 + rnd.nextInt(5);
+            long[] a = createRandomModFn(n);
+            long[] b = createRandomModFn(n);
+            BigInteger aBigInt = bigintCtor.newInstance(1, toIntArray(a));
+            BigInteger bBigInt = bigintCtor.newInstance(1, toIntArray(b));
+
+            Object aMutable = mutableModFnCtor.newInstance(a.clone());
+            multiplyThreadsMethod.invoke(aMutable, mutableModFnCtor.newInstance(b), 2+rnd.nextInt(7));
+            BigInteger actual = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+            if (!actual.equals(aBigInt.multiply(bBigInt).mod(fermat(n))))
+                failCount++;
+
+            aMutable = mutableModFnCtor.newInstance(a.clone());
+            squareThreadsMethod.invoke(aMutable, 2+rnd.nextInt(7));
+            actual = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+            if (!actual.equals(aBigInt.multiply(aBigInt).mod(fermat(n))))
+                failCount++;
+        }
+
+        // test the long[] kernels behind MutableModFn.multiply() and square() with all lengths and carry-heavy
+        // inputs; the scratch space starts at an offset and is filled with garbage
+        Method multiplySchoolbookMethod = mutableModFnClass.getDeclaredMethod("multiplySchoolbook", long[].class, int.class, long[].class, int.class, int.class, long[].class, int.class);
+        multiplySchoolbookMethod.setAccessible(true);
+        Method squareKaratsubaMethod = mutableModFnClass.getDeclaredMethod("squareKaratsuba", long[].class, int.class, int.class, long[].class, int.class, long[].class, int.class);
+        squareKaratsubaMethod.setAccessible(true);
+        Method getKaratsubaScratchSizeMethod = mutableModFnClass.getDeclaredMethod("getKaratsubaScratchSize", int.class);
+        getKaratsubaScratchSizeMethod.setAccessible(true);
+        for (int i=0; i<300; i++) {
+            int n = 1 + rnd.nextInt(150);
+            long[] a = new long[n+2];   // one unused digit on each side
+            long[] b = new long[n+2];
+            for (int j=1; j<=n; j++) {
+                a[j] = rnd.nextInt(3)==0 ? -1 : rnd.nextLong();
+                b[j] = rnd.nextInt(3)==0 ? -1 : rnd.nextLong();
+            }
+            if (rnd.nextInt(4) == 0)
+                Arrays.fill(a, 1, n+1, -1);
+            BigInteger aBigInt = bigintCtor.newInstance(1, toIntArray(Arrays.copyOfRange(a, 1, n+1)));
+            BigInteger bBigInt = bigintCtor.newInstance(1, toIntArray(Arrays.copyOfRange(b, 1, n+1)));
+
+            long[] c = new long[2*n+1];
+            multiplySchoolbookMethod.invoke(null, a, n+1, b, n+1, n, c, 2*n+1);
+            if (c[0]!=0 || !bigintCtor.newInstance(1, toIntArray(c)).equals(aBigInt.multiply(bBigInt)))
+                failCount++;
+
+            c = new long[2*n+1];
+            long[] scratch = new long[3 + (Integer)getKaratsubaScratchSizeMethod.invoke(null, n)];
+            for (int j=0; j<scratch.length; j++)
+                scratch[j] = rnd.nextLong();
+            squareKaratsubaMethod.invoke(null, a, n+1, n, c, 2*n+1, scratch, 3);
+            if (c[0]!=0 || !bigintCtor.newInstance(1, toIntArray(c)).equals(aBigInt.multiply(aBigInt)))
+                failCount++;
+        }
+
+        // test MutableModFn.multiply() and square() with special values: 0, 1, 2^2^n-1, 2^2^n
+        for (int i=0; i<200; i++) {
+            int n = 6 + rnd.nextInt(10);
+            long[][] ab = new long[2][];
+            for (int j=0; j<2; j++) {
+                ab[j] = createRandomModFn(n);
+                switch (rnd.nextInt(5)) {
+                    case 0: Arrays.fill(ab[j], 0); break;
+                    case 1: Arrays.fill(ab[j], 0); ab[j][ab[j].length-1] = 1; break;
+                    case 2: Arrays.fill(ab[j], -1); ab[j][0] = 0; break;
+                    case 3: Arrays.fill(ab[j], 0); ab[j][0] = 1; break;
+                }
+            }
+            BigInteger aBigInt = bigintCtor.newInstance(1, toIntArray(ab[0]));
+            BigInteger bBigInt = bigintCtor.newInstance(1, toIntArray(ab[1]));
+
+            Object aMutable = mutableModFnCtor.newInstance(ab[0].clone());
+            multiplyMethod.invoke(aMutable, mutableModFnCtor.newInstance(ab[1]));
+            BigInteger actual = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+            if (!actual.equals(aBigInt.multiply(bBigInt).mod(fermat(n))))
+                failCount++;
+
+            aMutable = mutableModFnCtor.newInstance(ab[0]);
+            squareModFnMethod.invoke(aMutable);
+            actual = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+            if (!actual.equals(aBigInt.multiply(aBigInt).mod(fermat(n))))
+                failCount++;
+        }
+
+        // test the negacyclic Schoenhage-Strassen path of MutableModFn.multiply() and square() at lengths
+        // around its threshold, at lengths that allow only a few piece counts, and at the lengths of its
+        // own pointwise products, which aren't powers of two. All ones makes the high coefficients wrap
+        // around with the largest possible magnitude, so the low ones are negative.
+        Method ssParamsMethod = mutableModFnClass.getDeclaredMethod("getSchoenhageStrassenParams", int.class);
+        ssParamsMethod.setAccessible(true);
+        List<Integer> ssLengths = new ArrayList<Integer>(Arrays.asList(150, 255, 256, 257, 272, 384, 496, 512, 1024, 1040, 4096, 65536));
+        for (int i=0; i<ssLengths.size(); i++) {
+            int[] params = (int[])ssParamsMethod.invoke(null, ssLengths.get(i));
+            if (params!=null && !ssLengths.contains(params[1]))
+                ssLengths.add(params[1]);
+        }
+        for (int len: ssLengths) {
+            BigInteger modulus = ONE.shiftLeft(64*len).add(ONE);
+            for (int i=0; i<(len>10000 ? 2 : 6); i++) {
+                long[][] ab = new long[2][len+1];
+                for (int j=0; j<2; j++)
+                    switch ((i+j) % 6) {
+                        case 0: Arrays.fill(ab[j], 1, len+1, -1); break;             // 2^(64len)-1
+                        case 1: ab[j][1] = Long.MIN_VALUE; break;                    // 2^(64len-1)
+                        case 2: ab[j][len] = 1; break;                               // 1
+                        case 3: Arrays.fill(ab[j], 1, len/2+1, -1); break;           // high half all ones
+                        default: for (int k=1; k<=len; k++) ab[j][k] = rnd.nextLong();
+                    }
+                BigInteger aBigInt = bigintCtor.newInstance(1, toIntArray(ab[0]));
+                BigInteger bBigInt = bigintCtor.newInstance(1, toIntArray(ab[1]));
+
+                Object aMutable = mutableModFnCtor.newInstance(ab[0].clone());
+                multiplyThreadsMethod.invoke(aMutable, mutableModFnCtor.newInstance(ab[1]), 1+i%3);
+                BigInteger actual = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+                if (!actual.equals(aBigInt.multiply(bBigInt).mod(modulus)))
+                    failCount++;
+
+                aMutable = mutableModFnCtor.newInstance(ab[0]);
+                squareThreadsMethod.invoke(aMutable, 1+i%3);
+                actual = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+                if (!actual.equals(aBigInt.multiply(aBigInt).mod(modulus)))
+                    failCount++;
+            }
+        }
+
         // test MutableModFn.add()
         Method addMethod = mutableModFnClass.getDeclaredMethod("add", mutableModFnClass);
         addMethod.setAccessible(true);
-        Method toIntArrayOddMethod = mutableModFnClass.getDeclaredMethod("toIntArrayOdd", long[].class);
-        toIntArrayOddMethod.setAccessible(true);
         for (int k = 0; k<100; k++) {
             int n = 6 + rnd.nextInt(10);
             long[] aArr = createRandomModFn(n);
@@ -642,38 +1555,39 @@ public class BigIntegerTest {
                 failCount++;
         }
 
-        // test MutableModFn.reduceWide()
-        Method reduceWideMethod = mutableModFnClass.getDeclaredMethod("reduceWide", long[].class);
-        reduceWideMethod.setAccessible(true);
+        // test MutableModFn.addSubtractLazy() and MutableModFn.reduceSigned() by doing
+        // several butterflies without reducing in between
+        Method addSubtractLazyMethod = mutableModFnClass.getDeclaredMethod("addSubtractLazy", mutableModFnClass, mutableModFnClass);
+        addSubtractLazyMethod.setAccessible(true);
+        Method reduceSignedMethod = mutableModFnClass.getDeclaredMethod("reduceSigned");
+        reduceSignedMethod.setAccessible(true);
         for (int k = 0; k<100; k++) {
             int n = 6 + rnd.nextInt(15);
-            int len = 1 << (n + 1 - 6);
-            long[] a = createRandomArrayLong(len);
-            long[] aOrig = a.clone();
+            long[] a = createRandomModFn(n);
+            long[] b = createRandomModFn(n);
             BigInteger Fn = fermat(n);
+            BigInteger x = bigintCtor.newInstance(1, toIntArray(a));
+            BigInteger y = bigintCtor.newInstance(1, toIntArray(b));
 
-            int[] aOrigInt = toIntArray(aOrig);
-            BigInteger expected = bigintCtor.newInstance(1, aOrigInt).mod(Fn);
-
-            reduceWideMethod.invoke(null, a);
-            int[] aInt = (int[])toIntArrayOddMethod.invoke(null, a);
-            BigInteger actual = bigintCtor.newInstance(1, aInt);
-
-            if (!actual.equals(expected))
-                failCount++;
-            if (actual.compareTo(Fn) >= 0)
-                failCount++;
-        }
+            Object aMutable = mutableModFnCtor.newInstance(a);
+            Object bMutable = mutableModFnCtor.newInstance(b);
+            Object cMutable = mutableModFnCtor.newInstance(new long[a.length]);
+            int rounds = 1 + rnd.nextInt(20);
+            for (int i=0; i<rounds; i++) {
+                addSubtractLazyMethod.invoke(aMutable, bMutable, cMutable);   // a=a+b, c=a-b
+                BigInteger sum = x.add(y);
+                y = x.subtract(y);
+                x = sum;
+                Object temp = bMutable;
+                bMutable = cMutable;
+                cMutable = temp;
+            }
+            reduceSignedMethod.invoke(aMutable);
+            reduceSignedMethod.invoke(bMutable);
 
-        // test MutableModFn.toIntArray() and MutableModFn.toLongArray()
-        Method toLongArrayEvenMethod = mutableModFnClass.getDeclaredMethod("toLongArrayEven", int[].class);
-        toLongArrayEvenMethod.setAccessible(true);
-        for (int i=0; i<1000; i++) {
-            int n = 2 + rnd.nextInt(1000);
-            int[] a = createRandomArray(n);
-            long[] b = n%2==0 ? (long[])toLongArrayEvenMethod.invoke(null, a) : toLongArrayOdd(a);
-            int[] c = n%2==0 ? toIntArray(b) : (int[])toIntArrayOddMethod.invoke(null, b);
-            if (!Arrays.equals(a, c))
+            BigInteger actualA = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(aMutable)));
+            BigInteger actualB = bigintCtor.newInstance(1, toIntArray((long[])digitsField.get(bMutable)));
+            if (!actualA.equals(x.mod(Fn)) || !actualB.equals(y.mod(Fn)))
                 failCount++;
         }
 
@@ -720,14 +1634,14 @@ public class BigIntegerTest {
         }
 
         // test splitBits
-        Method splitBitsMethod = BigInteger.class.getDeclaredMethod("splitBits", int[].class, int.class);
+        Method splitBitsMethod = BigInteger.class.getDeclaredMethod("splitBits", int[].class, int.class, int.class);
         splitBitsMethod.setAccessible(true);
         for (int k = 0; k<100; k++) {
             int n = 1 + rnd.nextInt(1000);
             int[] aArr = createRandomArray(n);
             BigInteger actual = bigintCtor.newInstance(1, aArr);
             int pieceSize = 1 + smallRandom(n-1, rnd);
-            int[][] pieces = (int[][])splitBitsMethod.invoke(null, aArr, pieceSize);
+            int[][] pieces = (int[][])splitBitsMethod.invoke(null, aArr, pieceSize, 1+rnd.nextInt(4));
             BigInteger expected = ZERO;
             for (int i=pieces.length-1; i>=0; i--) {
                 int[] piece = pieces[i];
@@ -796,13 +1710,6 @@ public class BigIntegerTest {
         return a;
     }
 
-    private static long[] createRandomArrayLong(int length) {
-        long[] a = new long[length];
-        for (int i=0; i<a.length; i++)
-            a[i] = rnd.nextLong();
-        return a;
-    }
-
     /**
      * Returns a random number modulo 2^2^n+1. The results are biased
      * towards the special case 2^2^n.
@@ -839,15 +1746,6 @@ public class BigIntegerTest {
         return intDigits;
     }
 
-    /** digits.length must be an odd number */
-    public static long[] toLongArrayOdd(int[] digits) {
-        long[] longDigits = new long[digits.length/2+1];
-        longDigits[0] = digits[0];
-        for (int i=1; i<longDigits.length; i++)
-            longDigits[i] = (((long)digits[2*i-1])<<32) | (digits[2*i]&0xFFFFFFFFL);
-        return longDigits;
-    }
-
     /** Returns the n-th Fermat number */
     private static BigInteger fermat(int n) throws Exception {
         Constructor<BigInteger> bigintCtor = BigInteger.class.getDeclaredConstructor(int.class, int[].class);
@@ -998,6 +1896,22 @@ public class BigIntegerTest {
                 failCount++;
         }
         report("Logic (&~ | ~) for " + order + " bits", failCount);
+
+        // Compare the fast paths for nonnegative numbers with the general code for negative numbers
+        failCount = 0;
+        for (int i=0; i<SIZE; i++) {
+            BigInteger x = fetchNumber(order).abs();
+            BigInteger y = fetchNumber(order/(1+rnd.nextInt(3))).abs();
+            if (!x.and(y).equals(x.not().or(y.not()).not()))
+                failCount++;
+            if (!x.or(y).equals(x.not().and(y.not()).not()))
+                failCount++;
+            if (!x.xor(y).equals(x.not().xor(y.not())))
+                failCount++;
+            if (!x.andNot(y).equals(x.and(y.not())) || !y.andNot(x).equals(y.and(x.not())))
+                failCount++;
+        }
+        report("Logic (nonnegative) for " + order + " bits", failCount);
     }
 
     public static void shift(int order) {
@@ -1516,6 +2430,11 @@ public class BigIntegerTest {
         nextProbablePrime();
 
         schoenhageStrassen(order5);
+        schoenhageStrassenTruncated();
+        fft();
+        ntt();
+        preparedMultiplier();
+        multiplyLowHigh();
 
         inverse();
 
@@ -1537,6 +2456,7 @@ public class BigIntegerTest {
         square(ORDER_KARATSUBA_SQUARE);
         square(ORDER_TOOM_COOK_SQUARE);
         square(order5);   // SS/Barrett range
+        schoolbook();
 
         bitCount();
         bitLength();
@@ -1559,6 +2479,12 @@ public class BigIntegerTest {
 
         multiplyLarge();
         squareLarge();
+        exactDivide();
+        multiplyRange();
+        scratchArena();
+        mutableMultiply();
+        toomCookUnbalanced();
+        multiplyParallel();
         divideLarge();
 
         if (failure)